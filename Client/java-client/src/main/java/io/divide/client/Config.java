@@ -17,6 +17,7 @@
 package io.divide.client;
 
 import com.squareup.okhttp.OkHttpClient;
+import retrofit.RestAdapter;
 import rx.Scheduler;
 import rx.schedulers.Schedulers;
 
@@ -30,6 +31,8 @@ public abstract class Config<BackendType extends Backend> {
     public final OkHttpClient client = new OkHttpClient();
     private Scheduler subscribeOn = Schedulers.io();
     private Scheduler observeOn = Schedulers.io();
+    private boolean binaryFormat = false;
+    private RestAdapter.LogLevel logLevel = RestAdapter.LogLevel.HEADERS;
     private BackendModule backendModule;
 
     /**
@@ -78,6 +81,34 @@ public abstract class Config<BackendType extends Backend> {
         return this;
     }
 
+    /**
+     * Sets whether objects are exchanged with the server in the compact binary format instead of JSON.
+     * Must be set before Divide is initialized, servers not supporting it keep answering in JSON.
+     * @param binaryFormat whether to use the binary format.
+     */
+    public Config binaryFormat(boolean binaryFormat){
+        this.binaryFormat = binaryFormat;
+        return this;
+    }
+
+    public boolean binaryFormat() {
+        return binaryFormat;
+    }
+
+    /**
+     * Sets how much of each request is logged, FULL buffers whole response bodies in order to log them.
+     * Must be set before Divide is initialized.
+     * @param logLevel level used to log requests.
+     */
+    public Config logLevel(RestAdapter.LogLevel logLevel){
+        this.logLevel = logLevel;
+        return this;
+    }
+
+    public RestAdapter.LogLevel logLevel() {
+        return logLevel;
+    }
+
     public Scheduler observeOn() {
         return observeOn;
     }
@@ -114,6 +145,8 @@ public abstract class Config<BackendType extends Backend> {
                 ", client=" + client +
                 ", subscribeOn=" + subscribeOn +
                 ", observeOn=" + observeOn +
+                ", binaryFormat=" + binaryFormat +
+                ", logLevel=" + logLevel +
                 ", backendModule=" + backendModule +
                 '}';
     }
@@ -20,20 +20,23 @@ import com.google.inject.Inject;
 import iBoxDB.LocalServer.AutoBox;
 import iBoxDB.LocalServer.DB;
 import iBoxDB.LocalServer.E.CommitExpection;
+import iBoxDB.LocalServer.FNoneObject;
 import iBoxDB.LocalServer.IFunction;
 import io.divide.client.Config;
 import io.divide.shared.server.DAO;
 import io.divide.shared.transitory.TransientObject;
-import io.divide.shared.transitory.query.Clause;
+import io.divide.shared.transitory.query.Aggregation;
+import io.divide.shared.transitory.query.Continuation;
+import io.divide.shared.transitory.query.Expression;
+import io.divide.shared.transitory.query.Literal;
 import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Order;
 import io.divide.shared.transitory.query.Query;
 import io.divide.shared.util.ObjectUtils;
 
 import java.io.File;
 import java.util.*;
 
-import static io.divide.shared.util.ObjectUtils.isArray;
-
 public class LocalStorageIBoxDb<T1 extends TransientObject,T2 extends TransientObject> implements DAO<T1,T2> {
 
     //#from <table> where <condition> order by <field1> desc,<field2> limit <0,-1>  #Condition  == != < <= > >= & | #IFunction=[F1,F2,F3]
@@ -54,6 +57,7 @@ public class LocalStorageIBoxDb<T1 extends TransientObject,T2 extends TransientO
         db = new DB(path);
 //        db.getConfig().ensureTable("Wrapper", Wrapper.class, "Key", "Table");
         db.ensureTable(Wrapper.class, "Wrapper", "Key", "Table");
+        db.ensureIndex(Wrapper.class, "Wrapper", "Table", "Random");
         box = db.open();
     }
 
@@ -131,46 +135,30 @@ public class LocalStorageIBoxDb<T1 extends TransientObject,T2 extends TransientO
         }
 
         String table = query.getFrom();
-        Map<Integer,Clause> where = query.getWhere();
+        Expression filter = query.getFilter();
 
         List<Object> args = new ArrayList<Object>(); args.add(table);
         StringBuilder sb = new StringBuilder();
         sb.append("from Wrapper where Table==? ");
-        if(where.size()>0)
+        if(filter != null)
         {
             sb.append("&& (");
-            for(Clause c : where.values()){
-//                System.out.println(c);
-                if(c.getPreOperator() != null && c.getPreOperator().length() != 0){
-//                    System.out.println("Conditional: " + c.getPreOperator());
-                    OPERAND.Conditional con = OPERAND.Conditional.from(c.getPreOperator());
-//                    System.out.println("Conditional: " + con);
-                    String conString="";
-                    switch (con){
-                        case AND: conString = "||"; break;
-                        case OR: conString = "&&"; break;
-                    }
-                    sb.append(" ").append(conString).append(" [").append(c.getBefore()).append("]");
-                }
-                else
-                    sb.append(" [").append(c.getBefore()).append("]");
-                args.add(new QueryArray(c.getOperand(),c.getAfter()));
-            }
-
-//            for(Clause c : where.values()){
-//                    sb
-//                    .append(" ")
-//                    .append(c.getPreOperator())
-//                    .append(" ")
-//                    .append(c.getBefore())
-//                    .append(" ")
-//                    .append(c.getOperand())
-//                    .append(" ")
-//                    .append(c.getAfter());
-//            }
-
+            where(sb, filter, args);
             sb.append(')');
         }
+        if(query.getSelect() != null){
+            Aggregation aggregation = new Aggregation(query);
+            for(Wrapper w : box.select(Wrapper.class, sb.toString(), args.toArray())){
+                aggregation.add(w.toObject(type));
+            }
+            return (List<B>) aggregation.getResults();
+        }
+        if(query.getRandom() != null){
+            return project(sample(type, sb.toString(), args, query.getLimit()), query);
+        }
+        if(query.isOrdered()){
+            return project(ordered(type, sb.toString(), args, query), query);
+        }
         if(query.getLimit() != null){
             sb.append(" limit " + "0," + query.getLimit());
         }
@@ -185,9 +173,92 @@ public class LocalStorageIBoxDb<T1 extends TransientObject,T2 extends TransientO
 //            System.out.println(w);
             bList.add(w.toObject(type));
         }
+        return project(bList, query);
+    }
+
+    /*
+     * Wrappers keep each field under its own key, but nested maps and collections are spread over
+     * several keys, so projections are applied to the rebuilt objects.
+     */
+    private static <B extends TransientObject> List<B> project(List<B> objects, Query query){
+        List<String> fields = query.getFields();
+        if(fields != null){
+            for(B b : objects) b.retainFields(fields);
+        }
+        return objects;
+    }
+
+    /*
+     * Reads limit objects starting at a random point of the Table,Random index, wrapping around
+     * to the start if the end is reached, so the cost does not depend on where the point is.
+     */
+    private <B extends T2> List<B> sample(Class<B> type, String where, List<Object> args, Integer limit){
+        if(limit == null) limit = 1;
+        Double point = Math.random();
+        args.add(point);
+
+        List<B> bList = new ArrayList<B>(limit);
+        for(Wrapper w : box.select(Wrapper.class, where + " && Random>=? order by Random limit 0," + limit, args.toArray())){
+            bList.add(w.toObject(type));
+        }
+        if(bList.size() < limit){
+            for(Wrapper w : box.select(Wrapper.class, where + " && Random<? order by Random limit 0," + (limit - bList.size()), args.toArray())){
+                bList.add(w.toObject(type));
+            }
+        }
         return bList;
     }
 
+    /*
+     * Keyset paging, ordered by the field and then by key. Key order comes straight from the table,
+     * field values live in the wrapper map and are ordered here. Objects without the field are
+     * not part of an ordered query.
+     */
+    private <B extends T2> List<B> ordered(Class<B> type, String where, List<Object> args, Query query){
+        final Continuation after = query.getContinuation();
+        final boolean descending = query.getOrder() == Order.DESC;
+        final String field = query.getOrderBy();
+        int limit = (query.getLimit() != null) ? query.getLimit() : Integer.MAX_VALUE;
+
+        List<B> bList = new ArrayList<B>();
+        if(field == null){
+            if(after != null){
+                where += descending ? " && Key<?" : " && Key>?";
+                args.add(after.getKey());
+            }
+            where += descending ? " order by Key desc" : " order by Key";
+            if(query.getLimit() != null) where += " limit 0," + limit;
+            for(Wrapper w : box.select(Wrapper.class, where, args.toArray())){
+                bList.add(w.toObject(type));
+            }
+            return bList;
+        }
+
+        List<Wrapper> found = new ArrayList<Wrapper>();
+        for(Wrapper w : box.select(Wrapper.class, where, args.toArray())){
+            if(w.get(field) == null) continue;
+            if(after != null && compare(w, field, after.getValue(), after.getKey(), descending) <= 0) continue;
+            found.add(w);
+        }
+        Collections.sort(found, new Comparator<Wrapper>() {
+            @Override
+            public int compare(Wrapper w1, Wrapper w2) {
+                return LocalStorageIBoxDb.compare(w1, field, Continuation.toLiteral(w2.get(field)), w2.Key(), descending);
+            }
+        });
+        for(int x=0;x<found.size() && x<limit;x++){
+            bList.add(found.get(x).toObject(type));
+        }
+        return bList;
+    }
+
+    // > 0 if w comes after (value,key) in the given order
+    private static int compare(Wrapper w, String field, Literal value, String key, boolean descending){
+        int c = Continuation.toLiteral(w.get(field)).compareTo(value);
+        if(c == 0) c = w.Key().compareTo(key);
+        return descending ? -c : c;
+    }
+
     @Override
     public <O extends T2> Collection<O> get(String type, String... keys) throws DAOException {
         System.out.println("get("+type+"): " + ObjectUtils.v2c(keys));
@@ -233,68 +304,41 @@ public class LocalStorageIBoxDb<T1 extends TransientObject,T2 extends TransientO
 
     }
 
-    public static class QueryArray implements IFunction {
-        private OPERAND operand;
-        private String match;
-
-        public QueryArray(String operand, String match) {
-            this.operand = OPERAND.from(operand);
-//            System.out.println("Operand: " + operand);
-            this.match = match;
+    /*
+     * One [field] function call per predicate, joined the way the filter nests them.
+     */
+    private static void where(StringBuilder sb, Expression expression, List<Object> args){
+        if(!expression.isGroup()){
+            sb.append('[').append(expression.getField()).append(']');
+            args.add(new QueryArray(expression));
+            return;
+        }
+        String conditional = (expression.getConditional() == OPERAND.Conditional.AND) ? " && " : " || ";
+        List<Expression> terms = expression.getTerms();
+        for(int x=0;x<terms.size();x++){
+            if(x > 0) sb.append(conditional);
+            sb.append('(');
+            where(sb, terms.get(x), args);
+            sb.append(')');
         }
+    }
 
-        public Object execute(int argCount, Object[] args) {
-//            System.out.println("execute: " + Arrays.asList(args));
-            if(compare(args[0])) return true; // since we use this for all queries, check against the match first, then check against embedded arrays
-            if(!isArray(args[0])) return false;
+    public static class QueryArray implements IFunction {
+        private Expression predicate;
 
-            if (args[0] == null) {
-                return false;
-            }
-            Object[] tags = (Object[]) args[0];
-            for (Object t : tags) {
-//                System.out.println("Tag: " + t);
-                if(compare(t))return true;
-            }
-            return false;
+        public QueryArray(Expression predicate) {
+            this.predicate = predicate;
         }
 
-        private boolean compare(Object one){
-            int result = match.compareToIgnoreCase(String.valueOf(one));
-//            System.out.println(one + " " + operand + " " + match + ": " + result);
-            switch (operand){
-                case CONTAINS:
-                case EQ: return result == 0;
-                case GREATER_THAN: return result < 0;
-                case GREATER_THAN_EQ: return (result < 0 || result == 0);
-                case LESS_THAN: return result > 0;
-                case LESS_THAN_EQ: return (result > 0 || result == 0);
-            }
-            return false;
+        // embedded arrays match if one of their elements does, objects without the field never do
+        public Object execute(int argCount, Object[] args) {
+            if(args[0] instanceof FNoneObject) return false;
+            return predicate.test(args[0]);
         }
 
-//        public Object execute(int argCount, Object[] args) {
-//            return recursiveCheck(args,match);
-//        }
-//
-//        private static boolean recursiveCheck(Object object, Object target){
-//            if(object == null) return false;
-//            if(object.equals(target)) return true;
-//            if(!isArray(object))return false;
-//            else {
-//                Object[] tags = (Object[]) object;
-//                for(Object o : tags){
-//                    if(recursiveCheck(o,target)) return true;
-//                }
-//            }
-//            return false;
-//        }
-
         @Override
         public String toString() {
-            return "QueryArray{" +
-                    "match" + operand + match + '\'' +
-                    '}';
+            return "QueryArray{" + predicate + '}';
         }
     }
 
@@ -18,6 +18,7 @@ package io.divide.client.cache;
 
 import com.google.gson.*;
 import io.divide.shared.transitory.query.Query;
+import io.divide.shared.util.GsonUtils;
 import io.divide.shared.util.ObjectUtils;
 import io.divide.shared.util.ReflectionUtils;
 import io.divide.shared.transitory.TransientObject;
@@ -38,6 +39,7 @@ public class Wrapper extends HashMap<String, Object> {
     public <B extends TransientObject> Wrapper(B b){
         Key(b.getObjectKey());
         Table(Query.safeTable(b.getObjectType()));
+        Random(Math.random());
 
         recursiveSave("user_data", "", b.getUserData());
         recursiveSave("meta_data", "", b.getMetaData());
@@ -62,6 +64,17 @@ public class Wrapper extends HashMap<String, Object> {
         this.put("Table", value);
     }
 
+    /**
+     * Random sort key, sampling seeks to a random point of its index. Reassigned on every save.
+     */
+    public Double Random() {
+        return (Double) this.get("Random");
+    }
+
+    public void Random(Double value) {
+        this.put("Random", value);
+    }
+
     private FileInfo recursiveSave(String root, String current, Object object){
         String currentPath;
         if(current!=null && current.length()>0){
@@ -172,10 +185,7 @@ public class Wrapper extends HashMap<String, Object> {
     }
 
     private static final class Manifest{
-        private static Gson gson;
-        static {
-            gson = new GsonBuilder().registerTypeAdapter(Class.class,new ClassTypeConverter()).create();
-        }
+        private static final Gson gson = GsonUtils.builder().registerTypeAdapter(Class.class,new ClassTypeConverter()).create();
         public final List<FileInfo> files = new ArrayList<FileInfo>();
 
         @Override
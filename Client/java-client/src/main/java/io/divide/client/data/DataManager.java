@@ -17,22 +17,31 @@
 package io.divide.client.data;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.inject.Inject;
 import io.divide.client.BackendObject;
 import io.divide.client.Config;
 import io.divide.client.auth.AuthManager;
 import io.divide.client.web.AbstractWebManager;
+import io.divide.client.web.BinaryConverter;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Aggregate;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
-import io.divide.shared.util.IOUtils;
+import io.divide.shared.util.BinaryReader;
+import io.divide.shared.util.GsonUtils;
 import io.divide.shared.util.ObjectUtils;
 import retrofit.client.Response;
 import rx.Observable;
 import rx.Subscriber;
 
 import java.io.IOException;
-import java.lang.reflect.Array;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /*
  * WebManager class used to handle all object transactions between client and server.
@@ -74,7 +83,7 @@ public class DataManager extends AbstractWebManager<DataWebService> {
             @Override
             public void call(Subscriber<? super Collection<B>> observer) {
                 try {
-                    observer.onNext(convertRequest(getArrayType(type), getWebService().get(isLoggedIn(),Query.safeTable(type), objects)));
+                    observer.onNext(convertRequest(type, getWebService().get(isLoggedIn(),Query.safeTable(type), objects), objects.size()));
                     observer.onCompleted();
                 } catch (Exception e) {
                     observer.onError(e);
@@ -96,7 +105,114 @@ public class DataManager extends AbstractWebManager<DataWebService> {
             @Override
             public void call(Subscriber<? super Collection<B>> observer) {
                 try {
-                    observer.onNext(convertRequest(getArrayType(type),getWebService().query(isLoggedIn(),query)));
+                    observer.onNext(convertRequest(type,getWebService().query(isLoggedIn(),query), expectedSize(query)));
+                    observer.onCompleted();
+                } catch (Exception e) {
+                    observer.onError(e);
+                }
+            }
+        }).subscribeOn(config.subscribeOn()).observeOn(config.observeOn());
+    }
+
+    /**
+     * Function used to perform a remote select operation, values are aggregated on the server.
+     * @param query Query with a select operation to be executed.
+     * @return One result per group, a single result if the query is not grouped.
+     */
+    public Observable<Collection<Aggregate>> aggregate(final Query query){
+        return Observable.create(new Observable.OnSubscribe<Collection<Aggregate>>() {
+            @Override
+            public void call(Subscriber<? super Collection<Aggregate>> observer) {
+                try {
+                    observer.onNext(convertRequest(Aggregate.class,getWebService().query(isLoggedIn(),query), DEFAULT_EXPECTED_SIZE));
+                    observer.onCompleted();
+                } catch (Exception e) {
+                    observer.onError(e);
+                }
+            }
+        }).subscribeOn(config.subscribeOn()).observeOn(config.observeOn());
+    }
+
+    /**
+     * Function used to perform a remote update, matching objects are changed on the server
+     * without being sent back and forth.
+     * @param query Update query to be executed.
+     * @return Number of objects updated.
+     */
+    public Observable<Integer> update(final Query query){
+        return Observable.create(new Observable.OnSubscribe<Integer>() {
+            @Override
+            public void call(Subscriber<? super Integer> observer) {
+                try {
+                    TransientObject result = ObjectUtils.get1stOrNull(convertRequest(TransientObject.class,getWebService().query(isLoggedIn(),query), 1));
+                    Number count = (result == null) ? null : result.get(Number.class, "count");
+                    observer.onNext((count == null) ? 0 : count.intValue());
+                    observer.onCompleted();
+                } catch (Exception e) {
+                    observer.onError(e);
+                }
+            }
+        }).subscribeOn(config.subscribeOn()).observeOn(config.observeOn());
+    }
+
+    /**
+     * Function used to change single fields of stored objects, changes are applied on the server
+     * to the stored objects so concurrent changes to other fields are kept.
+     * @param type Type of objects to be returned, Type must match that of the patches.
+     * @param patches Changes to be applied.
+     * @param <B> Type of object extending BackendObject to be returned.
+     * @return Patched objects, objects which are not stored are left out.
+     */
+    public <B extends BackendObject> Observable<Collection<B>> patch(final Class<B> type, final Collection<Patch> patches){
+        return Observable.create(new Observable.OnSubscribe<Collection<B>>() {
+            @Override
+            public void call(Subscriber<? super Collection<B>> observer) {
+                try {
+                    observer.onNext(convertRequest(type,getWebService().patch(isLoggedIn(),patches), patches.size()));
+                    observer.onCompleted();
+                } catch (Exception e) {
+                    observer.onError(e);
+                }
+            }
+        }).subscribeOn(config.subscribeOn()).observeOn(config.observeOn());
+    }
+
+    /**
+     * Function used to perform a remote query, objects are emitted one by one as they are read
+     * from the response rather than once the whole result has arrived.
+     * @param type Type of objects to be returned, Type must match that which was provided to the Query.
+     * @param query Query to be executed.
+     * @param <B> Type of object extending BackendObject to be returned.
+     * @return Objects matching query executed.
+     */
+    public <B extends BackendObject> Observable<B> queryStream(final Class<B> type,final Query query){
+        return Observable.create(new Observable.OnSubscribe<B>() {
+            @Override
+            public void call(Subscriber<? super B> observer) {
+                try {
+                    decode(type, getWebService().queryStream(isLoggedIn(),query), observer);
+                    observer.onCompleted();
+                } catch (Exception e) {
+                    observer.onError(e);
+                }
+            }
+        }).subscribeOn(config.subscribeOn()).observeOn(config.observeOn());
+    }
+
+    /**
+     * Function used to return specific objects corrosponding to the object keys provided, objects are emitted
+     * one by one as they are read from the response rather than once the whole result has arrived.
+     * @param type Type of objects to be returned, if an object of a key provided does not match Type, it will not be returned.
+     * @param objects Collection of keys you wish to return from remote server.
+     * @param <B> Class type to be returned, extends BackendObject.
+     * @return Objects corrosponding to keys provided.
+     */
+    public <B extends BackendObject> Observable<B> getStream(final Class<B> type, final Collection<String> objects){
+        return Observable.create(new Observable.OnSubscribe<B>() {
+            @Override
+            public void call(Subscriber<? super B> observer) {
+                try {
+                    decode(type, getWebService().get(isLoggedIn(),Query.safeTable(type), objects), observer);
                     observer.onCompleted();
                 } catch (Exception e) {
                     observer.onError(e);
@@ -129,26 +245,51 @@ public class DataManager extends AbstractWebManager<DataWebService> {
         }
     }
 
-    private static Gson gson = new Gson();
+    private static final Gson gson = GsonUtils.GSON;
+    private static final int DEFAULT_EXPECTED_SIZE = 16;
+    private static final int MAX_EXPECTED_SIZE = 1024;
 
-    private <B extends TransientObject> Collection<B> convertRequest(Class<B[]> type, Response response){
-        String body = null;
-        try {
-            body = IOUtils.toString(response.getBody().in());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        B[] t = gson.fromJson(body,type);
-        return ObjectUtils.v2c(t);
+    private static int expectedSize(Query query){
+        Integer limit = query.getLimit();
+        return (limit == null || limit < 0) ? DEFAULT_EXPECTED_SIZE : Math.min(limit, MAX_EXPECTED_SIZE);
+    }
+
+    private <B extends TransientObject> Collection<B> convertRequest(Class<B> type, Response response, int expectedSize) throws IOException {
+        final List<B> results = new ArrayList<B>(Math.min(expectedSize, MAX_EXPECTED_SIZE));
+        decode(type, response, new Subscriber<B>() {
+            @Override public void onNext(B b) { results.add(b); }
+            @Override public void onCompleted() { }
+            @Override public void onError(Throwable e) { }
+        });
+        return results;
     }
 
     /**
-     * Convience method to convert a specified type to an Array of that specified type.
-     * Example: Class<Integer[]> intArrayType = getArrayType(Integer.class);
-     * @param type class you wish to have concrete array type of.
-     * @return concrete array type of type specified.
+     * Reads the array held by the response element by element straight from the response stream,
+     * stops early once the observer unsubscribes.
      */
-    private <T extends TransientObject> Class<T[]> getArrayType(Class<T> type){
-        return (Class<T[]>) Array.newInstance(type, 0).getClass();
+    private <B extends TransientObject> void decode(Class<B> type, Response response, Subscriber<? super B> observer) throws IOException {
+        if(response.getBody() == null) return;
+
+        InputStream in = response.getBody().in();
+        try {
+            if(BinaryConverter.isBinary(response.getBody().mimeType())){
+                BinaryReader reader = new BinaryReader(in);
+                reader.beginArray();
+                while (reader.hasNext() && !observer.isUnsubscribed()){
+                    observer.onNext(gson.fromJson(reader.read(), type));
+                }
+            } else {
+                JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+                if(reader.peek() == JsonToken.NULL) return;
+                reader.beginArray();
+                while (reader.hasNext() && !observer.isUnsubscribed()){
+                    B b = gson.fromJson(reader, type);
+                    observer.onNext(b);
+                }
+            }
+        } finally {
+            try { in.close(); } catch (IOException ignored) { }
+        }
     }
 }
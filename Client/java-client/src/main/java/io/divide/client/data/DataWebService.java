@@ -17,6 +17,7 @@
 package io.divide.client.data;
 
 import io.divide.client.BackendObject;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
 import retrofit.client.Response;
 import retrofit.http.*;
@@ -26,15 +27,25 @@ import java.util.Collection;
 
 public interface DataWebService {
 
+    @Streaming
     @POST("/data/get/{objectType}")
     public Response get(@Header("Authorization") String authToken, @EncodedPath("objectType") String objectType,@Body Collection<String> keys);
 
+    @Streaming
     @POST("/data/query")
     public Response query(@Header("Authorization") String authToken, @Body Query query);
 
+    @Streaming
+    @POST("/data/query/stream")
+    public Response queryStream(@Header("Authorization") String authToken, @Body Query query);
+
     @POST("/data/save")
     public <B extends BackendObject> Observable<Void> save(@Header("Authorization") String authToken, @Body Collection<B> objects);
 
+    @Streaming
+    @POST("/data/patch")
+    public Response patch(@Header("Authorization") String authToken, @Body Collection<Patch> patches);
+
     @GET("/data/count/{objectType}")
     public Observable<Integer> count(@Header("Authorization") String authToken, @EncodedPath("objectType") String objectType);
 
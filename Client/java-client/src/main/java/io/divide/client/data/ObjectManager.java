@@ -20,7 +20,10 @@ import com.google.inject.Inject;
 import io.divide.client.BackendObject;
 import io.divide.client.BackendUser;
 import io.divide.shared.server.DAO;
+import io.divide.shared.transitory.query.Aggregate;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
 import io.divide.shared.transitory.query.SelectOperation;
 import rx.Observable;
 
@@ -75,7 +78,43 @@ public class ObjectManager {
             return dataManager.get(type,Arrays.asList(keys));
         }
 
+        public <B extends BackendObject> Observable<B> loadStream(Class<B> type, String... keys){
+            return dataManager.getStream(type,Arrays.asList(keys));
+        }
+
         public <B extends BackendObject> Observable<Collection<B>> query(Class<B> type, Query query){
+            checkQuery(type, query);
+            return dataManager.query(type,query);
+        }
+
+        public <B extends BackendObject> Observable<B> stream(Class<B> type, Query query){
+            checkQuery(type, query);
+            return dataManager.queryStream(type,query);
+        }
+
+        public Observable<Collection<Aggregate>> aggregate(Query query){
+            if(query.getSelect() == null)
+                throw new IllegalStateException("Query has no select operation");
+            return dataManager.aggregate(query);
+        }
+
+        public Observable<Integer> update(Query query){
+            if(!query.getAction().equals(QueryBuilder.QueryAction.UPDATE))
+                throw new IllegalStateException("Query is not an update");
+            return dataManager.update(query);
+        }
+
+        public <B extends BackendObject> Observable<Collection<B>> patch(Class<B> type, Patch... patches){
+            for(Patch patch : patches){
+                if(!patch.getObjectType().equals(Query.safeTable(type)))
+                    throw new IllegalStateException("Can not return a different type then what is patched!\n" +
+                            "Expected: " + patch.getObjectType() + "\n" +
+                            "Actual: " + Query.safeTable(type));
+            }
+            return dataManager.patch(type,Arrays.asList(patches));
+        }
+
+        private <B extends BackendObject> void checkQuery(Class<B> type, Query query){
             if(query.getSelect() != null){
                 SelectOperation so = query.getSelect();
                 if(!so.getType().equals(type))
@@ -86,7 +125,6 @@ public class ObjectManager {
                         "Expected: " + query.getFrom() + "\n" +
                         "Actual: " + Query.safeTable(type));
             }
-            return dataManager.query(type,query);
         }
 
         public <B extends BackendObject> Observable<Integer> count(Class<B> type){
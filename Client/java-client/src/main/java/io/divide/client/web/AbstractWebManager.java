@@ -16,15 +16,14 @@
 
 package io.divide.client.web;
 
-import com.google.gson.Gson;
 import com.google.inject.Inject;
 import io.divide.client.Config;
 import io.divide.shared.logging.Logger;
+import io.divide.shared.util.GsonUtils;
 import retrofit.Profiler;
 import retrofit.RequestInterceptor;
 import retrofit.RestAdapter;
 import retrofit.client.OkClient;
-import retrofit.converter.GsonConverter;
 import rx.Observer;
 import rx.Subscription;
 import rx.schedulers.Schedulers;
@@ -88,16 +87,16 @@ public abstract class AbstractWebManager<T> {
 
     private RestAdapter createRestAdapter(Config config){
         RestAdapter.Builder builder = new RestAdapter.Builder();
-        builder.setClient( new OkClient( config.client ) )
+        builder.setClient( new CompressingClient( new OkClient( config.client ) ) )
             .setEndpoint(config.serverUrl)
-            .setLogLevel(RestAdapter.LogLevel.FULL)
+            .setLogLevel(config.logLevel())
             .setLog(new RestAdapter.Log() {
                 @Override
                 public void log(String s) {
                     retrologger.debug(s);
                 }
             })
-            .setConverter(new GsonConverter(new Gson()))
+            .setConverter(new BinaryConverter(GsonUtils.GSON, config.binaryFormat()))
             .setRequestInterceptor(new RequestInterceptor() {
                 @Override
                 public void intercept(RequestFacade requestFacade) {
@@ -121,6 +120,7 @@ public abstract class AbstractWebManager<T> {
     }
 
     private void onRequest(final RequestFacade requestFacade){
+        if(config.binaryFormat()) requestFacade.addHeader("Accept", BinaryConverter.ACCEPT);
         for(OnRequestInterceptor ori : requestInterceptors) ori.onRequest(requestFacade);
     }
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.client.web;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.divide.shared.util.BinaryFormat;
+import io.divide.shared.util.BinaryReader;
+import retrofit.converter.ConversionException;
+import retrofit.converter.Converter;
+import retrofit.converter.GsonConverter;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/*
+ * Converter reading responses in whichever of JSON or {@link BinaryFormat} the server answered with,
+ * and writing request bodies in the binary format when enabled.
+ */
+public class BinaryConverter implements Converter {
+
+    /**
+     * Accept header preferring the binary format, servers not supporting it still answer in JSON.
+     */
+    public static final String ACCEPT = BinaryFormat.MEDIA_TYPE + ", application/json;q=0.5";
+
+    private final Gson gson;
+    private final GsonConverter json;
+    private final boolean binary;
+
+    /**
+     * @param gson gson used to map objects for either format.
+     * @param binary whether request bodies are written in the binary format.
+     */
+    public BinaryConverter(Gson gson, boolean binary){
+        this.gson = gson;
+        this.json = new GsonConverter(gson);
+        this.binary = binary;
+    }
+
+    @Override
+    public Object fromBody(TypedInput body, Type type) throws ConversionException {
+        if(!isBinary(body.mimeType())) return json.fromBody(body, type);
+
+        try {
+            BinaryReader reader = new BinaryReader(body.in());
+            try {
+                return gson.fromJson(reader.read(), type);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new ConversionException(e);
+        } catch (JsonParseException e) {
+            throw new ConversionException(e);
+        }
+    }
+
+    @Override
+    public TypedOutput toBody(Object object) {
+        if(!binary) return json.toBody(object);
+
+        try {
+            return new TypedByteArray(BinaryFormat.MEDIA_TYPE, BinaryFormat.toBytes(gson, object, object.getClass()));
+        } catch (IOException e) {
+            throw new AssertionError(e); // writing to memory
+        }
+    }
+
+    public static boolean isBinary(String mimeType){
+        return mimeType != null && mimeType.startsWith(BinaryFormat.MEDIA_TYPE);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.client.web;
+
+import retrofit.client.Client;
+import retrofit.client.Header;
+import retrofit.client.Request;
+import retrofit.client.Response;
+import retrofit.mime.TypedByteArray;
+import retrofit.mime.TypedInput;
+import retrofit.mime.TypedOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Client wrapper compressing request bodies above a size threshold with gzip, and decoding gzip or
+ * deflate response bodies. Accept-Encoding is sent explicitly, so responses are decoded here rather
+ * than by the wrapped client.
+ */
+public class CompressingClient implements Client {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    private final Client client;
+    private final int threshold;
+
+    public CompressingClient(Client client){
+        this(client, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param client client sending the requests.
+     * @param threshold body size in bytes above which requests are compressed.
+     */
+    public CompressingClient(Client client, int threshold){
+        this.client = client;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        List<Header> headers = new ArrayList<Header>(request.getHeaders());
+        headers.add(new Header(ACCEPT_ENCODING, GZIP + ", " + DEFLATE));
+
+        TypedOutput body = request.getBody();
+        if(body != null && (body.length() < 0 || body.length() > threshold)){
+            body = gzip(body);
+            headers.add(new Header(CONTENT_ENCODING, GZIP));
+        }
+
+        return decode(client.execute(new Request(request.getMethod(), request.getUrl(), headers, body)));
+    }
+
+    private static TypedOutput gzip(TypedOutput body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        body.writeTo(gzip);
+        gzip.close();
+        return new TypedByteArray(body.mimeType(), bytes.toByteArray());
+    }
+
+    private static Response decode(Response response){
+        String encoding = null;
+        List<Header> headers = new ArrayList<Header>(response.getHeaders().size());
+        for(Header header : response.getHeaders()){
+            if(CONTENT_ENCODING.equalsIgnoreCase(header.getName())) encoding = header.getValue();
+            else headers.add(header);
+        }
+        if(encoding == null || response.getBody() == null) return response;
+
+        encoding = encoding.trim().toLowerCase();
+        if(!GZIP.equals(encoding) && !DEFLATE.equals(encoding)) return response;
+
+        // the length of the encoded body says nothing about the decoded one
+        for(int i = headers.size() - 1; i >= 0; i--){
+            if(CONTENT_LENGTH.equalsIgnoreCase(headers.get(i).getName())) headers.remove(i);
+        }
+        return new Response(response.getUrl(), response.getStatus(), response.getReason(), headers,
+                new DecodedInput(response.getBody(), GZIP.equals(encoding)));
+    }
+
+    private static class DecodedInput implements TypedInput {
+        private final TypedInput encoded;
+        private final boolean gzip;
+
+        private DecodedInput(TypedInput encoded, boolean gzip){
+            this.encoded = encoded;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public String mimeType() {
+            return encoded.mimeType();
+        }
+
+        @Override
+        public long length() {
+            return -1;
+        }
+
+        @Override
+        public InputStream in() throws IOException {
+            return gzip ? new GZIPInputStream(encoded.in()) : new InflaterInputStream(encoded.in());
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package io.divide.client.auth;
 
 import io.divide.shared.server.KeyManager;
+import io.divide.shared.util.AuthTokenUtils;
 import io.divide.shared.util.Crypto;
 
 import java.security.KeyPair;
@@ -51,4 +52,8 @@ public class MockKeyManager implements KeyManager {
         return pushKey;
     }
 
+    public AuthTokenUtils.TokenFormat getTokenFormat() {
+        return AuthTokenUtils.TokenFormat.PBE;
+    }
+
 }
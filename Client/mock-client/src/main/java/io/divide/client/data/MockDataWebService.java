@@ -23,6 +23,7 @@ import io.divide.client.GsonResponse;
 import io.divide.shared.logging.Logger;
 import io.divide.shared.server.DAO;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
 import retrofit.client.Response;
 import retrofit.http.Body;
@@ -31,7 +32,9 @@ import retrofit.http.Header;
 import rx.Observable;
 import rx.Subscriber;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public class MockDataWebService implements DataWebService {
     private static Logger logger = Logger.getLogger(MockDataWebService.class);
@@ -60,6 +63,11 @@ public class MockDataWebService implements DataWebService {
             return new GsonResponse("",e.getStatusCode(),e.getMessage(), null, null).build();
         }    }
 
+    @Override
+    public Response queryStream(@Header("Authorization") String authToken, @Body Query query) {
+        return query(authToken, query);
+    }
+
     @Override
     public <B extends BackendObject> Observable<Void> save(@Header("Authorization") String authToken, final @Body Collection<B> objects) {
         verifyAuthToken(authToken);
@@ -76,6 +84,26 @@ public class MockDataWebService implements DataWebService {
         });
     }
 
+    @Override
+    public Response patch(@Header("Authorization") String authToken, @Body Collection<Patch> patches) {
+        verifyAuthToken(authToken);
+        try {
+            List<TransientObject> patched = new ArrayList<TransientObject>(patches.size());
+            for(Patch patch : patches){
+                for(TransientObject o : dao.<TransientObject>get(patch.getObjectType(), patch.getObjectKey())){
+                    patch.applyTo(o);
+                    dao.save(o);
+                    patched.add(o);
+                }
+            }
+            return new GsonResponse("",200,"",null, patched).build();
+        } catch (IllegalArgumentException e) {
+            return new GsonResponse("",400,e.getMessage(), null, null).build();
+        } catch (DAO.DAOException e) {
+            return new GsonResponse("",e.getStatusCode(),e.getMessage(), null, null).build();
+        }
+    }
+
     @Override
     public Observable<Integer> count(@Header("Authorization") String authToken, @EncodedPath("objectType") String objectType) {
         verifyAuthToken(authToken);
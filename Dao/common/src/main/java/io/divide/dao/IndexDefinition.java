@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.dao;
+
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Query;
+
+/*
+ * Declares that a field of an object type is queried on and should be indexed by the
+ * storage layer, see ServerDAO#index.
+ */
+public final class IndexDefinition {
+
+    public static enum Kind {
+        /** equality lookups only. */
+        HASH,
+        /** equality and ordered (range) lookups. */
+        RANGE,
+        /** equality lookups, saving a second object with the same value is rejected. */
+        UNIQUE
+    }
+
+    private final String objectType;
+    private final String path;
+    private final Kind kind;
+
+    /**
+     * @param objectType object type, as returned by {@link Query#safeTable(String)}.
+     * @param path field path, such as "meta_data.email" or "user_data.score".
+     * @param kind kind of index.
+     */
+    public IndexDefinition(String objectType, String path, Kind kind){
+        if(objectType == null || path == null || kind == null)
+            throw new IllegalArgumentException("objectType, path and kind are required");
+        if(!path.startsWith(TransientObject.META_DATA + ".") && !path.startsWith(TransientObject.USER_DATA + "."))
+            throw new IllegalArgumentException("path must start with meta_data. or user_data. : " + path);
+        this.objectType = objectType;
+        this.path = path;
+        this.kind = kind;
+    }
+
+    public static IndexDefinition userData(Class<? extends TransientObject> type, String key, Kind kind){
+        return new IndexDefinition(Query.safeTable(type), TransientObject.USER_DATA + "." + key, kind);
+    }
+
+    public static IndexDefinition metaData(Class<? extends TransientObject> type, TransientObject.MetaKey key, Kind kind){
+        return new IndexDefinition(Query.safeTable(type), TransientObject.META_DATA + "." + key.KEY, kind);
+    }
+
+    public String getObjectType() {
+        return objectType;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @param object object to read from.
+     * @return value of the indexed field of the object, or null if not set.
+     */
+    public Object valueOf(TransientObject object){
+        if(path.startsWith(TransientObject.META_DATA + ".")){
+            return object.getMetaData().get(path.substring(TransientObject.META_DATA.length() + 1));
+        } else {
+            return object.getUserData().get(path.substring(TransientObject.USER_DATA.length() + 1));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof IndexDefinition)) return false;
+
+        IndexDefinition that = (IndexDefinition) o;
+        return objectType.equals(that.objectType) && path.equals(that.path) && kind == that.kind;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = objectType.hashCode();
+        result = 31 * result + path.hashCode();
+        result = 31 * result + kind.hashCode();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexDefinition{" +
+                "objectType='" + objectType + '\'' +
+                ", path='" + path + '\'' +
+                ", kind=" + kind +
+                '}';
+    }
+}
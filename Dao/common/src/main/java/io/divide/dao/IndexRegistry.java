@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.dao;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Thread safe store of the IndexDefinitions declared on a ServerDAO, one definition per
+ * object type and path. Shared by the DAO implementations.
+ */
+public class IndexRegistry {
+
+    private final ConcurrentMap<String,Map<String,IndexDefinition>> indexes = new ConcurrentHashMap<String, Map<String, IndexDefinition>>();
+
+    /**
+     * Adds definitions, a later definition for the same type and path replaces the earlier one.
+     * @param definitions definitions to add.
+     */
+    public void add(IndexDefinition... definitions){
+        for(IndexDefinition definition : definitions){
+            Map<String,IndexDefinition> forType = indexes.get(definition.getObjectType());
+            if(forType == null){
+                forType = new ConcurrentHashMap<String, IndexDefinition>();
+                Map<String,IndexDefinition> existing = indexes.putIfAbsent(definition.getObjectType(), forType);
+                if(existing != null) forType = existing;
+            }
+            forType.put(definition.getPath(), definition);
+        }
+    }
+
+    /**
+     * @param objectType object type.
+     * @return definitions declared for the type, empty if none.
+     */
+    public Collection<IndexDefinition> get(String objectType){
+        Map<String,IndexDefinition> forType = indexes.get(objectType);
+        if(forType == null) return Collections.emptyList();
+        return Collections.unmodifiableCollection(forType.values());
+    }
+
+    /**
+     * @return the definition for the type and path, or null if the path is not indexed.
+     */
+    public IndexDefinition get(String objectType, String path){
+        Map<String,IndexDefinition> forType = indexes.get(objectType);
+        return (forType == null) ? null : forType.get(path);
+    }
+
+    public boolean hasIndexes(String objectType){
+        Map<String,IndexDefinition> forType = indexes.get(objectType);
+        return forType != null && !forType.isEmpty();
+    }
+}
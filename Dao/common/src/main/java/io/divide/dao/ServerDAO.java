@@ -18,9 +18,45 @@ package io.divide.dao;
 
 import io.divide.shared.server.DAO;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Patch;
+import io.divide.shared.transitory.query.Query;
 
 import java.security.KeyPair;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
 
 public interface ServerDAO extends DAO<TransientObject,TransientObject> {
     public KeyPair keys(KeyPair keys);
+
+    /**
+     * Declares fields that are queried on. Implementations index declared fields and are
+     * free to leave the rest unindexed, so reads are fast and writes only pay for indexes
+     * that are actually needed.
+     * @param indexes index declarations.
+     */
+    public void index(IndexDefinition... indexes);
+
+    /**
+     * Batched existence check, lets callers decide insert vs update for a whole batch at once.
+     * @param objects objects to look up by object key.
+     * @return bit i is set if objects[i] is stored.
+     */
+    public BitSet existing(TransientObject... objects);
+
+    /**
+     * Lazy variant of {@link #query(Query)}, objects are fetched and converted as the iterator
+     * is advanced so a large result set is never held in memory at once.
+     * @param query SELECT query, any other query is run eagerly.
+     * @return matching objects, read them on the thread that called this.
+     */
+    public Iterator<TransientObject> stream(Query query) throws DAOException;
+
+    /**
+     * Applies field level changes to stored objects in place, each patch atomically against the
+     * current stored copy instead of replacing the whole object.
+     * @param patches changes per object.
+     * @return patched objects, objects that are not stored are skipped.
+     */
+    public Collection<TransientObject> patch(Patch... patches) throws DAOException;
 }
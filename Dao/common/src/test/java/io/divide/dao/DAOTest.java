@@ -19,19 +19,30 @@ package io.divide.dao;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import io.divide.shared.server.DAO;
+import io.divide.shared.util.GsonUtils;
 import io.divide.shared.util.ObjectUtils;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Aggregate;
+import io.divide.shared.transitory.query.Expression;
 import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Order;
 import io.divide.shared.transitory.query.Query;
 import io.divide.shared.transitory.query.QueryBuilder;
+import io.divide.shared.transitory.query.SelectOperation;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.nio.CharBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.*;
 
@@ -178,14 +189,14 @@ public abstract class DAOTest<BaseObject extends Keyable> {
         assertNotEquals(null, results);
         assertEquals(1, results.size());
         assertEquals(t1.getObjectKey(),ObjectUtils.get1stOrNull(results).getObjectKey());
-        assertEquals(l1,ObjectUtils.get1stOrNull(results).get(l1.getClass(),"players_key"));
+        assertEquals(l1,ObjectUtils.get1stOrNull(results).get(List.class,"players_key"));
 
         q = new QueryBuilder().select().from(TestObject1.class).where("players_key",OPERAND.CONTAINS,"4").build();
         results = dao.query(q);
         assertNotEquals(null, results);
         assertEquals(1, results.size());
         assertEquals(t2.getObjectKey(),ObjectUtils.get1stOrNull(results).getObjectKey());
-        assertEquals(l2,ObjectUtils.get1stOrNull(results).get(l2.getClass(),"players_key"));
+        assertEquals(l2,ObjectUtils.get1stOrNull(results).get(List.class,"players_key"));
 
         Gson g = new GsonBuilder().create();
         g.fromJson(g.toJson(t1),TransientObject.class);
@@ -278,10 +289,274 @@ public abstract class DAOTest<BaseObject extends Keyable> {
         assertEquals(0, count);
     }
 
+    @Test
+    public void testCountMaintained() throws Exception {
+        rawSave(object4); // stored before the type was counted
+
+        TestObject2 a = new TestObject2("key1","1");
+        TestObject2 b = new TestObject2("key1","2");
+        dao.save(a,b);
+        assertEquals(3, dao.count(testObject2Table));
+
+        dao.save(a,b); // updates
+        assertEquals(3, dao.count(testObject2Table));
+
+        dao.save(new TestObject2("key1","3"));
+        assertEquals(4, dao.count(testObject2Table));
+
+        dao.delete(a);
+        assertEquals(3, dao.count(testObject2Table));
+
+        dao.delete(a); // already gone
+        assertEquals(3, dao.count(testObject2Table));
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        rawSave(object1,object2,object3,object4);
+
+        Query q = new QueryBuilder().select("key2","key3").from(TestObject1.class).where("key1",OPERAND.EQ,"1").build();
+        List<TransientObject> results = dao.query(q);
+        assertEquals(2, results.size());
+        Set<String> keys = new HashSet<String>();
+        for(TransientObject o : results){
+            assertTrue(o.isPartial());
+            assertEquals(2, o.getUserData().size());
+            assertEquals("value3", o.get(String.class, "key3"));
+            assertEquals(testObject1Table, o.getObjectType());
+            keys.add(o.getObjectKey());
+        }
+        assertEquals(new HashSet<String>(Arrays.asList(testObject1.getObjectKey(), testObject3.getObjectKey())), keys);
+
+        // ordered queries keep the ordered field so they can continue
+        q = new QueryBuilder().select("key3").from(TestObject1.class).orderBy("key1", Order.DESC).build();
+        results = dao.query(q);
+        assertEquals(3, results.size());
+        assertEquals(testObject2.getObjectKey(), results.get(0).getObjectKey());
+        assertTrue(results.get(0).isPartial());
+        assertEquals(2, results.get(0).getUserData().size());
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        dao.save(scored("red", 1), scored("red", 4), scored("blue", 10), scored("blue", null), new TestObject1("team", "red"));
+
+        assertEquals(Double.valueOf(15.0), aggregate(new QueryBuilder().select(SelectOperation.SUM, "score").from(TestObject2.class).build()).get(null));
+        assertEquals(Double.valueOf(5.0), aggregate(new QueryBuilder().select(SelectOperation.SUM, "score").from(TestObject2.class).where("team", OPERAND.EQ, "red").build()).get(null));
+        assertEquals(Double.valueOf(1.0), aggregate(new QueryBuilder().select(SelectOperation.MIN, "score").from(TestObject2.class).build()).get(null));
+        assertEquals(Double.valueOf(10.0), aggregate(new QueryBuilder().select(SelectOperation.MAX, "score").from(TestObject2.class).build()).get(null));
+        assertEquals(Double.valueOf(2.0), aggregate(new QueryBuilder().select(SelectOperation.COUNT).from(TestObject2.class).where("team", OPERAND.EQ, "blue").build()).get(null));
+
+        Map<Object,Double> averages = aggregate(new QueryBuilder().select(SelectOperation.AVG, "score").from(TestObject2.class).groupBy("team").build());
+        assertEquals(2, averages.size());
+        assertEquals(Double.valueOf(2.5), averages.get("red"));
+        assertEquals(Double.valueOf(10.0), averages.get("blue"));
+
+        Map<Object,Double> counts = aggregate(new QueryBuilder().select(SelectOperation.COUNT).from(TestObject2.class).groupBy("team").build());
+        assertEquals(Double.valueOf(2.0), counts.get("red"));
+        assertEquals(Double.valueOf(2.0), counts.get("blue"));
+
+        Map<Object,Double> none = aggregate(new QueryBuilder().select(SelectOperation.SUM, "score").from(TestObject2.class).where("team", OPERAND.EQ, "green").build());
+        assertTrue(none.containsKey(null));
+        assertNull(none.get(null));
+    }
+
+    @Test
+    public void testTypedFilter() throws Exception {
+        dao.save(scored("red", 1), scored("red", 4), scored("blue", 10), scored("blue", null), scored("green", 7));
+
+        assertEquals(Arrays.asList("green:7", "red:4"), scores(new QueryBuilder().select().from(TestObject2.class)
+                .where(Expression.between("score", 2, 8)).build()));
+        assertEquals(Arrays.asList("blue:10", "green:7", "red:4"), scores(new QueryBuilder().select().from(TestObject2.class)
+                .where("score", OPERAND.GREATER_THAN, 3).build()));
+        assertEquals(Arrays.asList("green:7", "red:1", "red:4"), scores(new QueryBuilder().select().from(TestObject2.class)
+                .where(Expression.in("team", "red", "green")).build()));
+
+        // nested groups, the datastore can not answer the OR and the second inequality itself
+        Query q = new QueryBuilder().select().from(TestObject2.class)
+                .where("score", OPERAND.GREATER_THAN, 3)
+                .and(Expression.or(Expression.compare("team", OPERAND.EQ, "red"), Expression.compare("score", OPERAND.LESS_THAN, 8)))
+                .build();
+        assertEquals(Arrays.asList("green:7", "red:4"), scores(q));
+        assertEquals(Double.valueOf(2.0), aggregate(new QueryBuilder().select(SelectOperation.COUNT).from(TestObject2.class)
+                .where("score", OPERAND.GREATER_THAN, 3)
+                .and(Expression.or(Expression.compare("team", OPERAND.EQ, "red"), Expression.compare("score", OPERAND.LESS_THAN, 8)))
+                .build()).get(null));
+
+        assertEquals(Arrays.asList("blue:10", "blue:null", "red:1"), scores(new QueryBuilder().select().from(TestObject2.class)
+                .where("team", OPERAND.EQ, "blue").or("score", OPERAND.LESS_THAN, 2).build()));
+    }
+
+    // team:score of the results, sorted
+    private List<String> scores(Query query) throws Exception {
+        List<TransientObject> results = dao.query(query);
+        List<String> scores = new ArrayList<String>();
+        for(TransientObject o : results){
+            Number score = o.get(Number.class, "score");
+            scores.add(o.get(String.class, "team") + ":" + (score == null ? null : score.intValue()));
+        }
+        Collections.sort(scores);
+        return scores;
+    }
+
+    private static TestObject2 scored(String team, Integer score){
+        TestObject2 o = new TestObject2("team", team);
+        if(score != null) o.put("score", score);
+        return o;
+    }
+
+    // aggregated value by group
+    private Map<Object,Double> aggregate(Query query) throws Exception {
+        List<TransientObject> results = dao.query(query);
+        Map<Object,Double> values = new HashMap<Object,Double>();
+        for(TransientObject o : results){
+            assertTrue(o instanceof Aggregate);
+            assertEquals(testObject2Table, ((Aggregate) o).getFrom());
+            values.put(((Aggregate) o).getGroup(), ((Aggregate) o).getValue());
+        }
+        return values;
+    }
+
+    @Test
+    public void testOrderedPages() throws Exception {
+        int size = 11;
+        TestObject2[] objects = new TestObject2[size];
+        for(int i = 0; i < size; i++){
+            objects[i] = new TestObject2("key1", "g" + (i % 4), "key2", (i % 2 == 0) ? "even" : "odd");
+        }
+        dao.save(objects);
+
+        for(Order order : Order.values()){
+            List<TransientObject> all = readPages("key1", order, false, 3);
+            assertEquals(size, all.size());
+            for(int i = 1; i < all.size(); i++){
+                int c = all.get(i - 1).get(String.class, "key1").compareTo(all.get(i).get(String.class, "key1"));
+                assertTrue(order + " out of order", (order == Order.ASC) ? c <= 0 : c >= 0);
+            }
+
+            List<TransientObject> byKey = readPages(null, order, false, 4);
+            assertEquals(size, byKey.size());
+            for(int i = 1; i < byKey.size(); i++){
+                int c = byKey.get(i - 1).getObjectKey().compareTo(byKey.get(i).getObjectKey());
+                assertTrue(order + " out of key order", (order == Order.ASC) ? c < 0 : c > 0);
+            }
+
+            assertEquals(6, readPages("key1", order, true, 2).size());
+            assertEquals(6, readPages(null, order, true, 2).size());
+        }
+    }
+
+    @Test
+    public void testOrderedNumericPages() throws Exception {
+        int size = 12;
+        TestObject2[] objects = new TestObject2[size];
+        for(int i = 0; i < size; i++){
+            objects[i] = new TestObject2("key2", (i % 2 == 0) ? "even" : "odd");
+            objects[i].put("rank", (i % 6) * 4); // 12, 16 and 20 come before 4 and 8 as strings
+        }
+        dao.save(objects);
+
+        for(Order order : Order.values()){
+            List<TransientObject> all = readPages("rank", order, false, 5);
+            assertEquals(size, all.size());
+            for(int i = 1; i < all.size(); i++){
+                double previous = all.get(i - 1).get(Number.class, "rank").doubleValue();
+                double current = all.get(i).get(Number.class, "rank").doubleValue();
+                assertTrue(order + " out of numeric order", (order == Order.ASC) ? previous <= current : previous >= current);
+            }
+            assertEquals(6, readPages("rank", order, true, 4).size());
+        }
+    }
+
+    @Test
+    public void testInvalidFields() throws Exception {
+        dao.save(testObject1);
+        // field names are written into sql, queries of clients are not built by a QueryBuilder
+        String select = "{\"action\":\"SELECT\",\"from\":\"" + testObject1Table + "\",";
+        List<String> invalid = Arrays.asList(
+                select + "\"orderBy\":\"user_data.key1 DESC, meta_data.object_key\"}",
+                select + "\"fields\":[\"key1\",\"* FROM x\"]}",
+                select + "\"select\":\"SUM\",\"aggregate\":\"key1) AS _value FROM x --\"}",
+                select + "\"select\":\"COUNT\",\"groupBy\":\"key1, meta_data.object_key\"}");
+        for(String json : invalid){
+            try {
+                dao.query(GsonUtils.GSON.fromJson(json, Query.class));
+                fail("accepted " + json);
+            } catch (DAO.DAOException e){
+                assertEquals(400, e.getStatusCode());
+            }
+        }
+    }
+
+    // follows continuation tokens until a short page, returns everything read
+    private List<TransientObject> readPages(String orderBy, Order order, boolean evenOnly, int limit) throws Exception {
+        List<TransientObject> all = new ArrayList<TransientObject>();
+        Set<String> keys = new HashSet<String>();
+        String token = null;
+        while(true){
+            QueryBuilder.WhereBuilder from = new QueryBuilder().select().from(TestObject2.class);
+            QueryBuilder.OrderConstraintBuilder builder;
+            if(evenOnly){
+                QueryBuilder.WhereMoreBuilder where = from.where("key2", OPERAND.EQ, "even");
+                builder = (orderBy == null) ? where.orderBy(TransientObject.OBJECT_KEY, order) : where.orderBy(orderBy, order);
+            } else {
+                builder = (orderBy == null) ? from.orderBy(TransientObject.OBJECT_KEY, order) : from.orderBy(orderBy, order);
+            }
+            Query q = builder.after(token).limit(limit).build();
+
+            List<TransientObject> page = dao.query(q);
+            for(TransientObject o : page){
+                assertTrue("read twice", keys.add(o.getObjectKey()));
+                if(evenOnly) assertEquals("even", o.get(String.class, "key2"));
+            }
+            all.addAll(page);
+            if(page.size() < limit) return all;
+            token = q.continuationAfter(page.get(page.size() - 1));
+        }
+    }
+
+    @Test
+    public void testRandom() throws Exception {
+        int size = 10;
+        TestObject2[] objects = new TestObject2[size];
+        for(int i = 0; i < size; i++){
+            objects[i] = new TestObject2("key1", (i % 2 == 0) ? "even" : "odd");
+        }
+        dao.save(objects);
+
+        Map<String,Integer> picks = new HashMap<String, Integer>();
+        int draws = 300;
+        for(int i = 0; i < draws; i++){
+            Query q = new QueryBuilder().select().from(TestObject2.class).random(3).build();
+            List<TransientObject> results = dao.query(q);
+            assertEquals(3, results.size());
+            Set<String> keys = new HashSet<String>();
+            for(TransientObject o : results){
+                assertTrue("sampled twice", keys.add(o.getObjectKey()));
+                Integer count = picks.get(o.getObjectKey());
+                picks.put(o.getObjectKey(), (count == null) ? 1 : count + 1);
+            }
+        }
+        assertEquals("every object sampled", size, picks.size());
+        for(int count : picks.values()){
+            assertTrue("skewed sample " + picks, count < draws * 0.9);
+        }
+
+        Query q = new QueryBuilder().select().from(TestObject2.class).where("key1",OPERAND.EQ,"even").random(10).build();
+        List<TransientObject> results = dao.query(q);
+        assertEquals(size / 2, results.size());
+        for(TransientObject o : results){
+            assertEquals("even", o.get(String.class, "key1"));
+        }
+
+        q = new QueryBuilder().select().from(TestObject1.class).random(3).build();
+        assertEquals(0, dao.query(q).size());
+    }
+
     public abstract BaseObject toBaseObject(TransientObject object);
     public abstract void rawSave(List<BaseObject> objects);
 
-    private void rawSave(BaseObject... objects){
+    protected void rawSave(BaseObject... objects){
         rawSave(Arrays.asList(objects));
     }
 
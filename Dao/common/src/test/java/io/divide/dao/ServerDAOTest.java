@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao;
+
+import io.divide.shared.server.DAO;
+import io.divide.shared.util.ObjectUtils;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Patch;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/*
+ * DAOTest plus the ServerDAO only operations, client side DAOs only run DAOTest.
+ */
+public abstract class ServerDAOTest<BaseObject extends Keyable> extends DAOTest<BaseObject> {
+
+    protected ServerDAOTest(DAO dao){
+        super(dao);
+    }
+
+    protected ServerDAO serverDao(){
+        return (ServerDAO) dao;
+    }
+
+    @Test
+    public void testExisting() throws Exception {
+        rawSave(object1,object2,object4);
+
+        BitSet existing = serverDao().existing(testObject1, testObject3, testObject4, testObject2);
+        assertTrue(existing.get(0));
+        assertFalse(existing.get(1));
+        assertTrue(existing.get(2));
+        assertTrue(existing.get(3));
+        assertEquals(3, existing.cardinality());
+
+        assertEquals(0, serverDao().existing().cardinality());
+    }
+
+    @Test
+    public void testIndexedQuery() throws Exception {
+        serverDao().index(
+                IndexDefinition.userData(TestObject2.class, "key1", IndexDefinition.Kind.HASH),
+                IndexDefinition.userData(TestObject2.class, "key2", IndexDefinition.Kind.RANGE));
+
+        TestObject2 a = new TestObject2("key1","1","key2","1");
+        TestObject2 b = new TestObject2("key1","1","key2","2");
+        TestObject2 c = new TestObject2("key1","2","key2","3");
+        dao.save(a,b,c);
+
+        Query q = new QueryBuilder().select().from(TestObject2.class).where("key1",OPERAND.EQ,"1").build();
+        List<TransientObject> results = dao.query(q);
+        assertEquals("key1=", 2, results.size());
+
+        q = new QueryBuilder().select().from(TestObject2.class).where("key2",OPERAND.GREATER_THAN,"1").build();
+        results = dao.query(q);
+        assertEquals("key2>", 2, results.size());
+
+        assertEquals(3, dao.count(testObject2Table));
+    }
+
+    @Test
+    public void testUniqueIndex() throws Exception {
+        serverDao().index(IndexDefinition.userData(TestObject2.class, "key1", IndexDefinition.Kind.UNIQUE));
+
+        TestObject2 a = new TestObject2("key1","unique");
+        dao.save(a);
+        dao.save(a); // same object, not a conflict
+
+        try{
+            dao.save(new TestObject2("key1","unique"));
+            fail("duplicate value saved");
+        } catch (ServerDAO.DAOException e){
+            assertEquals(409, e.getStatusCode());
+        }
+
+        Query q = new QueryBuilder().select().from(TestObject2.class).where("key1",OPERAND.EQ,"unique").build();
+        assertEquals(1, dao.query(q).size());
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        serverDao().index(IndexDefinition.userData(TestObject2.class, "key1", IndexDefinition.Kind.HASH));
+        TestObject2 a = new TestObject2("key1","red");
+        a.put("score", 1);
+        TestObject2 b = new TestObject2("key1","red");
+        TestObject2 c = new TestObject2("key1","blue");
+        c.put("score", 5);
+        dao.save(a,b,c);
+
+        Query q = new QueryBuilder().update().from(TestObject2.class).set("key1","gold").increment("score",10).where("key1",OPERAND.EQ,"red").build();
+        List<TransientObject> results = dao.query(q);
+        assertEquals(1, results.size());
+        assertEquals(2, ((Number) results.get(0).get(Object.class, "count")).intValue());
+
+        // the indexed copy follows the change
+        q = new QueryBuilder().select().from(TestObject2.class).where("key1",OPERAND.EQ,"gold").build();
+        results = dao.query(q);
+        Set<Integer> scores = new HashSet<Integer>();
+        for(TransientObject o : results){
+            scores.add(((Number) o.get(Object.class, "score")).intValue());
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(11, 10)), scores);
+        assertEquals(1, dao.query(new QueryBuilder().select().from(TestObject2.class).where("key1",OPERAND.EQ,"blue").build()).size());
+        assertEquals(3, dao.count(testObject2Table));
+
+        try{
+            dao.query(new QueryBuilder().update().from(TestObject2.class).increment("key1",1).build());
+            fail("incremented a string");
+        } catch (ServerDAO.DAOException e){
+            assertEquals(400, e.getStatusCode());
+        }
+        try{
+            dao.query(new QueryBuilder().update().from(TestObject2.class).build());
+            fail("update without assignments");
+        } catch (ServerDAO.DAOException e){
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        TestObject2 a = new TestObject2("key1","red");
+        a.put("score", 1);
+        a.put("other", "kept");
+        dao.save(a);
+
+        // patches of one object apply one after the other, fields they do not name are kept
+        Collection<TransientObject> patched = serverDao().patch(
+                new Patch(a).set("key1","gold").increment("score",2).append("tags","x"),
+                new Patch(a).increment("score",3),
+                new Patch(testObject2Table, "missing").set("key1","gold"));
+        assertEquals(2, patched.size());
+
+        TransientObject stored = ObjectUtils.get1stOrNull(serverDao().<TransientObject>get(testObject2Table, a.getObjectKey()));
+        assertEquals("gold", stored.get(String.class, "key1"));
+        assertEquals(6, ((Number) stored.get(Object.class, "score")).intValue());
+        assertEquals(Arrays.asList("x"), new ArrayList<Object>((Collection<?>) stored.get(Object.class, "tags")));
+        assertEquals("kept", stored.get(String.class, "other"));
+        assertEquals(1, dao.count(testObject2Table));
+
+        try{
+            serverDao().patch(new Patch(a).increment("key1",1));
+            fail("incremented a string");
+        } catch (ServerDAO.DAOException e){
+            assertEquals(400, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        int total = 1201; // several pages
+        TestObject2[] objects = new TestObject2[total];
+        for(int x=0;x<total;x++){
+            objects[x] = new TestObject2("key1", String.valueOf(x % 3));
+        }
+        dao.save(objects);
+
+        Set<String> keys = new HashSet<String>();
+        Iterator<TransientObject> it = serverDao().stream(new QueryBuilder().select().from(TestObject2.class).build());
+        while(it.hasNext()){
+            assertTrue("seen twice", keys.add(it.next().getObjectKey()));
+        }
+        assertEquals(total, keys.size());
+
+        int filtered = 0;
+        it = serverDao().stream(new QueryBuilder().select().from(TestObject2.class).where("key1",OPERAND.EQ,"1").build());
+        while(it.hasNext()){
+            assertEquals("1", it.next().get(String.class, "key1"));
+            filtered++;
+        }
+        assertEquals(400, filtered);
+
+        int limited = 0;
+        it = serverDao().stream(new QueryBuilder().select().from(TestObject2.class).limit(700).build());
+        while(it.hasNext()){
+            it.next();
+            limited++;
+        }
+        assertEquals(700, limited);
+    }
+}
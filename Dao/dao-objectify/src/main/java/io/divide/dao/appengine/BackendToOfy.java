@@ -16,8 +16,10 @@
 
 package io.divide.dao.appengine;
 
+import io.divide.dao.IndexDefinition;
 import io.divide.shared.transitory.TransientObject;
 
+import java.util.Collection;
 import java.util.Map;
 
 public class BackendToOfy{
@@ -29,6 +31,34 @@ public class BackendToOfy{
         return oo;
     }
 
+    /**
+     * @param transientObject object to convert.
+     * @param indexes indexes declared for the type of the object, if any are declared only
+     *                these fields and the object type are indexed.
+     */
+    public static OfyObject getOfy(TransientObject transientObject, Collection<IndexDefinition> indexes) {
+        OfyObject oo = getOfy(transientObject);
+        if(indexes.isEmpty()) return oo;
+
+        oo.indexAll = false;
+        oo.idx.put(indexKey(TYPE_PATH), transientObject.getObjectType());
+        for(IndexDefinition index : indexes){
+            Object value = index.valueOf(transientObject);
+            if(value != null) oo.idx.put(indexKey(index.getPath()), value);
+        }
+        return oo;
+    }
+
+    public static final String TYPE_PATH = TransientObject.META_DATA + "." + TransientObject.OBJECT_TYPE_KEY.KEY;
+
+    /**
+     * @param path indexed field path, such as "meta_data.email".
+     * @return key of the indexed copy within {@link OfyObject#idx}, embedded map keys can not contain '.'.
+     */
+    public static String indexKey(String path){
+        return path.replace('.', '_');
+    }
+
     public static TransientObject getBack(OfyObject ofyObject) {
         TempObject beo = new TempObject(); // gonna get over written anyways
         beo.setMaps(ofyObject.user_data,ofyObject.meta_data);
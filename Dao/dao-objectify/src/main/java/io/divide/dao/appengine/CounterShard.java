@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao.appengine;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/*
+ * One shard of a per type object counter or a per field sum, see ShardedCounter.
+ */
+@Entity
+public class CounterShard {
+
+    @Id
+    String id;
+    String objectType;
+    long count;
+    double sum; // sum of the values, counters of a field only
+    long recounted; // time of the last recount, only kept on shard 0
+
+    public CounterShard(){}
+
+    public CounterShard(String name, int shard){
+        this.id = id(name, shard);
+        this.objectType = name;
+    }
+
+    static String id(String name, int shard){
+        return name + "#" + shard;
+    }
+}
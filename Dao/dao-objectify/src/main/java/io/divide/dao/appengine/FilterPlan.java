@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.dao.appengine;
+
+import io.divide.shared.transitory.query.Expression;
+import io.divide.shared.transitory.query.OPERAND;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Splits a query filter into the predicates the datastore can answer and a residual checked
+ * against the loaded objects. Datastore filters are AND only and allow inequalities on a single
+ * property, so OR groups and inequalities on any other property make up the residual.
+ */
+class FilterPlan {
+
+    private final List<Expression> pushed = new ArrayList<Expression>();
+    private final Expression residual;
+
+    /**
+     * Inequalities are pushed down for the property of the first one.
+     */
+    static FilterPlan of(Expression filter){
+        String inequality = null;
+        if(filter != null){
+            for(Expression term : filter.getConjuncts()){
+                if(!term.isGroup() && isInequality(term.getOperand())){
+                    inequality = term.getField();
+                    break;
+                }
+            }
+        }
+        return new FilterPlan(filter, inequality);
+    }
+
+    /**
+     * @param inequality the only property inequalities are pushed down for, null for none.
+     */
+    static FilterPlan of(Expression filter, String inequality){
+        return new FilterPlan(filter, inequality);
+    }
+
+    private FilterPlan(Expression filter, String inequality){
+        if(filter == null){
+            residual = null;
+            return;
+        }
+
+        List<Expression> rest = new ArrayList<Expression>();
+        for(Expression term : filter.getConjuncts()){
+            boolean pushable = !term.isGroup() &&
+                    (!isInequality(term.getOperand()) || term.getField().equals(inequality));
+            if(pushable) pushed.add(term);
+            else rest.add(term);
+        }
+        residual = rest.isEmpty() ? null : Expression.and(rest.toArray(new Expression[rest.size()]));
+    }
+
+    private static boolean isInequality(OPERAND operand){
+        return operand != OPERAND.EQ && operand != OPERAND.CONTAINS && operand != OPERAND.IN;
+    }
+
+    /**
+     * @return predicates answered by the datastore.
+     */
+    List<Expression> getPushed(){
+        return Collections.unmodifiableList(pushed);
+    }
+
+    /**
+     * @return the part of the filter checked on loaded objects, null if the datastore answers all of it.
+     */
+    Expression getResidual(){
+        return residual;
+    }
+}
@@ -17,13 +17,16 @@
 package io.divide.dao.appengine;
 
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.cmd.LoadType;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+import io.divide.dao.IndexDefinition;
+import io.divide.dao.IndexRegistry;
 import io.divide.dao.ServerDAO;
 import io.divide.shared.util.Crypto;
 import io.divide.shared.util.ObjectUtils;
 import io.divide.shared.transitory.TransientObject;
 import io.divide.shared.transitory.query.*;
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import javax.ws.rs.core.Response;
 import java.security.KeyPair;
@@ -36,70 +39,169 @@ public class ObjectifyDAO implements ServerDAO {
     Logger logger = Logger.getLogger(String.valueOf(ObjectifyDAO.class));
     Random RANDOM = new Random();
 
+    /**
+     * Max entities per datastore batch put/delete call.
+     */
+    static final int BATCH_SIZE = 500;
+
+    private final IndexRegistry indexes = new IndexRegistry();
+    private final ShardedCounter counters = new ShardedCounter();
+
+    /**
+     * Once a type declares indexes only the declared fields (and the object type) are indexed,
+     * queries against any other field of that type are rejected. Objects saved before the
+     * declaration have to be re-saved, see {@link #reindex(String)}. Datastore has no unique
+     * constraints, {@link IndexDefinition.Kind#UNIQUE} is checked with a query on save.
+     */
     @Override
-    public List<TransientObject> query(Query query) throws DAOException{
-        logger.info("query: " + query);
-        LoadType<?> filter = ofy().load().type(OfyObject.class);
-        com.googlecode.objectify.cmd.Query<?> oFilter =
-        filter.filter(TransientObject.META_DATA+"."+ TransientObject.OBJECT_TYPE_KEY.KEY + " =",query.getFrom());
+    public void index(IndexDefinition... indexes){
+        this.indexes.add(indexes);
+    }
 
-        for(Clause c : query.getWhere().values()){
-            oFilter = oFilter.filter(
-                    c.getBefore() + " " +
-                    (c.getOperand().equals(OPERAND.CONTAINS.toString())?OPERAND.EQ.toString():c.getOperand()), // replace CONTAINS with ==
-                    c.getAfter());
+    /**
+     * Re-saves every object of a type so it is stored according to the currently declared indexes.
+     * @param objectType type to reindex.
+     * @return number of objects re-saved.
+     */
+    public int reindex(String objectType){
+        Map<String,OfyObject> objects = new HashMap<String, OfyObject>();
+        for(OfyObject oo : ofy().load().type(OfyObject.class).filter(BackendToOfy.TYPE_PATH + " =", objectType).list()){
+            objects.put(oo.object_key, oo);
+        }
+        for(OfyObject oo : ofy().load().type(OfyObject.class).filter(indexed(BackendToOfy.TYPE_PATH) + " =", objectType).list()){
+            objects.put(oo.object_key, oo);
         }
 
-        if(query.getOffset()!=null){
-            oFilter = oFilter.offset(query.getOffset());
+        List<OfyObject> toSave = new ArrayList<OfyObject>(objects.size());
+        for(OfyObject oo : objects.values()){
+            toSave.add(BackendToOfy.getOfy(BackendToOfy.getBack(oo), indexes.get(objectType)));
         }
-        if(query.getLimit()!=null){
-            oFilter = oFilter.limit(query.getLimit());
+        ofy().save().entities(toSave).now();
+        return toSave.size();
+    }
+
+    private static String indexed(String path){
+        return "idx." + BackendToOfy.indexKey(path);
+    }
+
+    private com.googlecode.objectify.cmd.Query<OfyObject> ofType(String objectType){
+        return ofType(ofy(), objectType);
+    }
+
+    private com.googlecode.objectify.cmd.Query<OfyObject> ofType(Objectify ofy, String objectType){
+        String typeField = indexes.hasIndexes(objectType) ? indexed(BackendToOfy.TYPE_PATH) : BackendToOfy.TYPE_PATH;
+        return ofy.load().type(OfyObject.class).filter(typeField + " =", objectType);
+    }
+
+    private static void checkFields(Query query) throws DAOException {
+        try{
+            query.checkFields();
+        } catch (IllegalArgumentException e){
+            throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+        }
+    }
+
+    private String field(String objectType, String path) throws DAOException {
+        if(!indexes.hasIndexes(objectType)) return path;
+        if(indexes.get(objectType, path) == null)
+            throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), path + " is not indexed for " + objectType);
+        return indexed(path);
+    }
+
+    private void checkUnique(TransientObject object) throws DAOException {
+        for(IndexDefinition index : indexes.get(object.getObjectType())){
+            if(index.getKind() != IndexDefinition.Kind.UNIQUE) continue;
+            Object value = index.valueOf(object);
+            if(value == null) continue;
+
+            // datastore transactions only allow ancestor queries, so this always runs outside of them
+            for(Key<OfyObject> key : ofType(ofy().transactionless(), object.getObjectType()).filter(indexed(index.getPath()) + " =", value).keys().list()){
+                if(!key.getName().equals(object.getObjectKey()))
+                    throw new DAOException(Response.Status.CONFLICT.getStatusCode(), index.getPath() + " must be unique: " + value);
+            }
         }
+    }
+
+    @Override
+    public List<TransientObject> query(Query query) throws DAOException{
+        logger.info("query: " + query);
+        checkFields(query);
+        if(query.isOrdered() && query.getAction().equals(QueryBuilder.QueryAction.SELECT) && query.getSelect() == null){
+            return project(ordered(query), query);
+        }
+        if(query.getAction().equals(QueryBuilder.QueryAction.SELECT) && query.getSelect() != null){
+            return aggregate(query);
+        }
+        if(query.getAction().equals(QueryBuilder.QueryAction.UPDATE) && query.getUpdates().isEmpty()){
+            throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), "update without assignments");
+        }
+        FilterPlan plan = FilterPlan.of(query.getFilter());
+        com.googlecode.objectify.cmd.Query<OfyObject> oFilter = where(query, plan);
+        Query paging = (plan.getResidual() != null) ? query : null;
+
         if(query.getRandom()!=null){
+            if(equalityOnly(query)) return project(sample(query), query);
+
+            // the datastore allows one inequality property, fall back to a random offset
             int count = count(query.getFrom());
             if(count < 1) return new ArrayList<TransientObject>();
 
             int random = RANDOM.nextInt(count);
             oFilter = oFilter.offset(random);
             oFilter = oFilter.limit(query.getLimit());
+            paging = null;
         }
 
         List list = null;
         switch (query.getAction()){
             case SELECT:{
-                if(query.getSelect() == null){
-                    list = oFilter.list();
-                    List<TransientObject> toReturn = new ArrayList<TransientObject>(list.size());
-                    try{
-                        for (OfyObject oo : (List<OfyObject>)list){
-                            logger.info("Got: " + oo);
-                            toReturn.add(BackendToOfy.getBack(oo));
-                        }
-                    } catch (Exception e) {
-                        throw new DAOException(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),e);
+                List<TransientObject> toReturn = new ArrayList<TransientObject>();
+                try{
+                    Iterator<TransientObject> found = new Matches(oFilter.chunk(BATCH_SIZE).iterator(), plan.getResidual(), paging);
+                    while(found.hasNext()){
+                        TransientObject o = found.next();
+                        logger.info("Got: " + o);
+                        toReturn.add(o);
                     }
-
-                    list.clear();
-                    list = toReturn;
-                } else
-                if(query.getSelect().equals(SelectOperation.COUNT)){
-                    int count = count(query.getFrom());
-                    return Arrays.asList((TransientObject)new Count(count,query.getFrom()));
+                } catch (Exception e) {
+                    throw new DAOException(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),e);
                 }
+                list = project(toReturn, query);
             }break;
             case DELETE:{
-                list = oFilter.keys().list();
-                ofy().delete().keys(list);
+                Map<String,double[]> sums = new HashMap<String, double[]>();
+                if(plan.getResidual() == null){
+                    list = oFilter.keys().list();
+                    // values of the deleted objects were not read, their sums are recounted
+                    for(IndexDefinition index : summed(query.getFrom())){
+                        counters.expire(ShardedCounter.sumOf(query.getFrom(), index.getPath()));
+                    }
+                } else {
+                    seedSums(query.getFrom());
+                    list = new ArrayList<Key<OfyObject>>();
+                    Iterator<TransientObject> found = new Matches(oFilter.chunk(BATCH_SIZE).iterator(), plan.getResidual(), paging);
+                    while(found.hasNext()){
+                        TransientObject o = found.next();
+                        addValues(sums, o, -1);
+                        list.add(Key.create(OfyObject.class, o.getObjectKey()));
+                    }
+                }
+                ofy().delete().keys(list).now();
                 int count = list.size();
+                adjustCount(query.getFrom(), -count);
+                adjustSums(sums);
                 list.clear();
                 EmptyTO o = new EmptyTO();
                 o.put("count",count);
                 list.add(o);
             }break;
             case UPDATE:{
-                throw new NotImplementedException();
-            }
+                int count = update(query, new Matches(oFilter.chunk(BATCH_SIZE).iterator(), plan.getResidual(), paging));
+                list = new ArrayList<TransientObject>(1);
+                EmptyTO o = new EmptyTO();
+                o.put("count",count);
+                list.add(o);
+            }break;
         }
 
         logger.info("Query Complete: " + list);
@@ -107,6 +209,314 @@ public class ObjectifyDAO implements ServerDAO {
         return (List<TransientObject>) list;
     }
 
+    /*
+     * The datastore has no set based updates, matching objects are changed as they are read and
+     * written back with one batch put per chunk.
+     */
+    private int update(Query query, Iterator<TransientObject> found) throws DAOException {
+        seedSums(query.getFrom());
+        Collection<IndexDefinition> declared = indexes.get(query.getFrom());
+        Map<String,double[]> sums = new HashMap<String, double[]>();
+        List<Result<?>> pending = new ArrayList<Result<?>>();
+        List<OfyObject> chunk = new ArrayList<OfyObject>(BATCH_SIZE);
+        int count = 0;
+        while(found.hasNext()){
+            TransientObject o = found.next();
+            addValues(sums, o, -1);
+            try{
+                for(Update update : query.getUpdates()) update.applyTo(o);
+            } catch (IllegalArgumentException e){
+                throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+            }
+            checkUnique(o);
+            addValues(sums, o, 1);
+            chunk.add(BackendToOfy.getOfy(o, declared));
+            count++;
+            if(chunk.size() == BATCH_SIZE){
+                pending.add(ofy().save().entities(chunk));
+                chunk = new ArrayList<OfyObject>(BATCH_SIZE);
+            }
+        }
+        if(!chunk.isEmpty()) pending.add(ofy().save().entities(chunk));
+        for(Result<?> result : pending){
+            result.now();
+        }
+        adjustSums(sums);
+        return count;
+    }
+
+    /**
+     * Objects are read from the datastore in chunks of {@link #BATCH_SIZE} as the iterator is advanced.
+     */
+    @Override
+    public Iterator<TransientObject> stream(Query query) throws DAOException {
+        if(!query.getAction().equals(QueryBuilder.QueryAction.SELECT) || query.getSelect() != null || query.getRandom() != null || query.isOrdered())
+            return query(query).iterator();
+
+        logger.info("stream: " + query);
+        checkFields(query);
+        FilterPlan plan = FilterPlan.of(query.getFilter());
+        final Iterator<TransientObject> found = new Matches(where(query, plan).chunk(BATCH_SIZE).iterator(),
+                plan.getResidual(), (plan.getResidual() != null) ? query : null);
+        final List<String> fields = query.getFields();
+        return new Iterator<TransientObject>() {
+            @Override
+            public boolean hasNext() {
+                return found.hasNext();
+            }
+
+            @Override
+            public TransientObject next() {
+                TransientObject o = found.next();
+                if(fields != null) o.retainFields(fields);
+                return o;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /*
+     * Counting a whole type reads the sharded counter, a filtered count is a keys only query. SUM and
+     * AVG of a RANGE indexed field over a whole type read the sums kept on write. Other operations
+     * fold the matching objects into an Aggregation as they are read, a chunk at a time, the
+     * datastore has no aggregate queries. MIN and MAX can not be kept on write as deletes and
+     * updates can not be taken back out of them, filters and groups are not known up front.
+     */
+    private List<TransientObject> aggregate(Query query) throws DAOException {
+        if(query.getSelect().requiresField() && query.getAggregate() == null)
+            throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), query.getSelect() + " requires a field");
+
+        FilterPlan plan = FilterPlan.of(query.getFilter());
+        boolean counting = query.getSelect().equals(SelectOperation.COUNT) && query.getAggregate() == null && query.getGroupBy() == null;
+        if(counting && plan.getResidual() == null){
+            int count = (query.getFilter() == null && query.getOffset() == null && query.getLimit() == null)
+                    ? count(query.getFrom())
+                    : where(query, plan).count();
+            return Arrays.asList((TransientObject)new Count(count,query.getFrom()));
+        }
+
+        IndexDefinition summed = summedBy(query);
+        if(summed != null){
+            double[] totals = sum(query.getFrom(), summed);
+            return Arrays.asList((TransientObject)Aggregation.result(query, null, (long) totals[0], totals[1]));
+        }
+
+        Aggregation aggregation = new Aggregation(query);
+        Iterator<TransientObject> found = new Matches(where(query, plan).chunk(BATCH_SIZE).iterator(),
+                plan.getResidual(), (plan.getResidual() != null) ? query : null);
+        try{
+            while(found.hasNext()){
+                aggregation.add(found.next());
+            }
+        } catch (Exception e) {
+            throw new DAOException(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),e);
+        }
+        return aggregation.getResults();
+    }
+
+    /*
+     * Projections are applied to the loaded objects. Datastore projection queries need every selected
+     * property indexed, which types with declared indexes do not guarantee.
+     */
+    private static List<TransientObject> project(List<TransientObject> objects, Query query){
+        List<String> fields = query.getFields();
+        if(fields != null){
+            for(TransientObject o : objects) o.retainFields(fields);
+        }
+        return objects;
+    }
+
+    /*
+     * Every compared field has to be indexed, pushed down or not.
+     */
+    private com.googlecode.objectify.cmd.Query<OfyObject> clauses(Query query, FilterPlan plan) throws DAOException {
+        com.googlecode.objectify.cmd.Query<OfyObject> oFilter = ofType(query.getFrom());
+        if(query.getFilter() == null) return oFilter;
+
+        for(Expression predicate : query.getFilter().getPredicates()){
+            field(query.getFrom(), predicate.getField());
+        }
+        for(Expression predicate : plan.getPushed()){
+            oFilter = filter(oFilter, field(query.getFrom(), predicate.getField()), predicate);
+        }
+        return oFilter;
+    }
+
+    private static com.googlecode.objectify.cmd.Query<OfyObject> filter(com.googlecode.objectify.cmd.Query<OfyObject> oFilter, String field, Expression predicate){
+        List<Literal> values = predicate.getValues();
+        switch (predicate.getOperand()){
+            case CONTAINS:{ // list properties match on any element
+                return oFilter.filter(field + " " + OPERAND.EQ, values.get(0).getValue());
+            }
+            case IN:{
+                List<Object> in = new ArrayList<Object>(values.size());
+                for(Literal literal : values) in.add(literal.getValue());
+                return oFilter.filter(field + " in", in);
+            }
+            case BETWEEN:{
+                return oFilter.filter(field + " " + OPERAND.GREATER_THAN_EQ, values.get(0).getValue())
+                              .filter(field + " " + OPERAND.LESS_THAN_EQ, values.get(1).getValue());
+            }
+            default:{
+                return oFilter.filter(field + " " + predicate.getOperand(), values.get(0).getValue());
+            }
+        }
+    }
+
+    /*
+     * Offset and limit only apply to the datastore query if it answers the whole filter.
+     */
+    private com.googlecode.objectify.cmd.Query<OfyObject> where(Query query, FilterPlan plan) throws DAOException {
+        com.googlecode.objectify.cmd.Query<OfyObject> oFilter = clauses(query, plan);
+        if(plan.getResidual() != null) return oFilter;
+
+        if(query.getOffset()!=null){
+            oFilter = oFilter.offset(query.getOffset());
+        }
+        if(query.getLimit()!=null){
+            oFilter = oFilter.limit(query.getLimit());
+        }
+        return oFilter;
+    }
+
+    /*
+     * Converts the objects read by a query, skipping those failing the residual filter. Offset and
+     * limit of paging are applied to the objects that pass, null if the datastore applied them.
+     */
+    private static class Matches implements Iterator<TransientObject> {
+        private final Iterator<OfyObject> found;
+        private final Expression residual;
+        private int skip;
+        private int remaining;
+        private TransientObject next;
+
+        private Matches(Iterator<OfyObject> found, Expression residual, Query paging){
+            this.found = found;
+            this.residual = residual;
+            this.skip = (paging == null || paging.getOffset() == null) ? 0 : paging.getOffset();
+            this.remaining = (paging == null || paging.getLimit() == null) ? Integer.MAX_VALUE : paging.getLimit();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while(next == null && remaining > 0 && found.hasNext()){
+                TransientObject o = BackendToOfy.getBack(found.next());
+                if(residual != null && !residual.matches(o)) continue;
+                if(skip > 0){
+                    skip--;
+                    continue;
+                }
+                next = o;
+                remaining--;
+            }
+            return next != null;
+        }
+
+        @Override
+        public TransientObject next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            TransientObject o = next;
+            next = null;
+            return o;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /*
+     * Keyset paging, ordered by the field and then by key. The datastore allows a single inequality
+     * property, so the continuation filters on the field and objects tied with the last value are
+     * skipped here. Objects without the field are not part of an ordered query.
+     */
+    private List<TransientObject> ordered(Query query) throws DAOException {
+        Continuation after;
+        try{
+            after = query.getContinuation();
+        } catch (IllegalArgumentException e){
+            throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+        }
+
+        // the inequality property has to be the first sort order, other inequalities are checked here
+        FilterPlan plan = FilterPlan.of(query.getFilter(), query.getOrderBy());
+        Expression residual = plan.getResidual();
+        boolean descending = query.getOrder() == Order.DESC;
+        String sign = descending ? "-" : "";
+        com.googlecode.objectify.cmd.Query<OfyObject> oFilter = clauses(query, plan);
+        if(query.getOrderBy() != null){
+            String field = field(query.getFrom(), query.getOrderBy());
+            if(after != null) oFilter = oFilter.filter(field + (descending ? " <=" : " >="), after.getValue().getValue());
+            oFilter = oFilter.order(sign + field);
+        } else if(after != null){
+            oFilter = oFilter.filterKey(descending ? "<" : ">", Key.create(OfyObject.class, after.getKey()));
+        }
+        oFilter = oFilter.order(sign + "__key__");
+        int skip = 0;
+        if(query.getOffset()!=null){
+            if(residual == null) oFilter = oFilter.offset(query.getOffset());
+            else skip = query.getOffset();
+        }
+
+        int limit = (query.getLimit() != null) ? query.getLimit() : Integer.MAX_VALUE;
+        List<TransientObject> toReturn = new ArrayList<TransientObject>();
+        Iterator<OfyObject> found = oFilter.chunk((residual == null) ? Math.min(limit, BATCH_SIZE) : BATCH_SIZE).iterator();
+        while(toReturn.size() < limit && found.hasNext()){
+            TransientObject o = BackendToOfy.getBack(found.next());
+            Literal value = (after == null || query.getOrderBy() == null) ? null : Continuation.valueOf(o, query.getOrderBy());
+            if(value != null && after.getValue().compareTo(value) == 0){
+                int c = o.getObjectKey().compareTo(after.getKey());
+                if(descending ? c >= 0 : c <= 0) continue;
+            }
+            if(residual != null && !residual.matches(o)) continue;
+            if(skip > 0){
+                skip--;
+                continue;
+            }
+            toReturn.add(o);
+        }
+        return toReturn;
+    }
+
+    /*
+     * Reads limit objects starting at a random point of the random_key index, wrapping around
+     * to the start if the end is reached, so the cost does not depend on where the point is.
+     */
+    private List<TransientObject> sample(Query query) throws DAOException {
+        int limit = (query.getLimit() != null) ? query.getLimit() : 1;
+        double point = RANDOM.nextDouble();
+
+        List<OfyObject> found = new ArrayList<OfyObject>(limit);
+        found.addAll(filtered(query).filter("random_key >=", point).order("random_key").limit(limit).list());
+        if(found.size() < limit){
+            found.addAll(filtered(query).filter("random_key <", point).order("random_key").limit(limit - found.size()).list());
+        }
+
+        List<TransientObject> toReturn = new ArrayList<TransientObject>(found.size());
+        try{
+            for(OfyObject oo : found){
+                toReturn.add(BackendToOfy.getBack(oo));
+            }
+        } catch (Exception e) {
+            throw new DAOException(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),e);
+        }
+        return toReturn;
+    }
+
+    // sampling needs the random_key inequality, only equality filters can go along with it
+    private com.googlecode.objectify.cmd.Query<OfyObject> filtered(Query query) throws DAOException {
+        return clauses(query, FilterPlan.of(query.getFilter(), null));
+    }
+
+    private static boolean equalityOnly(Query query){
+        return FilterPlan.of(query.getFilter(), null).getResidual() == null;
+    }
+
     @Override
     public Collection<TransientObject> get(String objectType, final String... keys) throws DAOException {
         logger.info("get: " + ObjectUtils.v2c(keys));
@@ -136,23 +546,103 @@ public class ObjectifyDAO implements ServerDAO {
     public void save(TransientObject... objects) throws DAOException{
         logger.info("save(): " + ObjectUtils.v2c(objects));
         try{
+            seed(objects);
+            Map<Key<OfyObject>, OfyObject> stored = stored(objects);
+            Map<String,Long> inserted = countPerType(objects, stored, false);
+            Map<String,double[]> sums = sumDeltas(objects, stored, true);
+
+            List<OfyObject> toSave = new ArrayList<OfyObject>(objects.length);
             for(TransientObject bo : objects){
-                ofy().save().entities(BackendToOfy.getOfy(bo)).now();
+                checkUnique(bo);
+                toSave.add(BackendToOfy.getOfy(bo, indexes.get(bo.getObjectType())));
+            }
+
+            // issue every chunk async, then wait on all of them once
+            List<Result<?>> pending = new ArrayList<Result<?>>();
+            for(List<OfyObject> chunk : chunk(toSave)){
+                pending.add(ofy().save().entities(chunk));
+            }
+            for(Result<?> result : pending){
+                result.now();
             }
+
+            for(Map.Entry<String,Long> entry : inserted.entrySet()){
+                adjustCount(entry.getKey(), entry.getValue());
+            }
+            adjustSums(sums);
+        } catch (DAOException e) {
+            throw e;
         } catch (Exception e) {
             throw new DAOException(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),e);
         }
         logger.info("Save Complete.");
     }
 
+    /**
+     * Every patch is applied in its own transaction, which objectify retries when it collides with a
+     * concurrent write of the same object.
+     */
+    @Override
+    public Collection<TransientObject> patch(Patch... patches) throws DAOException {
+        logger.info("patch: " + ObjectUtils.v2c(patches));
+
+        List<TransientObject> patched = new ArrayList<TransientObject>(patches.length);
+        for(final Patch patch : patches){
+            seedSums(patch.getObjectType());
+            final Map<String,double[]> sums = new HashMap<String, double[]>();
+            TransientObject o = ofy().transactNew(new Work<TransientObject>() {
+                @Override
+                public TransientObject run() {
+                    sums.clear(); // the work is run again on collisions
+                    OfyObject oo = ofy().load().key(Key.create(OfyObject.class, patch.getObjectKey())).now();
+                    if(oo == null || !patch.getObjectType().equals(oo.meta_data.get("object_type"))) return null;
+
+                    TransientObject o = BackendToOfy.getBack(oo);
+                    addValues(sums, o, -1);
+                    try{
+                        patch.applyTo(o);
+                    } catch (IllegalArgumentException e){
+                        throw new DAOException(Response.Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+                    }
+                    checkUnique(o);
+                    addValues(sums, o, 1);
+                    ofy().save().entity(BackendToOfy.getOfy(o, indexes.get(o.getObjectType()))).now();
+                    return o;
+                }
+            });
+            adjustSums(sums);
+            if(o != null) patched.add(o);
+        }
+        return patched;
+    }
+
     @Override
     public void delete(TransientObject... objects) throws DAOException {
         logger.info("delete: " + ObjectUtils.v2c(objects));
 
         try{
+            seed(objects);
+            Map<Key<OfyObject>, OfyObject> stored = stored(objects);
+            Map<String,Long> deleted = countPerType(objects, stored, true);
+            Map<String,double[]> sums = sumDeltas(objects, stored, false);
+
+            List<Key<OfyObject>> keys = new ArrayList<Key<OfyObject>>(objects.length);
             for(TransientObject bo : objects){
-                ofy().delete().key(Key.create(OfyObject.class, bo.getObjectKey())).now();
+                keys.add(Key.create(OfyObject.class, bo.getObjectKey()));
             }
+
+            List<Result<?>> pending = new ArrayList<Result<?>>();
+            for(List<Key<OfyObject>> chunk : chunk(keys)){
+                pending.add(ofy().delete().keys(chunk));
+            }
+            for(Result<?> result : pending){
+                result.now();
+            }
+
+            for(Map.Entry<String,Long> entry : deleted.entrySet()){
+                adjustCount(entry.getKey(), -entry.getValue());
+            }
+            adjustSums(sums);
         } catch (Exception e) {
             throw new DAOException(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(),e);
         }
@@ -161,27 +651,189 @@ public class ObjectifyDAO implements ServerDAO {
 
     @Override
     public boolean exists(TransientObject... objects) {
-        logger.info("exists: " + ObjectUtils.v2c(objects));
+        return existing(objects).cardinality() == objects.length;
+    }
+
+    @Override
+    public BitSet existing(TransientObject... objects) {
+        logger.info("existing: " + ObjectUtils.v2c(objects));
 
-        boolean exists = true;
+        Map<Key<OfyObject>, OfyObject> found = stored(objects);
+        BitSet existing = new BitSet(objects.length);
+        for(int i = 0; i < objects.length; i++){
+            if(found.containsKey(Key.create(OfyObject.class, objects[i].getObjectKey()))) existing.set(i);
+        }
+        return existing;
+    }
+
+    /*
+     * One batch get, datastore splits keys-only IN queries into a query per key anyway. Fresh
+     * session, the thread's session cache would answer for objects deleted elsewhere.
+     */
+    private Map<Key<OfyObject>, OfyObject> stored(TransientObject[] objects){
+        List<Key<OfyObject>> keys = new ArrayList<Key<OfyObject>>(objects.length);
         for(TransientObject bo : objects){
-            if(!exists(bo.getObjectKey())) exists = false;
+            keys.add(Key.create(OfyObject.class, bo.getObjectKey()));
         }
-        return exists;
+        return OfyService.factory().begin().load().keys(keys);
     }
 
+    /**
+     * Answered by the sharded counter. Counts can drift by racing writes of the same new keys and by
+     * writes the seeding query had not seen yet, they are recounted once older than
+     * {@link ShardedCounter#RECOUNT_INTERVAL} which bounds how long drift lasts.
+     */
     @Override
     public int count(String objectType) {
-        com.googlecode.objectify.cmd.Query<?> query =
-                ofy().
-                load().
-                type(OfyObject.class).
-                filter(TransientObject.META_DATA + "." + TransientObject.OBJECT_TYPE_KEY + " =", objectType);
-        int count = query.count();
+        long count = counters.get(objectType);
+        if(count < 0){
+            count = ofType(objectType).count();
+            counters.seed(objectType, count);
+        } else if(counters.isStale(objectType)){
+            count = ofType(objectType).count();
+            counters.recount(objectType, count);
+        }
 
         logger.info(TransientObject.META_DATA + "." + TransientObject.OBJECT_TYPE_KEY + " =" + objectType + ": " + count);
 
-        return query.count();
+        return (int) count;
+    }
+
+    /*
+     * Types and sums not counted yet are seeded before a write, so the totals they start from do
+     * not include it.
+     */
+    private void seed(TransientObject[] objects){
+        Set<String> types = new HashSet<String>();
+        for(TransientObject o : objects){
+            if(!types.add(o.getObjectType())) continue;
+            if(!counters.isSeeded(o.getObjectType())) counters.seed(o.getObjectType(), ofType(o.getObjectType()).count());
+            seedSums(o.getObjectType());
+        }
+    }
+
+    /*
+     * Number of distinct objects per type that are stored (present = true) or not yet stored.
+     */
+    private Map<String,Long> countPerType(TransientObject[] objects, Map<Key<OfyObject>, OfyObject> stored, boolean present){
+        Set<String> seen = new HashSet<String>();
+        Map<String,Long> perType = new HashMap<String, Long>();
+        for(int i = 0; i < objects.length; i++){
+            boolean existing = stored.containsKey(Key.create(OfyObject.class, objects[i].getObjectKey()));
+            if(existing != present || !seen.add(objects[i].getObjectKey())) continue;
+            Long count = perType.get(objects[i].getObjectType());
+            perType.put(objects[i].getObjectType(), (count == null) ? 1 : count + 1);
+        }
+        return perType;
+    }
+
+    private void adjustCount(String objectType, long delta){
+        if(counters.isSeeded(objectType)){
+            counters.add(objectType, delta);
+        } else {
+            // type we have not counted yet, the count is taken now and already reflects this write
+            counters.seed(objectType, ofType(objectType).count());
+        }
+    }
+
+    /*
+     * Fields whose number of values and sum are kept on write, the RANGE indexed user data of a type.
+     */
+    private List<IndexDefinition> summed(String objectType){
+        List<IndexDefinition> summed = new ArrayList<IndexDefinition>();
+        for(IndexDefinition index : indexes.get(objectType)){
+            if(index.getKind() == IndexDefinition.Kind.RANGE && index.getPath().startsWith(TransientObject.USER_DATA + "."))
+                summed.add(index);
+        }
+        return summed;
+    }
+
+    private IndexDefinition summedBy(Query query){
+        if(query.getSelect() != SelectOperation.SUM && query.getSelect() != SelectOperation.AVG) return null;
+        if(query.getAggregate() == null || query.getGroupBy() != null || query.getFilter() != null
+                || query.getOffset() != null || query.getLimit() != null) return null;
+        IndexDefinition index = indexes.get(query.getFrom(), TransientObject.USER_DATA + "." + query.getAggregate());
+        return (index == null || index.getKind() != IndexDefinition.Kind.RANGE) ? null : index;
+    }
+
+    /*
+     * Number of values and sum of a summed field, taken by reading the whole type when the kept
+     * totals were never seeded or are due to be recounted.
+     */
+    private double[] sum(String objectType, IndexDefinition index){
+        String name = ShardedCounter.sumOf(objectType, index.getPath());
+        double[] totals = counters.totals(name);
+        if(totals == null){
+            totals = scanSum(objectType, index);
+            counters.seed(name, (long) totals[0], totals[1]);
+        } else if(counters.isStale(name)){
+            totals = scanSum(objectType, index);
+            counters.recount(name, (long) totals[0], totals[1]);
+        }
+        return totals;
+    }
+
+    private double[] scanSum(String objectType, IndexDefinition index){
+        double[] totals = {0, 0};
+        for(OfyObject oo : ofType(objectType).chunk(BATCH_SIZE)){
+            Object value = index.valueOf(BackendToOfy.getBack(oo));
+            if(!(value instanceof Number)) continue;
+            totals[0]++;
+            totals[1] += ((Number) value).doubleValue();
+        }
+        return totals;
+    }
+
+    private void seedSums(String objectType){
+        for(IndexDefinition index : summed(objectType)){
+            if(!counters.isSeeded(ShardedCounter.sumOf(objectType, index.getPath()))) sum(objectType, index);
+        }
+    }
+
+    /*
+     * Change of the summed fields, the stored objects are taken out and on save the last object
+     * written per key is added.
+     */
+    private Map<String,double[]> sumDeltas(TransientObject[] objects, Map<Key<OfyObject>, OfyObject> stored, boolean saving){
+        Map<String,TransientObject> written = new LinkedHashMap<String, TransientObject>();
+        for(TransientObject o : objects){
+            written.put(o.getObjectKey(), o);
+        }
+
+        Map<String,double[]> sums = new HashMap<String, double[]>();
+        for(TransientObject o : written.values()){
+            OfyObject old = stored.get(Key.create(OfyObject.class, o.getObjectKey()));
+            if(old != null) addValues(sums, BackendToOfy.getBack(old), -1);
+            if(saving) addValues(sums, o, 1);
+        }
+        return sums;
+    }
+
+    private void addValues(Map<String,double[]> sums, TransientObject o, int sign){
+        for(IndexDefinition index : summed(o.getObjectType())){
+            Object value = index.valueOf(o);
+            if(!(value instanceof Number)) continue;
+
+            String name = ShardedCounter.sumOf(o.getObjectType(), index.getPath());
+            double[] delta = sums.get(name);
+            if(delta == null){
+                delta = new double[2];
+                sums.put(name, delta);
+            }
+            delta[0] += sign;
+            delta[1] += sign * ((Number) value).doubleValue();
+        }
+    }
+
+    private void adjustSums(Map<String,double[]> sums){
+        for(Map.Entry<String,double[]> entry : sums.entrySet()){
+            // sums not seeded yet are taken on the next read and already reflect this write
+            if(counters.isSeeded(entry.getKey())) counters.add(entry.getKey(), (long) entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    void setRecountInterval(long millis){
+        counters.setRecountInterval(millis);
     }
 
     @Override
@@ -201,8 +853,12 @@ public class ObjectifyDAO implements ServerDAO {
         }
     }
 
-    private boolean exists(String key){
-        return (OfyService.ofy().load().filterKey(Key.create(OfyObject.class,key)).count() == 1);
+    private static <T> List<List<T>> chunk(List<T> list){
+        List<List<T>> chunks = new ArrayList<List<T>>(list.size() / BATCH_SIZE + 1);
+        for(int i = 0; i < list.size(); i += BATCH_SIZE){
+            chunks.add(list.subList(i, Math.min(i + BATCH_SIZE, list.size())));
+        }
+        return chunks;
     }
 
     private static class EmptyTO extends TransientObject{
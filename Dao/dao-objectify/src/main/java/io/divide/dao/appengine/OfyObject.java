@@ -19,7 +19,9 @@ package io.divide.dao.appengine;
 import com.googlecode.objectify.annotation.EmbedMap;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.condition.PojoIf;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -30,14 +32,27 @@ public class OfyObject {
     @Id
     public String object_key;
 
-    @Index
+    @Index(IndexAll.class)
     @EmbedMap
     public Map<String,Object> user_data = new HashMap<String, Object>(0);
 
-    @Index
+    @Index(IndexAll.class)
     @EmbedMap
     public Map<String,String> meta_data = new HashMap<String, String>(0);
 
+    // copies of the declared indexed fields, see BackendToOfy.indexKey
+    @Index
+    @EmbedMap
+    public Map<String,Object> idx = new HashMap<String, Object>(0);
+
+    // random sort key, sampling seeks to a random point of its index. reassigned on every save
+    @Index
+    public double random_key = Math.random();
+
+    // types without declared indexes keep indexing every field
+    @Ignore
+    public boolean indexAll = true;
+
     public OfyObject(){}
 
     public OfyObject(String key,Map<String,Object> userData, Map<String,String> metaData){
@@ -46,6 +61,13 @@ public class OfyObject {
         this.meta_data = metaData;
     }
 
+    public static class IndexAll extends PojoIf<OfyObject> {
+        @Override
+        public boolean matchesPojo(OfyObject pojo) {
+            return pojo.indexAll;
+        }
+    }
+
     @Override
     public String toString() {
         return "OfyObject{" +
@@ -24,6 +24,7 @@ public class OfyService {
     static {
         factory().register(OfyObject.class);
         factory().register(KeyObject.class);
+        factory().register(CounterShard.class);
     }
 
     protected static Objectify ofy() {
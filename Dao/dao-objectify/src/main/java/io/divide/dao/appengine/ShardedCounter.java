@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao.appengine;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.divide.dao.appengine.OfyService.ofy;
+
+/*
+ * Per type object count spread over SHARDS entities, so concurrent writers of the same type
+ * rarely contend on one entity group. Reading is a single batch get of the shards. Counters of
+ * a field also keep the sum of its values, see {@link #sumOf(String, String)}.
+ *
+ * Writers classify inserts by a read taken before their write, so racing writes of the same new
+ * key can each count it, and seeds come from an eventually consistent query. Counts are replaced
+ * by a fresh query once the last recount is older than the recount interval, which bounds how
+ * long such drift lasts.
+ */
+class ShardedCounter {
+
+    static final int SHARDS = 20;
+    static final long RECOUNT_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+
+    private final Random random = new Random();
+    private final Set<String> seeded = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String,Long> recounted = new ConcurrentHashMap<String, Long>();
+    private volatile long recountInterval = RECOUNT_INTERVAL;
+
+    /**
+     * @return name of the counter keeping the number and sum of the numeric values of path.
+     */
+    static String sumOf(String objectType, String path){
+        return objectType + "/" + path;
+    }
+
+    void setRecountInterval(long millis){
+        this.recountInterval = millis;
+    }
+
+    boolean isSeeded(String name){
+        return seeded.contains(name) || get(name) >= 0;
+    }
+
+    /**
+     * @return the summed count, or -1 if the counter was never seeded.
+     */
+    long get(String name){
+        double[] totals = totals(name);
+        return (totals == null) ? -1 : (long) totals[0];
+    }
+
+    /**
+     * @return count and sum, or null if the counter was never seeded.
+     */
+    double[] totals(String name){
+        Map<Key<CounterShard>, CounterShard> shards = OfyService.factory().begin().load().keys(keys(name));
+        double[] totals = {0, 0};
+        boolean seeded = false;
+        for(CounterShard shard : shards.values()){
+            if(shard == null) continue;
+            seeded = true;
+            totals[0] += shard.count;
+            totals[1] += shard.sum;
+            if(shard.id.equals(CounterShard.id(name, 0))) recounted.put(name, shard.recounted);
+        }
+        if(!seeded) return null;
+        this.seeded.add(name);
+        return totals;
+    }
+
+    /**
+     * @return true if the counter read last by {@link #totals(String)} is due to be recounted.
+     */
+    boolean isStale(String name){
+        Long last = recounted.get(name);
+        return last == null || System.currentTimeMillis() - last >= recountInterval;
+    }
+
+    void recount(String name, long count){
+        recount(name, count, 0);
+    }
+
+    /**
+     * Replaces the totals of a counter, adds made to the other shards meanwhile are kept.
+     * @param count current number of objects, or of values for a field.
+     * @param sum current sum of the values, 0 for object counts.
+     */
+    void recount(final String name, final long count, final double sum){
+        long restCount = 0;
+        double restSum = 0;
+        for(CounterShard shard : OfyService.factory().begin().load().keys(keys(name).subList(1, SHARDS)).values()){
+            if(shard == null) continue;
+            restCount += shard.count;
+            restSum += shard.sum;
+        }
+
+        final long otherCount = restCount;
+        final double otherSum = restSum;
+        final long now = System.currentTimeMillis();
+        ofy().transactNew(new VoidWork() {
+            @Override
+            public void vrun() {
+                CounterShard shard = ofy().load().key(Key.create(CounterShard.class, CounterShard.id(name, 0))).now();
+                if(shard == null) shard = new CounterShard(name, 0);
+                shard.count = count - otherCount;
+                shard.sum = sum - otherSum;
+                shard.recounted = now;
+                ofy().save().entity(shard).now();
+            }
+        });
+        seeded.add(name);
+        recounted.put(name, now);
+    }
+
+    /**
+     * Makes the next read recount, for writes whose effect on the totals is not known.
+     */
+    void expire(final String name){
+        ofy().transactNew(new VoidWork() {
+            @Override
+            public void vrun() {
+                CounterShard shard = ofy().load().key(Key.create(CounterShard.class, CounterShard.id(name, 0))).now();
+                if(shard == null || shard.recounted == 0) return;
+                shard.recounted = 0;
+                ofy().save().entity(shard).now();
+            }
+        });
+        recounted.remove(name);
+    }
+
+    void seed(String name, long count){
+        seed(name, count, 0);
+    }
+
+    /**
+     * Initializes a counter, does nothing if it was already seeded.
+     * @param count current number of objects, or of values for a field.
+     * @param sum current sum of the values, 0 for object counts.
+     */
+    void seed(final String name, final long count, final double sum){
+        ofy().transactNew(new VoidWork() {
+            @Override
+            public void vrun() {
+                Key<CounterShard> key = Key.create(CounterShard.class, CounterShard.id(name, 0));
+                if(ofy().load().key(key).now() != null) return;
+
+                CounterShard shard = new CounterShard(name, 0);
+                shard.count = count;
+                shard.sum = sum;
+                shard.recounted = System.currentTimeMillis();
+                ofy().save().entity(shard).now();
+            }
+        });
+        seeded.add(name);
+    }
+
+    void add(String name, long delta){
+        add(name, delta, 0);
+    }
+
+    void add(final String name, final long delta, final double sumDelta){
+        if(delta == 0 && sumDelta == 0) return;
+        final int index = random.nextInt(SHARDS);
+        ofy().transactNew(new VoidWork() {
+            @Override
+            public void vrun() {
+                CounterShard shard = ofy().load().key(Key.create(CounterShard.class, CounterShard.id(name, index))).now();
+                if(shard == null) shard = new CounterShard(name, index);
+                shard.count += delta;
+                shard.sum += sumDelta;
+                ofy().save().entity(shard).now();
+            }
+        });
+    }
+
+    private static List<Key<CounterShard>> keys(String name){
+        List<Key<CounterShard>> keys = new ArrayList<Key<CounterShard>>(SHARDS);
+        for(int i = 0; i < SHARDS; i++){
+            keys.add(Key.create(CounterShard.class, CounterShard.id(name, i)));
+        }
+        return keys;
+    }
+}
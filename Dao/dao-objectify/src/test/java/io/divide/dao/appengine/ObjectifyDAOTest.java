@@ -18,19 +18,36 @@ package io.divide.dao.appengine;
 
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.annotation.Entity;
-import io.divide.dao.DAOTest;
+import io.divide.dao.IndexDefinition;
+import io.divide.dao.ServerDAOTest;
 import io.divide.dao.Keyable;
+import io.divide.dao.TestObject1;
+import io.divide.dao.TestObject2;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.*;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.divide.dao.appengine.OfyService.ofy;
+import static org.junit.Assert.*;
 
-public class ObjectifyDAOTest extends DAOTest<ObjectifyDAOTest.KeyedOfyObject> {
+public class ObjectifyDAOTest extends ServerDAOTest<ObjectifyDAOTest.KeyedOfyObject> {
+
+    private static final int ENTITY_GROUPS_PER_RPC = 10; // sdk default of datastore.maxEntityGroupsPerRpc
 
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
@@ -64,6 +81,135 @@ public class ObjectifyDAOTest extends DAOTest<ObjectifyDAOTest.KeyedOfyObject> {
         super.tearDown();
     }
 
+    @Test
+    public void testBatchSaveDelete() throws Exception {
+        int size = ObjectifyDAO.BATCH_SIZE * 2 + 1; // spans several batches
+        // the sdk splits every batch into rpcs of at most ENTITY_GROUPS_PER_RPC root entities
+        int rpcs = 2 * (ObjectifyDAO.BATCH_SIZE / ENTITY_GROUPS_PER_RPC) + 1;
+        String table = Query.safeTable(TestObject1.class);
+        TestObject1[] batched = new TestObject1[size];
+        for(int i = 0; i < size; i++){
+            batched[i] = new TestObject1("key1", String.valueOf(i));
+        }
+        dao.count(table); // seeds the counter up front, so it only adds one put per write below
+
+        DatastoreCalls calls = DatastoreCalls.install();
+        try {
+            dao.save(batched);
+            assertEquals("batched puts plus the counter", rpcs + 1, calls.count("Put"));
+            assertEquals(size, dao.count(table));
+
+            calls.reset();
+            dao.delete(batched);
+            assertEquals("batched deletes", rpcs, calls.count("Delete"));
+        } finally {
+            calls.uninstall();
+        }
+        assertEquals(0, dao.count(table));
+        assertFalse(dao.exists(batched[0]));
+        assertFalse(dao.exists(batched[size - 1]));
+    }
+
+    @Test
+    public void testRecount() throws Exception {
+        String table = Query.safeTable(TestObject1.class);
+        dao.save(new TestObject1("key1", "a"), new TestObject1("key1", "b"));
+        assertEquals(2, dao.count(table));
+
+        // written around the dao, the counter only catches up on its next recount
+        ofy().save().entities(BackendToOfy.getOfy(new TestObject1("key1", "c"))).now();
+        assertEquals(2, dao.count(table));
+
+        ((ObjectifyDAO) dao).setRecountInterval(0);
+        assertEquals(3, dao.count(table));
+        dao.save(new TestObject1("key1", "d"));
+        assertEquals(4, dao.count(table));
+    }
+
+    @Test
+    public void testKeptSums() throws Exception {
+        ObjectifyDAO ofyDao = (ObjectifyDAO) dao;
+        ofyDao.index(IndexDefinition.userData(TestObject2.class, "score", IndexDefinition.Kind.RANGE));
+        TestObject2 a = scored(1);
+        TestObject2 b = scored(4);
+        dao.save(a, b);
+        assertEquals(Double.valueOf(5.0), aggregate(SelectOperation.SUM));
+
+        a.put("score", 10);
+        TestObject2 c = scored(2);
+        dao.save(a, c);
+        assertEquals(Double.valueOf(16.0), aggregate(SelectOperation.SUM));
+        dao.delete(b);
+        assertEquals(Double.valueOf(6.0), aggregate(SelectOperation.AVG));
+        ofyDao.patch(new Patch(c).increment("score", 3));
+        dao.query(new QueryBuilder().update().from(TestObject2.class).increment("score", 1).where("score", OPERAND.GREATER_THAN, 6).build());
+        assertEquals(Double.valueOf(16.0), aggregate(SelectOperation.SUM));
+
+        // deleted around the dao, the kept sum only catches up on its next recount
+        ofy().delete().key(Key.create(OfyObject.class, c.getObjectKey())).now();
+        assertEquals(Double.valueOf(16.0), aggregate(SelectOperation.SUM));
+        ofyDao.setRecountInterval(0);
+        assertEquals(Double.valueOf(11.0), aggregate(SelectOperation.SUM));
+    }
+
+    private static TestObject2 scored(int score){
+        TestObject2 o = new TestObject2();
+        o.put("score", score);
+        return o;
+    }
+
+    private Double aggregate(SelectOperation select) throws Exception {
+        List<TransientObject> results = dao.query(new QueryBuilder().select(select, "score").from(TestObject2.class).build());
+        assertEquals(1, results.size());
+        return ((Aggregate) results.get(0)).getValue();
+    }
+
+    /*
+     * Counts datastore rpcs by method name, wraps the delegate the test helper installed.
+     */
+    private static class DatastoreCalls implements InvocationHandler {
+        private final ApiProxy.Delegate delegate;
+        private final ConcurrentMap<String,AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private DatastoreCalls(ApiProxy.Delegate delegate){
+            this.delegate = delegate;
+        }
+
+        static DatastoreCalls install(){
+            DatastoreCalls calls = new DatastoreCalls(ApiProxy.getDelegate());
+            ApiProxy.setDelegate((ApiProxy.Delegate) Proxy.newProxyInstance(ApiProxy.Delegate.class.getClassLoader(),
+                    new Class[]{ ApiProxy.Delegate.class }, calls));
+            return calls;
+        }
+
+        void uninstall(){
+            ApiProxy.setDelegate(delegate);
+        }
+
+        int count(String method){
+            AtomicInteger count = counts.get(method);
+            return (count == null) ? 0 : count.get();
+        }
+
+        void reset(){
+            counts.clear();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if(method.getName().startsWith("make") && "datastore_v3".equals(args[1])){
+                AtomicInteger fresh = new AtomicInteger();
+                AtomicInteger count = counts.putIfAbsent((String) args[2], fresh);
+                ((count == null) ? fresh : count).incrementAndGet();
+            }
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
     @Entity
     public static class KeyedOfyObject extends OfyObject implements Keyable{
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao.orientdb;
+
+import io.divide.dao.IndexDefinition;
+import io.divide.shared.transitory.query.Expression;
+import io.divide.shared.transitory.query.Literal;
+import io.divide.shared.transitory.query.OPERAND;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Picks the indexed copy a predicate is answered from. The string copy answers equality and IN
+ * against strings, integers and booleans, and string ranges for RANGE indexes. RANGE indexes also
+ * keep a numeric copy of number values, which answers numeric ranges; 1.6 only scans an index
+ * range for a single comparison or BETWEEN, two comparisons on the same field are not combined.
+ */
+class IndexPlanner implements Expression.Planner {
+
+    private final Map<String,IndexDefinition> indexes = new HashMap<String, IndexDefinition>();
+
+    IndexPlanner(Collection<IndexDefinition> indexes){
+        for(IndexDefinition index : indexes){
+            this.indexes.put(index.getPath(), index);
+        }
+    }
+
+    @Override
+    public String field(Expression predicate) {
+        IndexDefinition index = indexes.get(predicate.getField());
+        if(index == null || predicate.getOperand() == OPERAND.CONTAINS) return null;
+
+        boolean range = index.getKind() == IndexDefinition.Kind.RANGE;
+        Literal.Type type = type(predicate);
+        if(range && (type == Literal.Type.LONG || type == Literal.Type.DOUBLE))
+            return ODocumentWrapper.numericIndexField(index.getPath());
+
+        boolean equality = predicate.getOperand() == OPERAND.EQ || predicate.getOperand() == OPERAND.IN;
+        if(equality && type != null && type != Literal.Type.DOUBLE) return ODocumentWrapper.indexField(index.getPath());
+        if(range && type == Literal.Type.STRING) return ODocumentWrapper.indexField(index.getPath());
+        return null;
+    }
+
+    /**
+     * Only RANGE indexes answer the keyset condition of a continuation, from the copy matching the
+     * type of its value. The first page is read from the field itself, which orders by type.
+     * @param path meta_data/user_data path ordered by.
+     * @param after value of the continuation, null for the first page.
+     * @return the copy of path to order by, null to order by path itself.
+     */
+    String orderedCopyOf(String path, Literal after){
+        IndexDefinition index = indexes.get(path);
+        if(index == null || index.getKind() != IndexDefinition.Kind.RANGE || after == null) return null;
+        if(after.isNumeric()) return ODocumentWrapper.numericIndexField(path);
+        if(after.getType() == Literal.Type.STRING) return ODocumentWrapper.indexField(path);
+        return null;
+    }
+
+    /**
+     * @return true if a predicate of filter is answered from an index, documents then come back in index order.
+     */
+    boolean usesIndex(Expression filter){
+        if(filter == null) return false;
+        for(Expression predicate : filter.getPredicates()){
+            if(field(predicate) != null) return true;
+        }
+        return false;
+    }
+
+    // common type of the values, integers count as numbers next to doubles, null if mixed
+    private static Literal.Type type(Expression predicate){
+        Literal.Type type = null;
+        for(Literal literal : predicate.getValues()){
+            Literal.Type t = literal.getType();
+            if(type == null) type = t;
+            else if(type != t){
+                if(literal.isNumeric() && (type == Literal.Type.LONG || type == Literal.Type.DOUBLE)) type = Literal.Type.DOUBLE;
+                else return null;
+            }
+        }
+        return type;
+    }
+}
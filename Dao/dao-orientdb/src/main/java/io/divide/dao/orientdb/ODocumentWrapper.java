@@ -16,8 +16,12 @@
 
 package io.divide.dao.orientdb;
 
+import io.divide.dao.IndexDefinition;
 import io.divide.shared.util.ReflectionUtils;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Query;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.index.OIndexFactory;
 import com.orientechnologies.orient.core.index.OIndexes;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
@@ -25,8 +29,13 @@ import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 
 import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -35,6 +44,8 @@ import static io.divide.dao.orientdb.OIndexHighLander.ID;
 public class ODocumentWrapper extends ODocument {
 
     public static final String indexAttribute = "index";
+    // random sort key, sampling seeks to a random point of its index. assigned when the document is inserted
+    public static final String randomAttribute = "random_key";
 
     protected ODocumentWrapper(){
         this.setAllowChainedAccess(true);
@@ -69,20 +80,13 @@ public class ODocumentWrapper extends ODocument {
             throw new RuntimeException("Unable to create OrientDBWrapper");
         }
 
-        if(getDatabase().getClusterIdByName(className) == -1){
-            OClass object = getDatabase().getMetadata().getSchema().getOrCreateClass(className);
-            object.createProperty(indexAttribute, OType.STRING)
-                    .setMandatory(true)
-                    .setNotNull(true)
-                    .setReadonly(true);
-            object.createIndex(className, ID, indexAttribute);
-            getDatabase().getMetadata().getSchema().save();
-        }
+        createClass(className);
 
         Map user = b.getUserData();
         Map meta = b.getMetaData();
 
         field(indexAttribute, b.getObjectKey(), OType.STRING);
+        field(randomAttribute, Math.random(), OType.DOUBLE);
         field("user_data", user);
         field("meta_data", meta);
         super.setClassNameIfExists(className);
@@ -90,15 +94,159 @@ public class ODocumentWrapper extends ODocument {
         System.out.println("DB: " + getDatabase().getName() + " : " + this.getClassName() + " : " + getDatabase().getClusterIdByName(className));
     }
 
+    // threads saving the first objects of a type concurrently must not both create its class
+    private static synchronized void createClass(String className){
+        ODatabaseRecord db = ODatabaseRecordThreadLocal.INSTANCE.get();
+        if(db.getClusterIdByName(className) != -1) return;
+        OClass object = db.getMetadata().getSchema().getOrCreateClass(className);
+        object.createProperty(indexAttribute, OType.STRING)
+                .setMandatory(true)
+                .setNotNull(true)
+                .setReadonly(true);
+        object.createIndex(className, ID, indexAttribute);
+        object.createProperty(randomAttribute, OType.DOUBLE);
+        object.createIndex(randomIndex(className), OClass.INDEX_TYPE.NOTUNIQUE, randomAttribute);
+        db.getMetadata().getSchema().save();
+    }
+
     public String getKey(){
         return field("meta_data." + TransientObject.OBJECT_KEY);
     }
 
+    /**
+     * Copies the indexed meta_data/user_data fields into top level fields, see {@link #indexField(String)}.
+     * Numbers of {@link IndexDefinition.Kind#RANGE} fields are copied to {@link #numericIndexField(String)} too.
+     * @param indexes indexes declared for the type of this document.
+     * @return this wrapper.
+     */
+    public ODocumentWrapper setIndexed(Collection<IndexDefinition> indexes){
+        for(IndexDefinition index : indexes){
+            setIndexed(this, index);
+        }
+        return this;
+    }
+
+    /**
+     * Copies that no longer have a value behind them are removed.
+     * @return true if doc was missing an indexed copy of the field of index.
+     */
+    static boolean setIndexed(ODocument doc, IndexDefinition index){
+        Object value = doc.field(index.getPath());
+        String field = indexField(index.getPath());
+        String numeric = numericIndexField(index.getPath());
+        if(value == null){
+            if(doc.containsField(field)) doc.removeField(field);
+            if(doc.containsField(numeric)) doc.removeField(numeric);
+            return false;
+        }
+
+        boolean changed = false;
+        if(doc.field(field) == null) changed = true;
+        doc.field(field, String.valueOf(value), OType.STRING);
+        if(index.getKind() == IndexDefinition.Kind.RANGE && value instanceof Number){
+            if(doc.field(numeric) == null) changed = true;
+            doc.field(numeric, ((Number) value).doubleValue(), OType.DOUBLE);
+        } else if(doc.containsField(numeric)){
+            doc.removeField(numeric);
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the user and meta data of a stored document with those of object, keeping the record.
+     * The object key and random key are left alone, so their index entries are not touched.
+     * @param indexes indexes declared for the type of the object.
+     */
+    static void update(ODocument doc, TransientObject object, Collection<IndexDefinition> indexes){
+        doc.field(TransientObject.USER_DATA, object.getUserData());
+        doc.field(TransientObject.META_DATA, object.getMetaData());
+        doc.setDirty(); // maps read from doc itself compare equal to what they replace
+        for(IndexDefinition index : indexes) setIndexed(doc, index);
+    }
+
+    /**
+     * @return name of the index over the random key of the objects of className.
+     */
+    public static String randomIndex(String className){
+        return className + "." + randomAttribute;
+    }
+
+    /**
+     * @param path meta_data/user_data path of an indexed value.
+     * @return name of the top level field holding the indexed copy of the value.
+     */
+    public static String indexField(String path){
+        return "idx_" + path.replace('.', '_');
+    }
+
+    /**
+     * @param path meta_data/user_data path of a {@link IndexDefinition.Kind#RANGE} indexed value.
+     * @return name of the top level field holding the copy of number values, as doubles.
+     */
+    public static String numericIndexField(String path){
+        return "idxn_" + path.replace('.', '_');
+    }
+
     public static <B extends TransientObject> B toObject(ODocument doc, Class<B> type){
         ODocumentWrapper w = new ODocumentWrapper(doc);
         return w.toObject(type);
     }
 
+    /**
+     * @param row row of a projection query, see {@link Query#getProjectionSQL()}.
+     * @param objectType type the query was run against.
+     * @param fields selected fields.
+     * @return partial object holding the selected fields.
+     */
+    public static TransientObject toPartial(ODocument row, String objectType, List<String> fields){
+        try {
+            Constructor<TransientObject> constructor = TransientObject.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            TransientObject b = constructor.newInstance();
+
+            Map<String,Object> user_data = new LinkedHashMap<String, Object>();
+            for(String field : fields){
+                Object value = row.field(field);
+                if(value != null) user_data.put(field, detach(value));
+            }
+            Map<String,String> meta_data = new LinkedHashMap<String, String>();
+            meta_data.put(TransientObject.OBJECT_KEY.KEY, row.<String>field(Query.PROJECTED_KEY));
+            meta_data.put(TransientObject.OBJECT_TYPE_KEY.KEY, objectType);
+
+            ReflectionUtils.setObjectField(b, TransientObject.USER_DATA, user_data);
+            ReflectionUtils.setObjectField(b, TransientObject.META_DATA, meta_data);
+            b.retainFields(fields);
+            return b;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /*
+     * Copies embedded maps and collections into plain ones, the tracked ones read through the
+     * database handle which goes back to the pool once the operation is done.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T detach(T value){
+        if(value instanceof Map){
+            Map<Object,Object> copy = new LinkedHashMap<Object, Object>();
+            for(Map.Entry<?,?> e : ((Map<?,?>) value).entrySet()) copy.put(e.getKey(), detach(e.getValue()));
+            return (T) copy;
+        }
+        if(value instanceof Set){
+            Set<Object> copy = new LinkedHashSet<Object>();
+            for(Object o : (Set<?>) value) copy.add(detach(o));
+            return (T) copy;
+        }
+        if(value instanceof Collection){
+            List<Object> copy = new ArrayList<Object>();
+            for(Object o : (Collection<?>) value) copy.add(detach(o));
+            return (T) copy;
+        }
+        return value;
+    }
+
     public <B extends TransientObject> B toObject(Class<B> type){
         try {
             Constructor<B> constructor = type.getDeclaredConstructor();
@@ -110,8 +258,8 @@ public class ODocumentWrapper extends ODocument {
             user_data.clear();
             meta_data.clear();
 
-            ReflectionUtils.setObjectField(b,TransientObject.USER_DATA,field(TransientObject.USER_DATA));
-            ReflectionUtils.setObjectField(b, TransientObject.META_DATA, field(TransientObject.META_DATA));
+            ReflectionUtils.setObjectField(b,TransientObject.USER_DATA,detach(field(TransientObject.USER_DATA)));
+            ReflectionUtils.setObjectField(b, TransientObject.META_DATA, detach(field(TransientObject.META_DATA)));
 
             return b;
         } catch (Exception e) {
@@ -21,6 +21,10 @@ import com.orientechnologies.orient.core.index.OIndexDictionary;
 import com.orientechnologies.orient.core.index.OIndexEngine;
 import com.orientechnologies.orient.core.index.OIndexOneValue;
 
+/*
+ * Object key index that keeps the newest record of a key. OrientDBDao updates stored objects in
+ * place, so replacing a previous record only happens when two inserts of a new key race.
+ */
 public class OIndexHighLander extends OIndexDictionary {
 
     public static String ID = "HIGHLANDER_INDEX";
@@ -36,7 +40,7 @@ public class OIndexHighLander extends OIndexDictionary {
 
             final OIdentifiable value = super.get(iKey);
 
-            if (value != null){
+            if (value != null && !value.getIdentity().equals(iSingleValue.getIdentity())){
                 // DELETE THE PREVIOUS INDEXED RECORD
                 value.getRecord().delete();
             }
@@ -16,14 +16,31 @@
 
 package io.divide.dao.orientdb;
 
+import io.divide.dao.IndexDefinition;
+import io.divide.dao.IndexRegistry;
 import io.divide.dao.ServerDAO;
+import io.divide.shared.transitory.Credentials;
 import io.divide.shared.transitory.TransientObject;
-import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Aggregation;
+import io.divide.shared.transitory.query.Continuation;
+import io.divide.shared.transitory.query.Expression;
+import io.divide.shared.transitory.query.Literal;
+import io.divide.shared.transitory.query.Order;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
 import io.divide.shared.transitory.query.QueryBuilder;
+import io.divide.shared.transitory.query.Update;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentPool;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OConcurrentModificationException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.sql.OCommandSQL;
 import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
@@ -32,168 +49,1044 @@ import com.orientechnologies.orient.core.tx.OTransaction;
 import java.security.KeyPair;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class OrientDBDao implements ServerDAO {
 
     public static final String DEFAULT_CONFIG = "memory:default";
+    public static final int DEFAULT_POOL_SIZE = 32;
+    public static final String DEFAULT_USER = "admin";
+    public static final String DEFAULT_PASSWORD = "admin";
 
-    ODatabaseDocument db;
+    // handles are taken from the pool for one operation and returned afterwards, nested calls share it
+    private final ODatabaseDocumentPool pool;
+    private final String url;
+    private final String user;
+    private final ThreadLocal<Handle> handles = new ThreadLocal<Handle>();
+
+    // saves and deletes of the same key are serialized, so inserts are told apart from updates reliably
+    // and counts are exact for writes through this dao. Writes from another process sharing the storage
+    // are not seen until the counts are seeded again, on the next start.
+    private static final int KEY_LOCKS = 64;
+    private final ReentrantLock[] keyLocks = new ReentrantLock[KEY_LOCKS];
+
+    private final IndexRegistry indexes = new IndexRegistry();
+
+    private static final int MAX_TEMPLATES = 1024;
+    static final int PAGE_SIZE = 500;
+    static final int PATCH_RETRIES = 10;
+    static final int SAVE_RETRIES = 10;
+    private final ConcurrentMap<String,String> templates = new ConcurrentHashMap<String, String>();
+
+    // per type object counts, seeded from the database and maintained on save/delete
+    private final ConcurrentMap<String,AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
 
     public OrientDBDao(){
-        this.db = new ODatabaseDocumentTx(DEFAULT_CONFIG);
-        if(this.db.exists()){
-            db.open("admin","admin");
-        } else {
+        this(DEFAULT_CONFIG, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param url database url, memory: or plocal: on disk. Created if it does not exist.
+     * @param poolSize max number of handles, operations beyond it wait for a handle to be returned.
+     */
+    public OrientDBDao(String url, int poolSize){
+        this(url, DEFAULT_USER, DEFAULT_PASSWORD, poolSize);
+    }
+
+    /**
+     * @param url database url, memory: or plocal: on disk. Created if it does not exist.
+     * @param user database user handles are opened with.
+     * @param password password of that user.
+     * @param poolSize max number of handles, operations beyond it wait for a handle to be returned.
+     */
+    public OrientDBDao(String url, String user, String password, int poolSize){
+        ODatabaseRecord previous = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+        ODatabaseDocument db = new ODatabaseDocumentTx(url); // selects itself for the calling thread
+        if(!db.exists()){
             db.create();
+            db.close();
+        }
+        if(previous != null) ODatabaseRecordThreadLocal.INSTANCE.set(previous);
+        for(int i = 0; i < KEY_LOCKS; i++) keyLocks[i] = new ReentrantLock();
+        this.url = url;
+        this.user = user;
+        this.pool = new ODatabaseDocumentPool(url, user, password);
+        this.pool.setup(1, poolSize);
+        indexCredentials();
+        seedCounts();
+    }
+
+    /*
+     * Takes a handle from the pool for the calling thread, or joins the one an enclosing operation
+     * holds. Every open() is paired with a release() in a finally block.
+     */
+    private void open(){
+        Handle handle = handles.get();
+        if(handle == null){
+            ODatabaseRecord previous = ODatabaseRecordThreadLocal.INSTANCE.getIfDefined();
+            handle = new Handle(pool.acquire(), previous);
+            handles.set(handle);
+        }
+        handle.depth++;
+        ODatabaseRecordThreadLocal.INSTANCE.set(handle.db);
+    }
+
+    /*
+     * Returns the handle to the pool once the outermost operation is done, and gives the thread
+     * back whatever database it had selected before.
+     */
+    private void release(){
+        Handle handle = handles.get();
+        if(--handle.depth > 0) return;
+
+        handles.remove();
+        handle.db.close(); // pooled handles go back to the pool on close
+        if(handle.previous != null){
+            ODatabaseRecordThreadLocal.INSTANCE.set(handle.previous);
+        } else {
+            ODatabaseRecordThreadLocal.INSTANCE.remove();
+        }
+    }
+
+    /*
+     * Handle of the operation running on the calling thread.
+     */
+    ODatabaseDocument db(){
+        Handle handle = handles.get();
+        if(handle == null) throw new IllegalStateException("no database handle open on this thread");
+        return handle.db;
+    }
+
+    private static final class Handle {
+        final ODatabaseDocument db;
+        final ODatabaseRecord previous;
+        int depth;
+
+        Handle(ODatabaseDocument db, ODatabaseRecord previous){
+            this.db = db;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * Closes every pooled handle, the dao can not be used afterwards.
+     */
+    public void close(){
+        pool.remove(url, user); // leaves no pool behind for the storage to walk when it is dropped
+        pool.close();
+    }
+
+    /*
+     * Locks the stripes of every object key, always in the same order so concurrent callers can not deadlock.
+     */
+    private List<ReentrantLock> lock(TransientObject... objects){
+        Set<Integer> stripes = new TreeSet<Integer>();
+        for(TransientObject t : objects){
+            stripes.add((t.getObjectType() + t.getObjectKey()).hashCode() & (KEY_LOCKS - 1));
+        }
+        List<ReentrantLock> locked = new ArrayList<ReentrantLock>(stripes.size());
+        for(Integer stripe : stripes){
+            keyLocks[stripe].lock();
+            locked.add(keyLocks[stripe]);
+        }
+        return locked;
+    }
+
+    private static void unlock(List<ReentrantLock> locked){
+        for(ReentrantLock lock : locked) lock.unlock();
+    }
+
+    private void seedCounts(){
+        open();
+        try {
+            for(OClass oClass : db().getMetadata().getSchema().getClasses()){
+                counter(oClass.getName());
+            }
+        } finally {
+            release();
+        }
+    }
+
+    private AtomicLong counter(String objectType){
+        AtomicLong count = counts.get(objectType);
+        if(count == null){
+            AtomicLong seeded = new AtomicLong(countClass(objectType));
+            count = counts.putIfAbsent(objectType, seeded);
+            if(count == null) count = seeded;
+        }
+        return count;
+    }
+
+    private void adjustCount(String objectType, long delta){
+        AtomicLong count = counts.get(objectType);
+        if(count == null){
+            counter(objectType); // not counted yet, seeding already includes this write
+        } else {
+            count.addAndGet(delta);
+        }
+    }
+
+    private long countClass(String objectType){
+        try {
+            return db().countClass(objectType);
+        }catch (java.lang.IllegalArgumentException e){
+            return 0;
+        }
+    }
+
+    // every authenticated request looks credentials up by one of these
+    private void indexCredentials(){
+        index(IndexDefinition.metaData(Credentials.class, Credentials.EMAIL_KEY, IndexDefinition.Kind.HASH),
+              IndexDefinition.metaData(Credentials.class, Credentials.AUTH_TOKEN_KEY, IndexDefinition.Kind.HASH),
+              IndexDefinition.metaData(Credentials.class, Credentials.RECOVERY_TOKEN_KEY, IndexDefinition.Kind.HASH),
+              IndexDefinition.metaData(Credentials.class, TransientObject.OWNER_ID_KEY, IndexDefinition.Kind.HASH));
+    }
+
+    /**
+     * Saved objects carry an indexed copy of each declared field and equality queries against
+     * it are answered from the index. Nested map values can not be indexed directly, so the
+     * copy is stored as a string in a top level field, see {@link ODocumentWrapper#indexField(String)}.
+     * RANGE indexes also keep numbers as doubles, numeric range queries are answered from those.
+     */
+    @Override
+    public void index(IndexDefinition... indexes){
+        this.indexes.add(indexes);
+    }
+
+    /*
+     * Makes sure every declared index of objectType exists and returns the planner picking
+     * between them, or null if the type has no indexes (yet).
+     */
+    IndexPlanner planner(String objectType){
+        if(!indexes.hasIndexes(objectType)) return null;
+        open();
+        try {
+            OClass oClass = db().getMetadata().getSchema().getClass(objectType);
+            if(oClass == null) return null;
+
+            for(IndexDefinition index : indexes.get(objectType)){
+                String field = (index.getKind() == IndexDefinition.Kind.RANGE) ?
+                        ODocumentWrapper.numericIndexField(index.getPath()) :
+                        ODocumentWrapper.indexField(index.getPath());
+                if(oClass.getClassIndex(indexName(objectType, field)) == null){
+                    createIndex(oClass, index);
+                }
+            }
+            return new IndexPlanner(indexes.get(objectType));
+        } finally {
+            release();
         }
     }
 
-    public OrientDBDao(ODatabaseDocument db){
-        this.db = db;
+    private synchronized void createIndex(OClass oClass, IndexDefinition index){
+        boolean range = index.getKind() == IndexDefinition.Kind.RANGE;
+        String field = ODocumentWrapper.indexField(index.getPath());
+        String numeric = ODocumentWrapper.numericIndexField(index.getPath());
+        if(oClass.getClassIndex(indexName(oClass.getName(), range ? numeric : field)) != null) return;
+
+        // objects saved before the index was declared do not carry the indexed copies yet
+        for(ODocument doc : db().browseClass(oClass.getName())){
+            if(ODocumentWrapper.setIndexed(doc, index)) doc.save();
+        }
+
+        // uniqueness is checked on save, a unique index would clash with the highlander replace
+        OClass.INDEX_TYPE type = range ? OClass.INDEX_TYPE.NOTUNIQUE : OClass.INDEX_TYPE.NOTUNIQUE_HASH_INDEX;
+        if(!oClass.existsProperty(field)) oClass.createProperty(field, OType.STRING);
+        if(oClass.getClassIndex(indexName(oClass.getName(), field)) == null)
+            oClass.createIndex(indexName(oClass.getName(), field), type, field);
+        if(range){
+            if(!oClass.existsProperty(numeric)) oClass.createProperty(numeric, OType.DOUBLE);
+            oClass.createIndex(indexName(oClass.getName(), numeric), type, numeric);
+        }
+        db().getMetadata().getSchema().save();
     }
 
-    private void checkDb(){
-        ODatabaseRecordThreadLocal.INSTANCE.set(db);
+    private static String indexName(String objectType, String field){
+        return objectType + "." + field;
+    }
+
+    private void checkUnique(TransientObject object){
+        for(IndexDefinition index : indexes.get(object.getObjectType())){
+            if(index.getKind() != IndexDefinition.Kind.UNIQUE) continue;
+            Object value = index.valueOf(object);
+            if(value == null) continue;
+
+            String field = ODocumentWrapper.indexField(index.getPath());
+            List<ODocument> found = db().query(new OSQLSynchQuery<ODocument>(
+                    "SELECT FROM " + object.getObjectType() + " WHERE " + field + " = ? AND " + ODocumentWrapper.indexAttribute + " <> ?"),
+                    String.valueOf(value), object.getObjectKey());
+            if(!found.isEmpty()){
+                throw new DAOException(409, index.getPath() + " must be unique: " + value);
+            }
+        }
+    }
+
+    /*
+     * Parameterized sql per query shape (action, from, select, clause fields/operands, limit),
+     * queries of the same shape share one text and only bind different values.
+     */
+    String template(Query query, IndexPlanner planner){
+        String shape = shape(query, planner);
+        String sql = templates.get(shape);
+        if(sql == null){
+            sql = query.getPlannedSQL(planner);
+            if(templates.size() >= MAX_TEMPLATES) templates.clear(); // shapes come from clients, keep it bounded
+            templates.put(shape, sql);
+        }
+        return sql;
+    }
+
+    private static String shape(Query query, IndexPlanner planner){
+        StringBuilder sb = new StringBuilder();
+        sb.append(query.getAction()).append('|')
+          .append(query.getFrom()).append('|')
+          .append(query.getSelect()).append('|')
+          .append(query.getAggregate()).append('|')
+          .append(query.getGroupBy()).append('|')
+          .append(query.getFields()).append('|')
+          .append(query.getLimit());
+        Expression filter = query.getFilter();
+        if(filter != null){
+            sb.append('|').append(filter.getShape());
+            for(Expression predicate : filter.getPredicates()){
+                sb.append('|').append(planner == null ? null : planner.field(predicate));
+            }
+        }
+        return sb.toString();
     }
 
     @Override
     public List<TransientObject> query(Query query) throws DAOException {
-        checkDb();
+        try{
+            query.checkFields();
+            query.getContinuation();
+        } catch (IllegalArgumentException e){
+            throw new DAOException(400, e.getMessage());
+        }
+        if(query.getSelect() != null && query.getSelect().requiresField() && query.getAggregate() == null){
+            throw new DAOException(400, query.getSelect() + " requires a field");
+        }
+        if(query.getAction().equals(QueryBuilder.QueryAction.UPDATE) && query.getUpdates().isEmpty()){
+            throw new DAOException(400, "update without assignments");
+        }
+        open();
+        try {
+            if(!hasClass(query.getFrom())) return nothingMatched(query);
+            if(query.getAction().equals(QueryBuilder.QueryAction.UPDATE)) return update(query);
+            return run(query);
+        } finally {
+            release();
+        }
+    }
+
+    // the class of a type is created by its first save, sql against a missing class fails to parse
+    private boolean hasClass(String objectType){
+        return db().getMetadata().getSchema().existsClass(objectType);
+    }
+
+    private static List<TransientObject> nothingMatched(Query query){
+        List<TransientObject> list = new ArrayList<TransientObject>(1);
+        if(!query.getAction().equals(QueryBuilder.QueryAction.SELECT)){
+            TransientObject o = new EmptyTO();
+            o.put("count",0);
+            list.add(o);
+        } else if(query.getSelect() != null && query.getGroupBy() == null){
+            list.add(Aggregation.result(query, null, 0, null));
+        }
+        return list;
+    }
+
+    private List<TransientObject> run(Query query) throws DAOException {
         List<TransientObject> list = new ArrayList<TransientObject>();
+        IndexPlanner planner = planner(query.getFrom());
 
-        OTransaction transaction = db.getTransaction();
+        OTransaction transaction = db().getTransaction();
         transaction.begin();
         try{
-            String q = query.getSQL();
+            String q = template(query, planner);
+            Object[] parameters = query.getParameters().toArray();
             System.out.println("OrientDB_Query: " + q);
 
+            if(query.getAction().equals(QueryBuilder.QueryAction.SELECT) && query.getRandom() != null && query.getSelect() == null){
+                for(ODocument w : sample(query, planner)){
+                    list.add(toObject(w, query.getFields()));
+                }
+            } else
+            if(query.getAction().equals(QueryBuilder.QueryAction.SELECT) && query.isOrdered() && query.getSelect() == null){
+                List<ODocument> objects;
+                if(query.getOrderBy() == null){
+                    objects = keyOrdered(query, planner);
+                } else {
+                    List<Object> orderedParameters = query.getParameters();
+                    objects = db().query(new OSQLSynchQuery<ODocument>(orderedSQL(query, planner, orderedParameters)), orderedParameters.toArray());
+                }
+                for(ODocument w : objects){
+                    list.add(toObject(w, query.getFields()));
+                }
+            } else
+            if(query.getAction().equals(QueryBuilder.QueryAction.SELECT) && query.getSelect() != null){
+                List<ODocument> rows = db().query(new OSQLSynchQuery<ODocument>(q), parameters);
+                for(ODocument row : rows){
+                    list.add(toAggregate(query, row));
+                }
+                if(list.isEmpty() && query.getGroupBy() == null){
+                    list.add(Aggregation.result(query, null, 0, null));
+                }
+            } else
             if(query.getAction().equals(QueryBuilder.QueryAction.SELECT)){
-                List<ODocument> objects = db.query(new OSQLSynchQuery<ODocument>(q));
+                List<ODocument> objects = db().query(new OSQLSynchQuery<ODocument>(q), parameters);
+                List<String> fields = query.getFields();
                     for(ODocument w : objects){
-                        list.add( new ODocumentWrapper(w).toObject(TransientObject.class));
+                        if(fields != null) list.add(ODocumentWrapper.toPartial(w, query.getFrom(), fields));
+                        else list.add( new ODocumentWrapper(w).toObject(TransientObject.class));
                     }
             }
             if(query.getAction().equals(QueryBuilder.QueryAction.DELETE)) {
-    //            List<ODocument> objects = db.command(new OCommandSQL("delete from io.divide.dao.TestObject1 RETURN BEFORE")).execute();
-                Integer objects = db.command(new OCommandSQL(q)).execute();
+    //            List<ODocument> objects = db().command(new OCommandSQL("delete from io.divide.dao.TestObject1 RETURN BEFORE")).execute();
+                Integer objects = db().command(new OCommandSQL(q)).execute(parameters);
+                adjustCount(query.getFrom(), -objects);
                 TransientObject o = new EmptyTO();
                 o.put("count",objects);
                 list.add(o);
                 System.out.println("Delete: " + objects);
             }
-
             transaction.commit();
             transaction.close();
+        }catch (DAOException e){
+            transaction.rollback();
+            transaction.close();
+            throw e;
         }catch (Exception e){
             transaction.rollback();
             transaction.close();
+            throw new DAOException(500, e);
         }
         return list;
     }
 
+    /*
+     * 1.6 can not SET or INCREMENT fields of the embedded user_data map, so matching documents are
+     * changed and saved in place instead, within one transaction. A transaction that lost against a
+     * concurrent write of the same records is rolled back and run again against the new versions,
+     * up to PATCH_RETRIES times.
+     */
+    private List<TransientObject> update(Query query) throws DAOException {
+        IndexPlanner planner = planner(query.getFrom());
+        Collection<IndexDefinition> indexes = this.indexes.get(query.getFrom());
+        Object[] parameters = (query.getFilter() == null) ? new Object[0] : query.getFilter().getParameters().toArray();
+        int limit = (query.getLimit() != null) ? query.getLimit() : Integer.MAX_VALUE;
+        String sql = pageSQL(query, planner, false, limit);
+
+        for(int attempt = 1; ; attempt++){
+            OTransaction transaction = db().getTransaction();
+            transaction.begin();
+            try{
+                List<ODocument> docs = db().query(new OSQLSynchQuery<ODocument>(sql), parameters);
+                for(ODocument doc : docs){
+                    if(attempt > 1) doc = db().load(doc.getIdentity(), null, true); // current version, not a cached one
+                    apply(doc, query.getUpdates(), indexes);
+                }
+                transaction.commit();
+                transaction.close();
+
+                TransientObject o = new EmptyTO();
+                o.put("count",docs.size());
+                List<TransientObject> list = new ArrayList<TransientObject>(1);
+                list.add(o);
+                return list;
+            }catch (OConcurrentModificationException e){
+                transaction.rollback();
+                transaction.close();
+                if(attempt == PATCH_RETRIES) throw new DAOException(409, e.getMessage());
+            }catch (DAOException e){
+                transaction.rollback();
+                transaction.close();
+                throw e;
+            }catch (RuntimeException e){
+                transaction.rollback();
+                transaction.close();
+                throw new DAOException(500, e);
+            }
+        }
+    }
+
+    /*
+     * Changes the stored document itself, the record keeps its identity and index entries of
+     * unchanged fields are left alone.
+     */
+    private TransientObject apply(ODocument doc, List<Update> updates, Collection<IndexDefinition> indexes) throws DAOException {
+        TransientObject object = ODocumentWrapper.toObject(doc, TransientObject.class);
+        try{
+            for(Update update : updates) update.applyTo(object);
+        } catch (IllegalArgumentException e){
+            throw new DAOException(400, e.getMessage());
+        }
+        checkUnique(object);
+
+        ODocumentWrapper.update(doc, object, indexes);
+        doc.save();
+        return object;
+    }
+
+    /*
+     * Converts a row of an aggregate query, see Query#getSQL(). Non numeric values are not aggregated.
+     */
+    private static TransientObject toAggregate(Query query, ODocument row){
+        Number count = row.field(Query.AGGREGATE_COUNT);
+        Object value = row.field(Query.AGGREGATE_VALUE);
+        return Aggregation.result(query,
+                row.field(Query.AGGREGATE_GROUP),
+                (count == null) ? 0 : count.longValue(),
+                (value instanceof Number) ? ((Number) value).doubleValue() : null);
+    }
+
+    /*
+     * Converts a whole document, stripped down to the selected fields of a projection. Ordered and
+     * sampled queries read whole documents, 1.6 orders the rows of a projection after projecting.
+     */
+    private static TransientObject toObject(ODocument doc, List<String> fields){
+        TransientObject object = ODocumentWrapper.toObject(doc, TransientObject.class);
+        if(fields != null) object.retainFields(fields);
+        return object;
+    }
+
+    /*
+     * Ordered by the field and then by object key, a continuation resumes right after the last
+     * object with a keyset condition instead of skipping the documents before it. Objects without
+     * the field are not part of an ordered query. Appends the keyset values to parameters.
+     */
+    static String orderedSQL(Query query, IndexPlanner planner, List<Object> parameters){
+        Continuation after = query.getContinuation();
+        boolean descending = query.getOrder() == Order.DESC;
+        String direction = descending ? " DESC" : " ASC";
+        String past = descending ? " < ?" : " > ?";
+        String key = ODocumentWrapper.indexAttribute;
+        String field = query.getOrderBy();
+        Literal value = (after == null) ? null : after.getValue();
+        String copy = (planner == null) ? null : planner.orderedCopyOf(field, value);
+        if(copy != null) field = copy;
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(query.getFrom()).append(" WHERE ");
+        String condition = query.getPlannedConditionSQL(planner);
+        if(condition.length() != 0) sql.append("(").append(condition).append(") AND ");
+        sql.append(field).append(" IS NOT NULL");
+        if(after != null){
+            sql.append(" AND (").append(field).append(past).append(" OR (").append(field).append(" = ? AND ").append(key).append(past).append("))");
+            boolean numeric = copy != null && value.isNumeric(); // the numeric copy holds doubles
+            Object typed = numeric ? ((Number) value.getValue()).doubleValue() : value.getValue();
+            parameters.add(typed);
+            parameters.add(typed);
+            parameters.add(after.getKey());
+        }
+        sql.append(" ORDER BY ").append(field).append(direction).append(", ").append(key).append(direction);
+        if(query.getLimit() != null) sql.append(" LIMIT ").append(query.getLimit());
+        return sql.toString();
+    }
+
+    /*
+     * Object key order straight from the key index, walked from the continuation. Where clauses
+     * are checked on batches of walked ids, so a page reads about limit entries however deep it is.
+     */
+    private List<ODocument> keyOrdered(final Query query, final IndexPlanner planner){
+        OIndex<?> index = keyIndex(query.getFrom());
+        if(index == null) return new ArrayList<ODocument>();
+
+        final int limit = (query.getLimit() != null) ? query.getLimit() : Integer.MAX_VALUE;
+        final boolean descending = query.getOrder() == Order.DESC;
+        final String condition = query.getPlannedConditionSQL(planner);
+        final List<ODocument> found = new ArrayList<ODocument>();
+        final List<OIdentifiable> batch = new ArrayList<OIdentifiable>();
+
+        class Walk implements OIndex.IndexValuesResultListener {
+            @Override
+            public boolean addResult(OIdentifiable value) {
+                batch.add(value);
+                if(batch.size() >= Math.min(limit - found.size(), PAGE_SIZE)) flush();
+                return found.size() < limit;
+            }
+
+            void flush(){
+                if(batch.isEmpty()) return;
+                Map<ORID,ODocument> matches = new HashMap<ORID, ODocument>();
+                if(condition.length() == 0){
+                    for(OIdentifiable id : batch) matches.put(id.getIdentity(), id.<ODocument>getRecord());
+                } else {
+                    StringBuilder ids = new StringBuilder();
+                    for(OIdentifiable id : batch) ids.append(ids.length() == 0 ? "" : ",").append(id.getIdentity());
+                    List<ODocument> docs = db().query(new OSQLSynchQuery<ODocument>(
+                            "SELECT FROM [" + ids + "] WHERE " + condition), query.getParameters().toArray());
+                    for(ODocument doc : docs) matches.put(doc.getIdentity(), doc);
+                }
+                for(OIdentifiable id : batch){
+                    ODocument doc = matches.get(id.getIdentity());
+                    if(doc != null && found.size() < limit) found.add(doc);
+                }
+                batch.clear();
+            }
+        }
+
+        Walk walk = new Walk();
+        Continuation after = query.getContinuation();
+        if(after == null){
+            Iterator<OIdentifiable> ids = descending ? index.valuesInverseIterator() : index.valuesIterator();
+            while(ids.hasNext() && walk.addResult(ids.next()));
+        } else if(descending){
+            index.getValuesMinor(after.getKey(), false, walk);
+        } else {
+            index.getValuesMajor(after.getKey(), false, walk);
+        }
+        walk.flush();
+        return found;
+    }
+
+    /*
+     * Reads limit documents starting at a random point of the random_key index, wrapping around
+     * to the start if the end is reached, so the cost does not depend on where the point is.
+     */
+    private List<ODocument> sample(Query query, IndexPlanner planner){
+        if(!randomIndexed(query.getFrom())) return new ArrayList<ODocument>();
+
+        int limit = (query.getLimit() != null) ? query.getLimit() : 1;
+        double point = Math.random();
+
+        List<ODocument> found = new ArrayList<ODocument>(limit);
+        if(query.getFilter() == null){
+            for(OIdentifiable id : sampleIds(query.getFrom(), point, limit)){
+                found.add(id.<ODocument>getRecord());
+            }
+            return found;
+        }
+
+        // 1.6 does not push the limit of an ordered range query into the index, so filtered
+        // samples read every match past the point
+        List<Object> parameters = query.getParameters();
+        parameters.add(point);
+        found.addAll(db().<List<ODocument>>query(new OSQLSynchQuery<ODocument>(sampleSQL(query, planner, ">=", limit)), parameters.toArray()));
+        if(found.size() < limit){
+            found.addAll(db().<List<ODocument>>query(new OSQLSynchQuery<ODocument>(sampleSQL(query, planner, "<", limit - found.size())), parameters.toArray()));
+        }
+        return found;
+    }
+
+    /*
+     * Walks the random_key index from point, wrapping around to its start, and stops after limit entries.
+     */
+    Collection<OIdentifiable> sampleIds(String objectType, double point, final int limit){
+        final Set<OIdentifiable> ids = new LinkedHashSet<OIdentifiable>(limit);
+        OIndex.IndexValuesResultListener collect = new OIndex.IndexValuesResultListener() {
+            @Override
+            public boolean addResult(OIdentifiable value) {
+                return ids.add(value) && ids.size() < limit; // stop when full or wrapped onto ourselves
+            }
+        };
+
+        open();
+        try {
+            OIndex<?> index = db().getMetadata().getIndexManager().getIndex(ODocumentWrapper.randomIndex(objectType));
+            index.getValuesMajor(point, true, collect);
+            if(ids.size() < limit){
+                index.getValuesMajor(0d, true, collect);
+            }
+        } finally {
+            release();
+        }
+        return ids;
+    }
+
+    static String sampleSQL(Query query, IndexPlanner planner, String comparison, int limit){
+        String condition = query.getPlannedConditionSQL(planner);
+        return "SELECT * FROM " + query.getFrom() + " WHERE " +
+               (condition.length() == 0 ? "" : "(" + condition + ") AND ") +
+               ODocumentWrapper.randomAttribute + " " + comparison + " ? ORDER BY " + ODocumentWrapper.randomAttribute +
+               " LIMIT " + limit;
+    }
+
+    /*
+     * Classes created before random keys were introduced get the index and keys on first use.
+     */
+    private synchronized boolean randomIndexed(String objectType){
+        OClass oClass = db().getMetadata().getSchema().getClass(objectType);
+        if(oClass == null) return false;
+        if(oClass.getClassIndex(ODocumentWrapper.randomIndex(objectType)) != null) return true;
+
+        for(ODocument doc : db().browseClass(objectType)){
+            if(doc.field(ODocumentWrapper.randomAttribute) != null) continue;
+            doc.field(ODocumentWrapper.randomAttribute, Math.random(), OType.DOUBLE);
+            doc.save();
+        }
+        if(oClass.getProperty(ODocumentWrapper.randomAttribute) == null)
+            oClass.createProperty(ODocumentWrapper.randomAttribute, OType.DOUBLE);
+        oClass.createIndex(ODocumentWrapper.randomIndex(objectType), OClass.INDEX_TYPE.NOTUNIQUE, ODocumentWrapper.randomAttribute);
+        db().getMetadata().getSchema().save();
+        return true;
+    }
+
+    /**
+     * Class scans return records in record id order, so matches are read a page at a time, each
+     * page resuming after the last record of the previous one. Queries answered from a declared
+     * index come back in index order instead; those are read in one go and only converted lazily.
+     */
+    @Override
+    public Iterator<TransientObject> stream(Query query) throws DAOException {
+        if(!query.getAction().equals(QueryBuilder.QueryAction.SELECT) || query.getSelect() != null || query.getRandom() != null || query.isOrdered())
+            return query(query).iterator();
+
+        try{
+            query.checkFields();
+        } catch (IllegalArgumentException e){
+            throw new DAOException(400, e.getMessage());
+        }
+        open();
+        try {
+            if(!hasClass(query.getFrom())) return Collections.<TransientObject>emptyList().iterator();
+            IndexPlanner planner = planner(query.getFrom());
+            if(planner != null && planner.usesIndex(query.getFilter()))
+                return new Cursor(query, planner, Integer.MAX_VALUE);
+            return new Cursor(query, planner, PAGE_SIZE);
+        } finally {
+            release();
+        }
+    }
+
+    static String pageSQL(Query query, IndexPlanner planner, boolean resume, int limit){
+        String condition = query.getPlannedConditionSQL(planner);
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(query.getFrom());
+        if(condition.length() != 0){
+            sql.append(" WHERE (").append(condition).append(")");
+            if(resume) sql.append(" AND @rid > ?");
+        } else if(resume){
+            sql.append(" WHERE @rid > ?");
+        }
+        if(limit != Integer.MAX_VALUE) sql.append(" LIMIT ").append(limit);
+        return sql.toString();
+    }
+
+    private class Cursor implements Iterator<TransientObject> {
+        private final Query query;
+        private final IndexPlanner planner;
+        private final int pageSize;
+        private Integer remaining;
+        private Iterator<TransientObject> page = Collections.<TransientObject>emptyList().iterator();
+        private ORID last;
+        private boolean done;
+
+        private Cursor(Query query, IndexPlanner planner, int pageSize){
+            this.query = query;
+            this.planner = planner;
+            this.pageSize = pageSize;
+            this.remaining = query.getLimit();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(!page.hasNext() && !done) fetch();
+            return page.hasNext();
+        }
+
+        @Override
+        public TransientObject next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            if(remaining != null) remaining--;
+            return page.next();
+        }
+
+        private void fetch(){
+            int limit = (remaining == null) ? pageSize : Math.min(pageSize, remaining);
+            if(limit <= 0){
+                done = true;
+                return;
+            }
+
+            // documents are converted while the handle is held, it goes back to the pool between pages
+            open();
+            try {
+                List<Object> parameters = query.getParameters();
+                if(last != null) parameters.add(last);
+                List<ODocument> found = db().query(new OSQLSynchQuery<ODocument>(pageSQL(query, planner, last != null, limit)), parameters.toArray());
+                done = found.size() < limit;
+                List<TransientObject> objects = new ArrayList<TransientObject>(found.size());
+                for(ODocument doc : found){
+                    objects.add(toObject(doc, query.getFields()));
+                    last = doc.getIdentity();
+                }
+                page = objects.iterator();
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     @Override
     public Collection<TransientObject> get(String objectType, String... keys) throws DAOException {
         if(keys.length == 0) return Arrays.asList();
-//        String objectType = Query.safeTable(type);
 
-        checkDb();
-        OTransaction transaction = db.getTransaction();
-        transaction.begin();
-//        System.err.println(db.browseCluster(objectType).next());
-        StringBuilder sb = new StringBuilder();
-        sb.append("SELECT * FROM " + objectType + " WHERE ");
-        for(int x=0;x<keys.length;x++){
-            sb.append("meta_data.object_key = '" + keys[x] +"'");
-            if(x+1<keys.length) sb.append( " OR ");
+        open();
+        try {
+            List<TransientObject> objects = new ArrayList<TransientObject>(keys.length);
+            for(OIdentifiable id : lookup(objectType, Arrays.asList(keys))){
+                ODocument doc = id.getRecord();
+                if(doc != null) objects.add(ODocumentWrapper.toObject(doc, TransientObject.class));
+            }
+            return objects;
+        } finally {
+            release();
         }
-        List<TransientObject> objects = new ArrayList<TransientObject>();
-        System.err.println("Query: " + sb.toString());
-        List<ODocument> list = db.query(new OSQLSynchQuery<ODocument>(sb.toString()));
-        System.err.println("Found: " + list.size());
-        for(ODocument w : list){
-            System.err.println("Get: " + w);
-            TransientObject to = ODocumentWrapper.toObject(w, TransientObject.class);
-            objects.add(to);
+    }
+
+    /*
+     * Multi key lookup straight against the object key index of a type, no sql involved.
+     */
+    private Collection<OIdentifiable> lookup(String objectType, Collection<String> keys){
+        OIndex<?> index = keyIndex(objectType);
+        if(index == null) return Collections.emptyList();
+        return index.getValues(keys);
+    }
+
+    /**
+     * @return id of the record stored under an object key, null if there is none.
+     */
+    ORID keyIndexed(String objectType, String key){
+        open();
+        try {
+            for(OIdentifiable id : lookup(objectType, Collections.singleton(key))){
+                return id.getIdentity();
+            }
+            return null;
+        } finally {
+            release();
         }
-        transaction.commit();
-        transaction.close();
-        return objects;
     }
 
+    private OIndex<?> keyIndex(String objectType){
+        OClass oClass = db().getMetadata().getSchema().getClass(objectType);
+        return (oClass == null) ? null : oClass.getClassIndex(objectType);
+    }
+
+    /**
+     * Stored objects are updated in place, only new keys insert a record. Saves of the same keys are
+     * serialized, so whether a key is new is decided together with the write and counts stay exact.
+     * A transaction that lost against a concurrent patch or update of the same records is rolled back
+     * and run again against the new versions, up to {@link #SAVE_RETRIES} times, the last write wins.
+     */
     @Override
     public void save(TransientObject... objects) throws DAOException {
         System.out.println("save: " + Arrays.asList(objects));
-        checkDb();
+        open();
+        List<ReentrantLock> locked = lock(objects);
+        try {
+            Set<String> types = new HashSet<String>();
+            for(TransientObject t : objects){
+                if(types.add(t.getObjectType())) planner(t.getObjectType());
+                checkUnique(t);
+            }
 
-        OTransaction transaction = db.getTransaction();
-        transaction.begin();
+            Map<String,Long> inserted = null;
+            for(int attempt = 1; inserted == null; attempt++){
+                OTransaction transaction = db().getTransaction();
+                transaction.begin();
+                try{
+                    inserted = write(objects);
+                    transaction.commit();
+                    transaction.close();
+                }catch (OConcurrentModificationException e){
+                    transaction.rollback();
+                    transaction.close();
+                    inserted = null;
+                    if(attempt == SAVE_RETRIES) throw new DAOException(409, e.getMessage());
+                }catch (RuntimeException e){
+                    transaction.rollback();
+                    transaction.close();
+                    throw e;
+                }
+            }
+
+            // first save of a type creates its class, indexes can only be built afterwards
+            for(String type : types){
+                planner(type);
+            }
+
+            for(Map.Entry<String,Long> entry : inserted.entrySet()){
+                adjustCount(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            unlock(locked);
+            release();
+        }
+    }
+
+    /*
+     * Writes the objects within the current transaction, returns the number of new keys per type.
+     */
+    private Map<String,Long> write(TransientObject... objects){
+        Map<String,ODocument> stored = stored(objects);
+        Map<String,Long> inserted = new HashMap<String, Long>();
         for(TransientObject t : objects){
-            db.save(new ODocumentWrapper(t));
+            Collection<IndexDefinition> declared = indexes.get(t.getObjectType());
+            ODocument doc = stored.get(t.getObjectKey());
+            if(doc == null){
+                doc = new ODocumentWrapper(t).setIndexed(declared);
+                db().save(doc);
+                stored.put(t.getObjectKey(), doc);
+                Long count = inserted.get(t.getObjectType());
+                inserted.put(t.getObjectType(), (count == null) ? 1 : count + 1);
+            } else {
+                ODocumentWrapper.update(doc, t, declared);
+                doc.save();
+            }
         }
-        transaction.commit();
-        transaction.close();
+        return inserted;
     }
 
+    /**
+     * Patches are applied within one transaction. A transaction that lost against a concurrent
+     * write of the same records is rolled back and run again against the new versions, up to
+     * {@link #PATCH_RETRIES} times.
+     */
     @Override
-    public void delete(TransientObject... objects) throws DAOException {
-        checkDb();
-
-        if(objects.length == 0) return;
-
-        QueryBuilder.WhereMoreBuilder builder = new QueryBuilder()
-                .select()
-                .from(objects[0].getClass())
-                .where(TransientObject.OBJECT_KEY, OPERAND.EQ, objects[0].getObjectKey());
-
-        for(int x=1;x<objects.length;x++){
-            builder.or(TransientObject.OBJECT_KEY, OPERAND.EQ, objects[x].getObjectKey());
+    public Collection<TransientObject> patch(Patch... patches) throws DAOException {
+        open();
+        try {
+            return patchWithRetries(patches);
+        } finally {
+            release();
         }
+    }
 
-        Query q = builder.build();
+    private Collection<TransientObject> patchWithRetries(Patch... patches) throws DAOException {
+        for(int attempt = 1; ; attempt++){
+            List<TransientObject> patched = new ArrayList<TransientObject>(patches.length);
+            OTransaction transaction = db().getTransaction();
+            transaction.begin();
+            try{
+                for(Patch patch : patches){
+                    ODocument doc = null;
+                    for(OIdentifiable id : lookup(patch.getObjectType(), Collections.singleton(patch.getObjectKey()))){
+                        doc = db().load(id.getIdentity(), null, true); // current version, not a cached one
+                    }
+                    if(doc == null) continue;
+                    patched.add(apply(doc, patch.getUpdates(), indexes.get(patch.getObjectType())));
+                }
+                transaction.commit();
+                transaction.close();
+                return patched;
+            }catch (OConcurrentModificationException e){
+                transaction.rollback();
+                transaction.close();
+                if(attempt == PATCH_RETRIES) throw new DAOException(409, e.getMessage());
+            }catch (DAOException e){
+                transaction.rollback();
+                transaction.close();
+                throw e;
+            }catch (RuntimeException e){
+                transaction.rollback();
+                transaction.close();
+                throw e;
+            }
+        }
+    }
 
-//        StringBuilder sb = new StringBuilder();
-//        sb.append("SELECT * FROM " + objects[0].getClass().getName() + " WHERE ");
-//        for(int x=0;x<objects.length;x++){
-//            sb.append("meta_data.object_key = '" + objects[x].getObjectKey() +"'");
-//            if(x+1<objects.length)
-//                sb.append( " OR ");
-//        }
+    @Override
+    public void delete(TransientObject... objects) throws DAOException {
+        open();
+        List<ReentrantLock> locked = lock(objects);
+        try {
+            for(Map.Entry<String,List<String>> entry : keysByType(objects).entrySet()){
+                int deleted = 0;
+                for(OIdentifiable id : lookup(entry.getKey(), entry.getValue())){
+                    ODocument doc = id.getRecord();
+                    if(doc == null) continue;
+                    doc.delete();
+                    deleted++;
+                }
+                adjustCount(entry.getKey(), -deleted);
+            }
+        } finally {
+            unlock(locked);
+            release();
+        }
+    }
 
+    /*
+     * Current stored documents of the objects by object key, read through the object key index of each type.
+     */
+    private Map<String,ODocument> stored(TransientObject... objects){
+        Map<String,ODocument> stored = new HashMap<String, ODocument>();
+        for(Map.Entry<String,List<String>> entry : keysByType(objects).entrySet()){
+            for(OIdentifiable id : lookup(entry.getKey(), entry.getValue())){
+                ODocument doc = db().load(id.getIdentity(), null, true); // other handles may have changed it
+                if(doc != null) stored.put(doc.<String>field(ODocumentWrapper.indexAttribute), doc);
+            }
+        }
+        return stored;
+    }
 
-        System.out.println("Delete: " + q.getSQL());
-        List<ODocument> list = db.query(new OSQLSynchQuery<ODocument>(q.getSQL()));
-        for(ODocument w : list){
-            System.out.println("Deleting: " + w);
-            w.delete();
+    private static Map<String,List<String>> keysByType(TransientObject... objects){
+        Map<String,List<String>> byType = new HashMap<String, List<String>>();
+        for(TransientObject t : objects){
+            List<String> keys = byType.get(t.getObjectType());
+            if(keys == null) byType.put(t.getObjectType(), keys = new ArrayList<String>());
+            keys.add(t.getObjectKey());
         }
+        return byType;
     }
 
     @Override
     public boolean exists(TransientObject... objects) {
-        checkDb();
-
         if(objects.length == 0) return false;
+        return existing(objects).cardinality() == objects.length;
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("SELECT * FROM " + Query.safeTable(objects[0].getClass()) + " WHERE ");
-        for(int x=0;x<objects.length;x++){
-            sb.append("meta_data.object_key = '" + objects[x].getObjectKey() +"'");
-            if(x+1<objects.length)
-                sb.append( " OR ");
+    @Override
+    public BitSet existing(TransientObject... objects) {
+        open();
+        try {
+            // one keys only lookup per type, answered by the object key index
+            Set<String> found = new HashSet<String>();
+            for(Map.Entry<String,List<String>> entry : keysByType(objects).entrySet()){
+                OIndex<?> index = keyIndex(entry.getKey());
+                if(index == null) continue;
+                for(ODocument indexEntry : index.getEntries(entry.getValue())){
+                    found.add(String.valueOf(indexEntry.field("key")));
+                }
+            }
+
+            BitSet existing = new BitSet(objects.length);
+            for(int i = 0; i < objects.length; i++){
+                if(found.contains(objects[i].getObjectKey())) existing.set(i);
+            }
+            return existing;
+        } finally {
+            release();
         }
-        List<ODocument> list = db.query(new OSQLSynchQuery<ODocument>(sb.toString()));
-        return objects.length == list.size();
     }
 
     @Override
     public int count(String objectType) {
-        checkDb();
+        open();
         try {
-            return (int) db.countClass(objectType);
-        }catch (java.lang.IllegalArgumentException e){
-            return 0;
+            return (int) counter(objectType).get();
+        } finally {
+            release();
         }
     }
 
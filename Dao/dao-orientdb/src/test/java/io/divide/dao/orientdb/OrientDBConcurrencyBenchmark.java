@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import io.divide.dao.TestObject1;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/*
+ * Throughput of gets and queries by number of threads sharing one dao, each thread works on its
+ * own pooled handle. Not part of the test run, execute main() directly.
+ */
+public class OrientDBConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        final int operations = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:benchmark");
+        if(db.exists()) db.open("admin","admin"); else db.create();
+        final OrientDBDao dao = new OrientDBDao(db.getURL(), OrientDBDao.DEFAULT_POOL_SIZE);
+        try {
+            final String table = Query.safeTable(TestObject1.class);
+            final String[] keys = new String[size];
+            TransientObject[] batch = new TransientObject[500];
+            for(int x=0;x<size;x+=batch.length){
+                for(int y=0;y<batch.length;y++){
+                    batch[y] = new TestObject1("key1", "value" + ((x + y) % 100));
+                    keys[x + y] = batch[y].getObjectKey();
+                }
+                dao.save(batch);
+            }
+
+            for(int threads : new int[]{1, 2, 4, 8}){
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Thread> workers = new ArrayList<Thread>();
+                for(int t=0;t<threads;t++){
+                    final int seed = t;
+                    Thread worker = new Thread(){
+                        @Override
+                        public void run() {
+                            try { start.await(); } catch (InterruptedException e) { return; }
+                            for(int x=0;x<operations;x++){
+                                int i = (seed * 7919 + x * 104729) % keys.length;
+                                if(x % 2 == 0){
+                                    if(dao.get(table, keys[i]).size() != 1) throw new IllegalStateException("get failed");
+                                } else {
+                                    Query q = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.EQ, "value" + (i % 100)).limit(10).build();
+                                    if(dao.query(q).isEmpty()) throw new IllegalStateException("query failed");
+                                }
+                            }
+                        }
+                    };
+                    workers.add(worker);
+                    worker.start();
+                }
+                long begin = System.nanoTime();
+                start.countDown();
+                for(Thread worker : workers) worker.join();
+                long ms = (System.nanoTime() - begin) / 1000000;
+                System.out.println(threads + " threads: " + (threads * operations * 1000L / Math.max(1, ms)) + " ops/s");
+            }
+        } finally {
+            dao.close();
+            db.drop();
+        }
+    }
+}
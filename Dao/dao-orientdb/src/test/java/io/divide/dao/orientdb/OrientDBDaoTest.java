@@ -16,17 +16,37 @@
 
 package io.divide.dao.orientdb;
 
-import io.divide.dao.DAOTest;
+import io.divide.dao.ServerDAOTest;
+import io.divide.dao.IndexDefinition;
 import io.divide.dao.Keyable;
+import io.divide.dao.TestObject1;
+import io.divide.dao.TestObject2;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Expression;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Order;
+import io.divide.shared.transitory.query.Patch;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
-public class OrientDBDaoTest extends DAOTest<OrientDBDaoTest.KeyedODocumentWrapper> {
+import static org.junit.Assert.*;
+
+public class OrientDBDaoTest extends ServerDAOTest<OrientDBDaoTest.KeyedODocumentWrapper> {
 
     ODatabaseDocument db;
 
@@ -54,16 +74,329 @@ public class OrientDBDaoTest extends DAOTest<OrientDBDaoTest.KeyedODocumentWrapp
         } else {
             db.create();
         }
-        dao = new OrientDBDao(db);
+        dao = new OrientDBDao(db.getURL(), OrientDBDao.DEFAULT_POOL_SIZE);
         super.setUp();
     }
 
     @After
     public void tearDown() {
+        ((OrientDBDao) dao).close();
         db.drop();
         db.close();
     }
 
+    @Test
+    public void testQueryTemplates() throws Exception {
+        OrientDBDao orientDao = (OrientDBDao) dao;
+        Query q1 = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.EQ, "1").build();
+        Query q2 = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.EQ, "it's").build();
+        Query q3 = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.GREATER_THAN, "1").build();
+
+        assertSame(orientDao.template(q1, null), orientDao.template(q2, null));
+        assertNotEquals(orientDao.template(q1, null), orientDao.template(q3, null));
+
+        dao.save(new TestObject1("key1", "it's"));
+        assertEquals(1, dao.query(q2).size());
+    }
+
+    @Test
+    public void testRandomSeeksIndex() throws Exception {
+        TestObject1[] objects = new TestObject1[500];
+        for(int i = 0; i < objects.length; i++){
+            objects[i] = new TestObject1("key1", String.valueOf(i));
+        }
+        dao.save(objects);
+        assertEquals(5, dao.query(new QueryBuilder().select().from(TestObject1.class).random(5).build()).size());
+
+        String table = Query.safeTable(TestObject1.class);
+        List<ODocument> ordered = db.query(new OSQLSynchQuery<ODocument>(
+                "SELECT FROM " + table + " ORDER BY " + ODocumentWrapper.randomAttribute));
+
+        // reads the entries following the point, wherever it is
+        for(int start : new int[]{0, 250, 497}){
+            double point = ordered.get(start).<Double>field(ODocumentWrapper.randomAttribute);
+            List<Object> expected = new ArrayList<Object>();
+            for(int i = 0; i < 5; i++){
+                expected.add(ordered.get((start + i) % ordered.size()).getIdentity());
+            }
+            List<Object> ids = new ArrayList<Object>();
+            for(OIdentifiable id : ((OrientDBDao) dao).sampleIds(table, point, 5)){
+                ids.add(id.getIdentity());
+            }
+            assertEquals(expected, ids);
+        }
+    }
+
+    @Test
+    public void testSecondaryIndex() throws Exception {
+        // saved before the index is declared, must be backfilled
+        rawSave(Arrays.asList(toBaseObject(testObject1), toBaseObject(testObject2)));
+
+        String table = Query.safeTable(TestObject1.class);
+        String path = TransientObject.USER_DATA + ".key1";
+        ((OrientDBDao) dao).index(IndexDefinition.userData(TestObject1.class, "key1", IndexDefinition.Kind.HASH));
+
+        Query q = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.EQ, "1").build();
+        assertTrue(q.getPlannedSQL(((OrientDBDao) dao).planner(table)).contains(ODocumentWrapper.indexField(path)));
+        List<TransientObject> results = dao.query(q);
+        assertEquals(1, results.size());
+        assertEquals(testObject1.getObjectKey(), results.get(0).getObjectKey());
+        assertEquals(2, db.getMetadata().getIndexManager().getIndex(table + "." + ODocumentWrapper.indexField(path)).getSize());
+
+        // saved after, indexed on write
+        dao.save(testObject3);
+        results = dao.query(q);
+        assertEquals(2, results.size());
+
+        // non equality clauses keep working against the original field
+        q = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.GREATER_THAN, "1").build();
+        assertEquals(1, dao.query(q).size());
+    }
+
+    @Test
+    public void testRangeIndex() throws Exception {
+        TestObject1[] objects = new TestObject1[50];
+        for(int i = 0; i < objects.length; i++){
+            objects[i] = new TestObject1("key1", String.valueOf(i));
+            objects[i].put("score", i);
+        }
+        // half saved before the index is declared, must be backfilled
+        dao.save(Arrays.copyOfRange(objects, 0, 25));
+        ((OrientDBDao) dao).index(IndexDefinition.userData(TestObject1.class, "score", IndexDefinition.Kind.RANGE));
+        dao.save(Arrays.copyOfRange(objects, 25, 50));
+
+        String table = Query.safeTable(TestObject1.class);
+        String path = TransientObject.USER_DATA + ".score";
+        assertEquals(50, db.getMetadata().getIndexManager().getIndex(table + "." + ODocumentWrapper.numericIndexField(path)).getSize());
+
+        Query q = new QueryBuilder().select().from(TestObject1.class).where(Expression.between("score", 20, 29.5)).build();
+        assertTrue(q.getPlannedSQL(((OrientDBDao) dao).planner(table)).contains(ODocumentWrapper.numericIndexField(path) + " BETWEEN"));
+        assertEquals(10, dao.query(q).size());
+
+        q = new QueryBuilder().select().from(TestObject1.class).where("score", OPERAND.GREATER_THAN_EQ, 45).build();
+        assertEquals(5, dao.query(q).size());
+
+        // numbers of any type are looked up in the numeric copy
+        q = new QueryBuilder().select().from(TestObject1.class).where(Expression.in("score", 3, 4L, 99)).build();
+        assertTrue(q.getPlannedSQL(((OrientDBDao) dao).planner(table)).contains(ODocumentWrapper.numericIndexField(path) + " IN"));
+        assertEquals(2, dao.query(q).size());
+
+        // pages after a numeric continuation resume from the numeric copy, in numeric order
+        q = new QueryBuilder().select().from(TestObject1.class).orderBy("score", Order.ASC).limit(10).build();
+        List<TransientObject> page = dao.query(q);
+        Query next = new QueryBuilder().select().from(TestObject1.class).orderBy("score", Order.ASC)
+                .after(q.continuationAfter(page.get(page.size() - 1))).limit(10).build();
+        String sql = OrientDBDao.orderedSQL(next, ((OrientDBDao) dao).planner(table), new ArrayList<Object>());
+        assertTrue(sql, sql.contains("ORDER BY " + ODocumentWrapper.numericIndexField(path)));
+        page = dao.query(next);
+        assertEquals(10, page.size());
+        assertEquals(10, page.get(0).get(Number.class, "score").intValue());
+        assertEquals(19, page.get(9).get(Number.class, "score").intValue());
+    }
+
+    @Test
+    public void testSaveInPlace() throws Exception {
+        String table = Query.safeTable(TestObject1.class);
+        String path = TransientObject.USER_DATA + ".key1";
+        ((OrientDBDao) dao).index(IndexDefinition.userData(TestObject1.class, "key1", IndexDefinition.Kind.HASH));
+        TestObject1 a = new TestObject1("key1", "1");
+        TestObject1 b = new TestObject1("key1", "2");
+        TestObject1 c = new TestObject1("key1", "3");
+        dao.save(a, b);
+        ORID rid = ((OrientDBDao) dao).keyIndexed(table, a.getObjectKey());
+
+        // a stored key keeps its record, a key repeated within one batch is stored once
+        a.put("key1", "changed");
+        dao.save(a, c, c);
+        assertEquals(rid, ((OrientDBDao) dao).keyIndexed(table, a.getObjectKey()));
+        assertEquals(3, dao.count(table));
+        assertEquals(3, db.countClass(table));
+
+        Query q = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.EQ, "changed").build();
+        List<TransientObject> results = dao.query(q);
+        assertEquals(1, results.size());
+        assertEquals(a.getObjectKey(), results.get(0).getObjectKey());
+
+        // indexed copies of removed fields go away with them
+        a.remove("key1");
+        dao.save(a);
+        assertEquals(0, dao.query(q).size());
+        ODocument doc = db.load(rid);
+        assertFalse(doc.containsField(ODocumentWrapper.indexField(path)));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final int threads = 8;
+        final int batches = 5;
+        final int batchSize = 10;
+        final String table = Query.safeTable(TestObject1.class);
+        final TestObject1 counter = new TestObject1("key1", "counter");
+        dao.save(counter);
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++){
+            final String worker = "worker" + t;
+            Thread thread = new Thread(){
+                @Override
+                public void run() {
+                    try{
+                        start.await();
+                        List<String> keys = new ArrayList<String>();
+                        for(int b = 0; b < batches; b++){
+                            TestObject1[] batch = new TestObject1[batchSize];
+                            for(int i = 0; i < batchSize; i++){
+                                batch[i] = new TestObject1("key1", worker);
+                                keys.add(batch[i].getObjectKey());
+                            }
+                            dao.save(batch);
+                            ((OrientDBDao) dao).patch(new Patch(counter).increment("saved", batchSize));
+                        }
+                        Query q = new QueryBuilder().select().from(TestObject1.class).where("key1", OPERAND.EQ, worker).build();
+                        List<TransientObject> results = dao.query(q);
+                        assertEquals(batches * batchSize, results.size());
+                        assertEquals(keys.size(), dao.get(table, keys.toArray(new String[keys.size()])).size());
+                    } catch (Throwable e){
+                        failures.add(e);
+                    }
+                }
+            };
+            workers.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread : workers) thread.join();
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(threads * batches * batchSize + 1, dao.count(table));
+        TransientObject stored = (TransientObject) dao.get(table, counter.getObjectKey()).iterator().next();
+        assertEquals(threads * batches * batchSize, ((Number) stored.get(Object.class, "saved")).intValue());
+    }
+
+    @Test
+    public void testConcurrentSaves() throws Exception {
+        final int threads = 8;
+        final int saves = 20;
+        final String table = Query.safeTable(TestObject1.class);
+        final TestObject1 shared = new TestObject1("key1", "shared");
+        dao.save(shared);
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++){
+            Thread thread = new Thread(){
+                @Override
+                public void run() {
+                    try{
+                        start.await();
+                        for(int i = 0; i < saves; i++){
+                            dao.save(shared);
+                            ((OrientDBDao) dao).patch(new Patch(shared).increment("saved", 1));
+                        }
+                    } catch (Throwable e){
+                        failures.add(e);
+                    }
+                }
+            };
+            workers.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread : workers) thread.join();
+
+        // conflicting transactions are retried, every save lands on the one stored object
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(1, dao.count(table));
+        assertEquals(1, dao.get(table, shared.getObjectKey()).size());
+    }
+
+    @Test
+    public void testQueryUnsavedType() throws Exception {
+        // no class exists before the first save of a type
+        assertTrue(dao.query(new QueryBuilder().select().from(TestObject2.class).build()).isEmpty());
+        assertFalse(((OrientDBDao) dao).stream(new QueryBuilder().select().from(TestObject2.class).build()).hasNext());
+        List<TransientObject> deleted = dao.query(new QueryBuilder().delete().from(TestObject2.class).build());
+        assertEquals(0, ((Number) deleted.get(0).get(Object.class, "count")).intValue());
+        List<TransientObject> updated = dao.query(new QueryBuilder().update().from(TestObject2.class).set("key1", "a").build());
+        assertEquals(0, ((Number) updated.get(0).get(Object.class, "count")).intValue());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final int threads = 8;
+        final int updates = 10;
+        final String table = Query.safeTable(TestObject1.class);
+        final TestObject1 shared = new TestObject1("key1", "shared");
+        dao.save(shared);
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++){
+            Thread thread = new Thread(){
+                @Override
+                public void run() {
+                    try{
+                        start.await();
+                        for(int i = 0; i < updates; i++){
+                            Query q = new QueryBuilder().update().from(TestObject1.class).increment("hits", 1).where("key1", OPERAND.EQ, "shared").build();
+                            List<TransientObject> results = dao.query(q);
+                            assertEquals(1, ((Number) results.get(0).get(Object.class, "count")).intValue());
+                        }
+                    } catch (Throwable e){
+                        failures.add(e);
+                    }
+                }
+            };
+            workers.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread : workers) thread.join();
+
+        // conflicting transactions are retried, no increment is lost
+        assertTrue(failures.toString(), failures.isEmpty());
+        TransientObject stored = (TransientObject) dao.get(table, shared.getObjectKey()).iterator().next();
+        assertEquals(threads * updates, ((Number) stored.get(Object.class, "hits")).intValue());
+    }
+
+    @Test
+    public void testConcurrentInserts() throws Exception {
+        final int threads = 8;
+        final int objects = 20;
+        final String table = Query.safeTable(TestObject1.class);
+        final List<TestObject1> fresh = new ArrayList<TestObject1>();
+        for(int i = 0; i < objects; i++) fresh.add(new TestObject1("key1", "fresh" + i));
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for(int t = 0; t < threads; t++){
+            Thread thread = new Thread(){
+                @Override
+                public void run() {
+                    try{
+                        start.await();
+                        for(TestObject1 o : fresh) dao.save(o);
+                    } catch (Throwable e){
+                        failures.add(e);
+                    }
+                }
+            };
+            workers.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread : workers) thread.join();
+
+        // every key is inserted by exactly one of the racing saves, the others update it
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(objects, dao.count(table));
+    }
+
     public static class KeyedODocumentWrapper extends ODocumentWrapper implements Keyable{
 
         public KeyedODocumentWrapper(){
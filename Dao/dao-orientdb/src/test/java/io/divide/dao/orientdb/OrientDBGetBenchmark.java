@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import io.divide.dao.TestObject1;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Query;
+
+import java.util.List;
+
+/*
+ * Compares multi key gets through the object key index with the OR chained sql they
+ * replaced. Not part of the test run, execute main() directly.
+ */
+public class OrientDBGetBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:benchmark");
+        if(db.exists()) db.open("admin","admin"); else db.create();
+        try {
+            OrientDBDao dao = new OrientDBDao(db.getURL(), OrientDBDao.DEFAULT_POOL_SIZE);
+            String table = Query.safeTable(TestObject1.class);
+
+            String[] keys = new String[size];
+            TransientObject[] batch = new TransientObject[500];
+            for(int x=0;x<size;x+=batch.length){
+                for(int y=0;y<batch.length;y++){
+                    batch[y] = new TestObject1("key1", "value" + (x + y));
+                    keys[x + y] = batch[y].getObjectKey();
+                }
+                dao.save(batch);
+            }
+
+            for(int count : new int[]{1, 10, 100, 1000}){
+                String[] get = new String[count];
+                for(int x=0;x<count;x++){
+                    get[x] = keys[(x * 7919) % size];
+                }
+                int rounds = Math.max(3, 2000 / count);
+                System.out.println(count + " keys: or chain " + orChain(db, table, get, rounds) + " us/op" +
+                        ", index " + time(dao, table, get, rounds) + " us/op");
+            }
+        } finally {
+            db.drop();
+        }
+    }
+
+    private static long time(OrientDBDao dao, String table, String[] keys, int rounds){
+        long start = System.nanoTime();
+        for(int x=0;x<rounds;x++){
+            if(dao.get(table, keys).size() != keys.length) throw new IllegalStateException("get failed");
+        }
+        return (System.nanoTime() - start) / rounds / 1000;
+    }
+
+    // the previous implementation of OrientDBDao.get
+    private static long orChain(ODatabaseDocumentTx db, String table, String[] keys, int rounds){
+        long start = System.nanoTime();
+        for(int x=0;x<rounds;x++){
+            StringBuilder sb = new StringBuilder();
+            sb.append("SELECT * FROM " + table + " WHERE ");
+            for(int y=0;y<keys.length;y++){
+                sb.append("meta_data.object_key = '" + keys[y] +"'");
+                if(y+1<keys.length) sb.append( " OR ");
+            }
+            List<ODocument> list = db.query(new OSQLSynchQuery<ODocument>(sb.toString()));
+            if(list.size() != keys.length) throw new IllegalStateException("get failed");
+        }
+        return (System.nanoTime() - start) / rounds / 1000;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.dao.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import io.divide.dao.IndexDefinition;
+import io.divide.dao.TestObject1;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+
+/*
+ * Compares equality lookups on an indexed and an unindexed user_data field as the
+ * number of stored objects grows. Not part of the test run, execute main() directly.
+ */
+public class OrientDBIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int lookups = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        for(int size : new int[]{1000, 5000, 20000}){
+            run(size, lookups);
+        }
+    }
+
+    private static void run(int size, int lookups) throws Exception {
+        ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:benchmark");
+        if(db.exists()) db.open("admin","admin"); else db.create();
+        try {
+            OrientDBDao dao = new OrientDBDao(db.getURL(), OrientDBDao.DEFAULT_POOL_SIZE);
+            dao.index(IndexDefinition.userData(TestObject1.class, "indexed", IndexDefinition.Kind.HASH));
+
+            TransientObject[] batch = new TransientObject[500];
+            for(int x=0;x<size;x+=batch.length){
+                for(int y=0;y<batch.length;y++){
+                    batch[y] = new TestObject1("indexed", "user" + (x + y), "scanned", "user" + (x + y));
+                }
+                dao.save(batch);
+            }
+
+            System.out.println(size + " objects: indexed " + time(dao, "indexed", size, lookups) + " us/op" +
+                    ", scanned " + time(dao, "scanned", size, lookups) + " us/op");
+        } finally {
+            db.drop();
+        }
+    }
+
+    private static long time(OrientDBDao dao, String field, int size, int lookups){
+        long start = System.nanoTime();
+        for(int x=0;x<lookups;x++){
+            Query q = new QueryBuilder().select().from(TestObject1.class).where(field, OPERAND.EQ, "user" + ((x * 7919) % size)).build();
+            if(dao.query(q).size() != 1) throw new IllegalStateException("lookup failed: " + q.getSQL());
+        }
+        return (System.nanoTime() - start) / lookups / 1000;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.dao.orientdb;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.tx.OTransaction;
+import io.divide.dao.IndexDefinition;
+import io.divide.dao.TestObject1;
+import io.divide.shared.transitory.TransientObject;
+
+import java.util.Collections;
+
+/*
+ * Compares re-saving stored objects in place with the delete and insert through the object key
+ * index it replaced, by latency and by storage growth. Not part of the test run, execute main() directly.
+ */
+public class OrientDBSaveBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        for(boolean inPlace : new boolean[]{false, true}){
+            ODatabaseDocumentTx db = new ODatabaseDocumentTx("memory:benchmark");
+            if(db.exists()) db.open("admin","admin"); else db.create();
+            try {
+                OrientDBDao dao = new OrientDBDao(db.getURL(), OrientDBDao.DEFAULT_POOL_SIZE);
+                TransientObject[] objects = new TransientObject[size];
+                for(int x=0;x<size;x++){
+                    objects[x] = new TestObject1("key1", "value" + x);
+                }
+                dao.save(objects);
+                long initial = db.getSize();
+
+                long start = System.nanoTime();
+                for(int r=0;r<rounds;r++){
+                    for(TransientObject o : objects){
+                        o.put("round", r);
+                    }
+                    if(inPlace) dao.save(objects);
+                    else replace(db, objects);
+                }
+                long us = (System.nanoTime() - start) / ((long) rounds * size) / 1000;
+
+                System.out.println((inPlace ? "in place" : "delete+insert") + ": " + us + " us/object" +
+                        ", storage " + initial + " -> " + db.getSize() + " bytes");
+            } finally {
+                db.drop();
+            }
+        }
+    }
+
+    // the previous implementation of OrientDBDao.save for stored objects
+    private static void replace(ODatabaseDocumentTx db, TransientObject[] objects){
+        OTransaction transaction = db.getTransaction();
+        transaction.begin();
+        for(TransientObject t : objects){
+            db.save(new ODocumentWrapper(t).setIndexed(Collections.<IndexDefinition>emptyList()));
+        }
+        transaction.commit();
+        transaction.close();
+    }
+}
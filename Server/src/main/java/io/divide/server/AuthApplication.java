@@ -17,6 +17,7 @@
 package io.divide.server;
 
 import io.divide.server.auth.*;
+import io.divide.server.dao.BinaryMessageBodyHandler;
 import io.divide.server.dao.CredentialBodyHandler;
 import io.divide.server.dao.DAOManager;
 import io.divide.server.dao.GsonMessageBodyHandler;
@@ -25,12 +26,17 @@ import io.divide.server.endpoints.AuthenticationEndpoint;
 import io.divide.server.endpoints.DataEndpoint;
 import io.divide.server.endpoints.MetaEndpoint;
 import io.divide.server.endpoints.PushEndpoint;
+import io.divide.dao.IndexDefinition;
 import io.divide.dao.ServerDAO;
 import io.divide.server.auth.SecManager;
+import io.divide.shared.util.AuthTokenUtils;
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
 
 import javax.ws.rs.core.SecurityContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 /*
@@ -48,7 +54,11 @@ public abstract class AuthApplication<T extends ServerDAO> extends ResourceConfi
         this(new MyBinder<T>(daoClass,encryptionKey));
     }
 
+    private final MyBinder binder;
+    private final GZIPWriterInterceptor compression = new GZIPWriterInterceptor();
+
     private AuthApplication(MyBinder binder){
+        this.binder = binder;
         logger.finest("STARTING: " + getClass().getSimpleName());
         logger.info("DAO: " + binder.getDAOName());
         reg(AuthenticationEndpoint.class);
@@ -57,9 +67,11 @@ public abstract class AuthApplication<T extends ServerDAO> extends ResourceConfi
         reg(MetaEndpoint.class);
         reg(CredentialBodyHandler.class);  // insures passwords are not sent back
         reg(GsonMessageBodyHandler.class); // serialize all objects with GSON
+        reg(BinaryMessageBodyHandler.class); // or in the binary format, when asked for
         reg(SecurityFilter.class);
         reg(ResponseFilter.class);
-//        reg(GZIPReaderInterceptor.class);
+        reg(GZIPReaderInterceptor.class);  // decode compressed request bodies
+        register(compression);
 
         register(binder);
 
@@ -67,10 +79,36 @@ public abstract class AuthApplication<T extends ServerDAO> extends ResourceConfi
     }
 
 
+    /**
+     * Selects the format of issued auth tokens, must be called before the application is started.
+     * @param tokenFormat token format, see {@link AuthTokenUtils.TokenFormat}.
+     */
+    public void setTokenFormat(AuthTokenUtils.TokenFormat tokenFormat){
+        binder.tokenFormat = tokenFormat;
+    }
+
+    /**
+     * Sets the body size above which responses are compressed for clients accepting gzip or deflate.
+     * @param bytes threshold in bytes, defaults to {@link GZIPWriterInterceptor#DEFAULT_THRESHOLD}.
+     */
+    public void setCompressionThreshold(int bytes){
+        compression.setThreshold(bytes);
+    }
+
+    /**
+     * Declares indexes on the DAO, must be called before the application is started.
+     * @param indexes indexes to declare, see {@link ServerDAO#index(IndexDefinition...)}.
+     */
+    public void index(IndexDefinition... indexes){
+        binder.indexes.addAll(Arrays.asList(indexes));
+    }
+
     private static class MyBinder<T extends ServerDAO> extends AbstractBinder{
         private Class<T> clazz;
         private T t;
         private String encryptionKey;
+        private AuthTokenUtils.TokenFormat tokenFormat = AuthTokenUtils.TokenFormat.PBE;
+        private List<IndexDefinition> indexes = new ArrayList<IndexDefinition>();
 
         public MyBinder(T dao, String encryptionKey){
             this.t = dao;
@@ -89,8 +127,11 @@ public abstract class AuthApplication<T extends ServerDAO> extends ResourceConfi
                 if(t == null)
                     t = clazz.newInstance();
                 DAOManager manager = new DAOManager(t);
+                manager.index(indexes.toArray(new IndexDefinition[indexes.size()]));
                 bind(manager).to(DAOManager.class);
-                bind(new SecManager(manager,encryptionKey)).to(SecManager.class);
+                SecManager secManager = new SecManager(manager,encryptionKey);
+                secManager.setTokenFormat(tokenFormat);
+                bind(secManager).to(SecManager.class);
                 bind(UserContext.class).to(SecurityContext.class);
                 bind(Session.class).to(Session.class);
             }catch (Exception e) {
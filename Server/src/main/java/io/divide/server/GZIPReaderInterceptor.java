@@ -17,19 +17,38 @@
 package io.divide.server;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.ReaderInterceptor;
 import javax.ws.rs.ext.ReaderInterceptorContext;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
+/*
+ * Decodes gzip or deflate request bodies, as declared by their Content-Encoding. Bodies without
+ * a Content-Encoding are read as they are.
+ */
 public class GZIPReaderInterceptor implements ReaderInterceptor {
 
     @Override
     public Object aroundReadFrom(ReaderInterceptorContext context)
             throws IOException, WebApplicationException {
+        String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if(encoding == null || encoding.trim().equalsIgnoreCase(GZIPWriterInterceptor.IDENTITY))
+            return context.proceed();
+
         final InputStream originalInputStream = context.getInputStream();
-        context.setInputStream(new GZIPInputStream(originalInputStream));
+        encoding = encoding.trim().toLowerCase();
+        if(GZIPWriterInterceptor.GZIP.equals(encoding) || GZIPWriterInterceptor.X_GZIP.equals(encoding)){
+            context.setInputStream(new GZIPInputStream(originalInputStream));
+        } else if(GZIPWriterInterceptor.DEFLATE.equals(encoding)){
+            context.setInputStream(new InflaterInputStream(originalInputStream));
+        } else {
+            throw new WebApplicationException(Response.Status.UNSUPPORTED_MEDIA_TYPE);
+        }
+        context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
         return context.proceed();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.server;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Compresses response bodies with gzip or deflate, whichever the client lists first in its
+ * Accept-Encoding. Bodies are only compressed once they grow past the threshold, below it
+ * compressing costs more than it saves and the body goes out as it is.
+ */
+public class GZIPWriterInterceptor implements WriterInterceptor {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    static final String GZIP = "gzip";
+    static final String X_GZIP = "x-gzip";
+    static final String DEFLATE = "deflate";
+    static final String IDENTITY = "identity";
+
+    @Context
+    HttpHeaders headers;
+
+    private volatile int threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param threshold body size in bytes above which responses are compressed.
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        String encoding = accepted(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING));
+        if(encoding == null || context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)){
+            context.proceed();
+            return;
+        }
+
+        context.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        ThresholdOutputStream out = new ThresholdOutputStream(context, encoding, threshold);
+        context.setOutputStream(out);
+        context.proceed();
+        out.finish();
+    }
+
+    /**
+     * @param acceptEncoding Accept-Encoding header values of the request.
+     * @return gzip or deflate, null if the client accepts neither.
+     */
+    static String accepted(List<String> acceptEncoding){
+        if(acceptEncoding == null) return null;
+        for(String header : acceptEncoding){
+            for(String coding : header.split(",")){
+                String[] parts = coding.split(";");
+                String name = parts[0].trim().toLowerCase();
+                if(parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?")) continue;
+                if(GZIP.equals(name) || X_GZIP.equals(name)) return GZIP;
+                if(DEFLATE.equals(name)) return DEFLATE;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Buffers the start of the body, switches to compressing once the threshold is passed. Headers
+     * are only committed when the underlying stream is first written, so Content-Encoding can still
+     * be set at that point.
+     */
+    private static class ThresholdOutputStream extends OutputStream {
+        private final WriterInterceptorContext context;
+        private final OutputStream original;
+        private final String encoding;
+        private final int threshold;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private DeflaterOutputStream compressed;
+        private boolean finished;
+
+        private ThresholdOutputStream(WriterInterceptorContext context, String encoding, int threshold){
+            this.context = context;
+            this.original = context.getOutputStream();
+            this.encoding = encoding;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if(compressed != null){
+                compressed.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            if(buffer.size() > threshold) compress();
+        }
+
+        private void compress() throws IOException {
+            context.getHeaders().putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+            context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+            compressed = GZIP.equals(encoding) ? new GZIPOutputStream(original) : new DeflaterOutputStream(original);
+            buffer.writeTo(compressed);
+            buffer = null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(compressed != null) compressed.flush();
+        }
+
+        void finish() throws IOException {
+            if(finished) return;
+            finished = true;
+            if(compressed != null) compressed.finish();
+            else buffer.writeTo(original);
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            original.close();
+        }
+    }
+}
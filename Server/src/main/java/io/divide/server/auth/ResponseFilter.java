@@ -16,8 +16,6 @@
 
 package io.divide.server.auth;
 
-import io.divide.shared.transitory.Credentials;
-
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerResponseContext;
 import javax.ws.rs.container.ContainerResponseFilter;
@@ -33,9 +31,8 @@ public class ResponseFilter implements ContainerResponseFilter {
         SecurityContext context = requestContext.getSecurityContext();
         if(context != null && context instanceof UserContext){
             UserContext userContext = (UserContext)context;
-            Credentials user = userContext.getUser();
-            if(user!=null && user.getAuthToken() != null){
-               responseContext.getHeaders().add("Authorization", user.getAuthToken());
+            if(userContext.getAuthToken() != null){
+               responseContext.getHeaders().add("Authorization", userContext.getAuthToken());
             }
         }
 
@@ -18,6 +18,7 @@ package io.divide.server.auth;
 
 import io.divide.dao.ServerDAO;
 import io.divide.shared.server.KeyManager;
+import io.divide.shared.util.AuthTokenUtils;
 import io.divide.shared.util.Crypto;
 
 import java.security.KeyPair;
@@ -33,10 +34,17 @@ public class SecManager implements KeyManager {
     private ServerDAO dao;
     private String encryptionKey;
     private String pushKey;
+    private TokenCache tokenCache;
+    private AuthTokenUtils.TokenFormat tokenFormat = AuthTokenUtils.TokenFormat.PBE;
 
     public SecManager(ServerDAO dao, String encryptionKey){
+        this(dao, encryptionKey, new TokenCache().listen());
+    }
+
+    public SecManager(ServerDAO dao, String encryptionKey, TokenCache tokenCache){
         this.dao = dao;
         this.encryptionKey = encryptionKey;
+        this.tokenCache = tokenCache;
     }
 
     private KeyPair cachedKeys = null;
@@ -73,6 +81,24 @@ public class SecManager implements KeyManager {
         return pushKey;
     }
 
+    @Override
+    public AuthTokenUtils.TokenFormat getTokenFormat() {
+        return tokenFormat;
+    }
+
+    /**
+     * Selects the format of newly issued auth tokens, tokens of either format are always accepted.
+     * @param tokenFormat format to issue, defaults to {@link AuthTokenUtils.TokenFormat#PBE}.
+     */
+    public void setTokenFormat(AuthTokenUtils.TokenFormat tokenFormat){
+        if(tokenFormat == null) throw new IllegalArgumentException("tokenFormat can not be null");
+        this.tokenFormat = tokenFormat;
+    }
+
+    public TokenCache getTokenCache(){
+        return tokenCache;
+    }
+
     private List<String> safePaths = new ArrayList<String>(Arrays.asList(
             "",
             "/"
@@ -47,6 +47,7 @@ import io.divide.shared.transitory.query.OPERAND;
 import io.divide.shared.transitory.query.Query;
 import io.divide.shared.transitory.query.QueryBuilder;
 import io.divide.shared.util.AuthTokenUtils;
+import io.divide.shared.util.DaoUtils;
 import io.divide.shared.util.ObjectUtils;
 import org.glassfish.jersey.server.ContainerRequest;
 
@@ -86,7 +87,7 @@ public class SecurityFilter implements ContainerRequestFilter {
 
         UserContext context = authenticate(request);
         if (context != null) {
-            log.info("Authenticated: " + context.getUser().getEmailAddress());
+            log.info("Authenticated: " + context.getOwnerId());
         } else {
             log.info("Authentication Failed");
         }
@@ -116,9 +117,17 @@ public class SecurityFilter implements ContainerRequestFilter {
             return abort(request, "Missing token");
         }
 
+        // cached entries never outlive their token, so a hit needs no further checks
+        TokenCache tokenCache = securityManager.getTokenCache();
+        Credentials cached = tokenCache.get(token);
+        if (cached != null) {
+            return new UserContext(request.getUriInfo(), cached);
+        }
+
         // TODO verify
+        AuthTokenUtils.AuthToken authToken;
         try {
-            AuthTokenUtils.AuthToken authToken = new AuthTokenUtils.AuthToken(securityManager.getSymmetricKey(),token);
+            authToken = new AuthTokenUtils.AuthToken(securityManager.getSymmetricKey(),token);
             if(authToken.isExpired()){
                 return abort(request,"Auth Token Expired: " + System.currentTimeMillis() + " : " + authToken.expirationDate);
             }
@@ -126,28 +135,50 @@ public class SecurityFilter implements ContainerRequestFilter {
             return abort(request,"Auth Token Expired: " + e.getMessage());
         }
 
-        // Validate the extracted credentials
-        synchronized (dao) {
-            Query q = new QueryBuilder().select().from(Credentials.class).where(Credentials.AUTH_TOKEN_KEY, OPERAND.EQ, token).build();
-            try {
-                TransientObject temp = ObjectUtils.get1stOrNull(dao.query(q));
-                if (temp != null) {
-                    ServerCredentials creds = new ServerCredentials(temp);
-//                    creds.setAuthToken(AuthTokenUtils.getNewToken(securityManager.getSymmetricKey(),creds)); // assign new token
-                    return new UserContext(request.getUriInfo(), new ServerCredentials(creds));
-                } else {
-//                    System.err.println("IN DB: " + dao.query(new QueryBuilder().select().from(Credentials.class).build()));
-                    request.abortWith(notAuthReponse("Invalid authentication token"));
-                    return abort(request, "Invalid authentication token");
-                }
-            } catch (ServerDAO.DAOException e) {
-                log.severe("Authentication Failed("+e.getStatusCode()+") " + e.getMessage());
-                e.printStackTrace();
+        // signed claims are trusted as is, credentials are only loaded if an endpoint asks for them
+        if (authToken.isStateless() && securityManager.getTokenFormat() == AuthTokenUtils.TokenFormat.STATELESS) {
+            return new UserContext(request.getUriInfo(), token, authToken, lazyLoader(authToken));
+        }
+
+        // Validate the extracted credentials, concurrent lookups of the same token share one query
+        try {
+            Credentials creds = tokenCache.get(token, authToken.expirationDate, credentialsLoader);
+            if (creds != null) {
+                return new UserContext(request.getUriInfo(), creds);
+            } else {
                 return abort(request, "Invalid authentication token");
             }
+        } catch (ServerDAO.DAOException e) {
+            log.severe("Authentication Failed("+e.getStatusCode()+") " + e.getMessage());
+            e.printStackTrace();
+            return abort(request, "Invalid authentication token");
         }
     }
 
+    private final TokenCache.Loader credentialsLoader = new TokenCache.Loader() {
+        @Override
+        public Credentials load(String token) throws ServerDAO.DAOException {
+            Query q = new QueryBuilder().select().from(Credentials.class).where(Credentials.AUTH_TOKEN_KEY, OPERAND.EQ, token).build();
+            TransientObject temp = ObjectUtils.get1stOrNull(dao.query(q));
+            return (temp != null) ? new ServerCredentials(temp) : null;
+        }
+    };
+
+    private TokenCache.Loader lazyLoader(final AuthTokenUtils.AuthToken authToken) {
+        final TokenCache.Loader byOwner = new TokenCache.Loader() {
+            @Override
+            public Credentials load(String token) throws ServerDAO.DAOException {
+                Credentials temp = DaoUtils.getUserById(dao, authToken.userId);
+                return (temp != null) ? new ServerCredentials(temp) : null;
+            }
+        };
+        return new TokenCache.Loader() {
+            @Override
+            public Credentials load(String token) throws ServerDAO.DAOException {
+                return securityManager.getTokenCache().get(token, authToken.expirationDate, byOwner);
+            }
+        };
+    }
 
     private UserContext abort(ContainerRequestContext request, String message) {
         log.warning("Auth Failed: " + message);
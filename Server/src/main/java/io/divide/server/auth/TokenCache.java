@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.server.auth;
+
+import io.divide.dao.ServerDAO;
+import io.divide.server.dao.DAOManager;
+import io.divide.server.dao.ServerCredentials;
+import io.divide.shared.event.EventManager;
+import io.divide.shared.event.Subscriber;
+import io.divide.otto.Subscribe;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Query;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounded token -> credentials cache used by SecurityFilter so authenticated requests
+ * do not need a Credentials query. Entries are dropped when their TTL passes or when
+ * DAOManager saves/deletes the Credentials they were built from. Concurrent misses
+ * for the same token are coalesced so only one of them reaches the DAO. Loads racing
+ * an invalidation of the same user are returned but not cached.
+ */
+public class TokenCache implements Subscriber<DAOManager.SAVE_EVENT> {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TTL = (1000 * 60 * 10); // 10 minutes
+
+    private static final String CREDENTIALS_TYPE = Query.safeTable(Credentials.class);
+
+    private final ConcurrentMap<String,Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String,FutureTask<Credentials>> loading = new ConcurrentHashMap<String, FutureTask<Credentials>>();
+
+    // generation each user was last invalidated at, loads started before it must not be cached
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentMap<String,Long> invalidated = new ConcurrentHashMap<String, Long>();
+    private final int maxSize;
+    private final long ttl;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    public TokenCache(){
+        this(DEFAULT_MAX_SIZE, DEFAULT_TTL);
+    }
+
+    public TokenCache(int maxSize, long ttl){
+        if(maxSize < 1) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        if(ttl < 1) throw new IllegalArgumentException("ttl must be positive: " + ttl);
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Registers this cache for DAOManager save/delete events so cached credentials are
+     * invalidated whenever the backing Credentials object changes. Registered synchronously
+     * so credentials are invalidated before the save returns.
+     * @return this cache.
+     */
+    public TokenCache listen(){
+        EventManager.get().register(this);
+        return this;
+    }
+
+    /**
+     * @param token auth token as sent in the Authorization header.
+     * @return a private copy of the cached credentials, or null if absent or expired.
+     */
+    public Credentials get(String token){
+        Entry entry = entries.get(token);
+        if(entry == null){
+            misses.incrementAndGet();
+            return null;
+        }
+        if(entry.isExpired(System.currentTimeMillis())){
+            if(entries.remove(token, entry)) evictions.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ServerCredentials(entry.credentials);
+    }
+
+    /**
+     * Returns cached credentials for the token, loading them on a miss. Threads that miss
+     * on the same token while a load is in flight wait for that load instead of starting
+     * their own.
+     * @param token auth token as sent in the Authorization header.
+     * @param tokenExpiration expiration date of the token itself, see {@link #put}.
+     * @param loader looks the credentials up, may return null if the token is unknown.
+     * @return a private copy of the credentials, or null if the loader found none.
+     * @throws ServerDAO.DAOException if the loader failed.
+     */
+    public Credentials get(final String token, final long tokenExpiration, final Loader loader) throws ServerDAO.DAOException {
+        Credentials cached = get(token);
+        if(cached != null) return cached;
+
+        FutureTask<Credentials> task = new FutureTask<Credentials>(new Callable<Credentials>() {
+            @Override
+            public Credentials call() throws Exception {
+                loads.incrementAndGet();
+                long started = generation.get();
+                Credentials loaded = loader.load(token);
+                if(loaded != null){
+                    // stored first and checked after, an invalidation in between sees and drops the entry
+                    Entry entry = store(token, loaded, tokenExpiration);
+                    Long last = invalidated.get(loaded.getObjectKey());
+                    if(entry != null && last != null && last > started && entries.remove(token, entry)){
+                        evictions.incrementAndGet();
+                    }
+                }
+                return loaded;
+            }
+        });
+
+        FutureTask<Credentials> inFlight = loading.putIfAbsent(token, task);
+        if(inFlight == null){
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(token, task);
+            }
+        }
+
+        try {
+            Credentials loaded = inFlight.get();
+            return (loaded != null) ? new ServerCredentials(loaded) : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerDAO.DAOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new ServerDAO.DAOException(cause);
+        }
+    }
+
+    /**
+     * Caches credentials for a token.
+     * @param token auth token credentials were looked up by.
+     * @param credentials credentials to cache, a private copy is stored.
+     * @param tokenExpiration expiration date of the token itself, entry will never outlive it.
+     */
+    public void put(String token, Credentials credentials, long tokenExpiration){
+        store(token, credentials, tokenExpiration);
+    }
+
+    private Entry store(String token, Credentials credentials, long tokenExpiration){
+        long now = System.currentTimeMillis();
+        long expires = Math.min(tokenExpiration, now + ttl);
+        if(expires <= now) return null;
+
+        Entry entry = new Entry(new ServerCredentials(credentials), expires);
+        entries.put(token, entry);
+        if(entries.size() > maxSize) trim(now);
+        return entry;
+    }
+
+    public void invalidate(String token){
+        if(token != null && entries.remove(token) != null) evictions.incrementAndGet();
+    }
+
+    /**
+     * Removes every cached token belonging to the given credentials object.
+     * @param objectKey object key of the Credentials object.
+     */
+    public void invalidateUser(String objectKey){
+        if(objectKey == null) return;
+        forgetInvalidations();
+        invalidated.put(objectKey, generation.incrementAndGet());
+        for(Map.Entry<String,Entry> e : entries.entrySet()){
+            if(objectKey.equals(e.getValue().objectKey)){
+                if(entries.remove(e.getKey(), e.getValue())) evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear(){
+        entries.clear();
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public long getHits(){
+        return hits.get();
+    }
+
+    public long getMisses(){
+        return misses.get();
+    }
+
+    public long getEvictions(){
+        return evictions.get();
+    }
+
+    /**
+     * @return number of times a {@link Loader} was actually invoked.
+     */
+    public long getLoads(){
+        return loads.get();
+    }
+
+    @Override
+    @Subscribe
+    public void onEvent(DAOManager.SAVE_EVENT event) {
+        invalidate(event.getObjects());
+    }
+
+    @Subscribe
+    public void onEvent(DAOManager.DELETE_EVENT event) {
+        invalidate(event.getObjects());
+    }
+
+    private void invalidate(Collection<TransientObject> objects){
+        if(objects == null) return;
+        for(TransientObject o : objects){
+            if(o != null && CREDENTIALS_TYPE.equals(o.getObjectType())){
+                invalidateUser(o.getObjectKey());
+            }
+        }
+    }
+
+    /*
+     * Invalidations only matter to loads in flight. Loads register before reading the generation, so
+     * with none registered after the snapshot every later load starts past what is dropped here.
+     */
+    private void forgetInvalidations(){
+        long snapshot = generation.get();
+        if(!loading.isEmpty()) return;
+        for(Map.Entry<String,Long> e : invalidated.entrySet()){
+            if(e.getValue() <= snapshot) invalidated.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    // drop expired entries first, then arbitrary ones until we are back under maxSize.
+    private void trim(long now){
+        Iterator<Map.Entry<String,Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<String,Entry> e = it.next();
+            if(e.getValue().isExpired(now) && entries.remove(e.getKey(), e.getValue())){
+                evictions.incrementAndGet();
+            }
+        }
+
+        it = entries.entrySet().iterator();
+        while (entries.size() > maxSize && it.hasNext()){
+            Map.Entry<String,Entry> e = it.next();
+            if(entries.remove(e.getKey(), e.getValue())){
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TokenCache{" +
+                "size=" + size() +
+                ", maxSize=" + maxSize +
+                ", ttl=" + ttl +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", loads=" + loads +
+                '}';
+    }
+
+    public interface Loader {
+        Credentials load(String token) throws ServerDAO.DAOException;
+    }
+
+    private static final class Entry {
+        final Credentials credentials;
+        final String objectKey;
+        final long expires;
+
+        Entry(Credentials credentials, long expires){
+            this.credentials = credentials;
+            this.objectKey = credentials.getObjectKey();
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now){
+            return expires <= now;
+        }
+    }
+}
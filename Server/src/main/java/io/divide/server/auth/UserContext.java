@@ -17,6 +17,7 @@
 package io.divide.server.auth;
 
 import io.divide.shared.transitory.Credentials;
+import io.divide.shared.util.AuthTokenUtils;
 
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriInfo;
@@ -25,25 +26,52 @@ import java.security.Principal;
 public class UserContext implements SecurityContext {
     private Credentials creds;
     private UriInfo uriInfo;
+    private String token;
+    private Integer ownerId;
+    private String group;
+    private TokenCache.Loader loader;
 
     public UserContext(UriInfo uriInfo, final Credentials user) {
         this.uriInfo = uriInfo;
         this.creds = user;
+        this.token = user.getAuthToken();
+        this.ownerId = user.getOwnerId();
+        this.group = user.getUserGroup();
         //creds.setPassword("");
-        this.principal = new Principal() {
-            public String getName() {
-                return user.getEmailAddress();
-            }
-        };
     }
 
-    private Principal principal;
+    /**
+     * Context for a stateless token, the full credentials are only loaded on the first
+     * call to {@link #getUser()}.
+     * @param uriInfo request uri info.
+     * @param token raw token as sent by the client.
+     * @param authToken parsed and verified token.
+     * @param loader loads credentials for the token when needed.
+     */
+    public UserContext(UriInfo uriInfo, String token, AuthTokenUtils.AuthToken authToken, TokenCache.Loader loader) {
+        this.uriInfo = uriInfo;
+        this.token = token;
+        this.ownerId = Integer.valueOf(authToken.userId);
+        this.group = authToken.group;
+        this.loader = loader;
+    }
+
+    private Principal principal = new Principal() {
+        public String getName() {
+            Credentials user = getUser();
+            return (user == null) ? null : user.getEmailAddress();
+        }
+    };
 
     public Principal getUserPrincipal() {
         return this.principal;
     }
 
 
+    /**
+     * Roles are derived from the stored credentials only, the group carried by the credentials
+     * or token is never trusted for role checks.
+     */
     public boolean isUserInRole(String role) {
         if ("admin".equals(role)) {
             return "admin".equals(this.principal.getName());
@@ -53,8 +81,9 @@ public class UserContext implements SecurityContext {
                 return true;
             }
             String pathParam = uriInfo.getPathParameters().getFirst("username");
-            if ((pathParam != null) &&
-                    this.principal.getName().endsWith(pathParam)) {
+            String name = this.principal.getName();
+            if ((pathParam != null) && (name != null) &&
+                    name.endsWith(pathParam)) {
                 return true;
             }
         }
@@ -69,11 +98,34 @@ public class UserContext implements SecurityContext {
         return SecurityContext.BASIC_AUTH;
     }
 
-    public Credentials getUser(){
+    public synchronized Credentials getUser(){
+        if(loader != null){
+            creds = loader.load(token);
+            loader = null;
+        }
         return creds;
     }
 
+    /**
+     * @return true if the credentials have been loaded, or never needed loading.
+     */
+    public synchronized boolean isUserLoaded(){
+        return loader == null;
+    }
+
+    public String getAuthToken(){
+        return token;
+    }
+
+    public Integer getOwnerId(){
+        return ownerId;
+    }
+
+    public String getGroup(){
+        return group;
+    }
+
     public UriInfo getUriInfo(){
         return uriInfo;
     }
-}
\ No newline at end of file
+}
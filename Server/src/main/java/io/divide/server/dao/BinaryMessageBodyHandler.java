@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.server.dao;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.util.BinaryFormat;
+import io.divide.shared.util.BinaryReader;
+import io.divide.shared.util.BinaryWriter;
+import io.divide.shared.util.GsonUtils;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/*
+ * Reads and writes entities in {@link BinaryFormat}, mapped like {@link GsonMessageBodyHandler} does for JSON.
+ */
+@Provider
+@Produces(BinaryFormat.MEDIA_TYPE)
+@Consumes(BinaryFormat.MEDIA_TYPE)
+public class BinaryMessageBodyHandler implements MessageBodyWriter<Object>,
+        MessageBodyReader<Object> {
+
+    private static final Gson gson = GsonUtils.GSON;
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return true;
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+        BinaryReader reader = new BinaryReader(entityStream);
+        try {
+            return gson.fromJson(reader.read(), type.equals(genericType) ? type : genericType);
+        } catch (JsonParseException e) {
+            throw new BadRequestException(e);
+        } catch (EOFException e) {
+            throw new BadRequestException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        // credentials are only ever sent through CredentialBodyHandler, which strips passwords
+        return !StreamingOutput.class.isAssignableFrom(type) && !Credentials.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(Object object, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object object, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+        BinaryWriter writer = new BinaryWriter(entityStream);
+        try {
+            gson.toJson(object, type.equals(genericType) ? type : genericType, writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
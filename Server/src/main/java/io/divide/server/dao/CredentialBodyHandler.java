@@ -17,8 +17,8 @@
 package io.divide.server.dao;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import io.divide.shared.transitory.Credentials;
+import io.divide.shared.util.GsonUtils;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
@@ -44,23 +44,13 @@ public class CredentialBodyHandler<T extends Credentials> implements MessageBody
     public static final Logger logger = Logger.getLogger(CredentialBodyHandler.class.getName());
     private static final String UTF_8 = "UTF-8";
 
-    private Gson gson;
+    private static final Gson gson = GsonUtils.GSON;
     private SecurityContext context;
 
     public CredentialBodyHandler(@Context SecurityContext context){
         this.context = context;
     }
 
-    private Gson getGson() {
-        if (gson == null) {
-            final GsonBuilder gsonBuilder = new GsonBuilder();
-            gsonBuilder.enableComplexMapKeySerialization();
-            gsonBuilder.setPrettyPrinting();
-            gson = gsonBuilder.create();
-        }
-        return gson;
-    }
-
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
         return Credentials.class.isAssignableFrom(type);
@@ -91,7 +81,7 @@ public class CredentialBodyHandler<T extends Credentials> implements MessageBody
                 object = (T) object.getSafe();
             }
 
-            getGson().toJson(object, jsonType, writer);
+            gson.toJson(object, jsonType, writer);
             logger.info("sending: " + object);
 
         } finally {
@@ -16,15 +16,21 @@
 
 package io.divide.server.dao;
 
+import io.divide.dao.IndexDefinition;
 import io.divide.dao.ServerDAO;
 import io.divide.shared.event.Event;
 import io.divide.shared.event.EventManager;
+import io.divide.shared.transitory.Credentials;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
 import io.divide.shared.util.ObjectUtils;
 
 import java.security.KeyPair;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
 public final class DAOManager implements ServerDAO {
@@ -35,6 +41,7 @@ public final class DAOManager implements ServerDAO {
     public static final String ACTION_DELETE = "action_delete";
     public static final String ACTION_EXISTS = "action_exists";
 
+    // subscribers which only observe should use EventManager.registerAsync, synchronous ones run on the request thread.
     private EventManager eventManager = EventManager.get();
     private ServerDAO serverDao;
 
@@ -56,19 +63,44 @@ public final class DAOManager implements ServerDAO {
         return results;
     }
 
+    /**
+     * UPDATE and DELETE queries only return how many objects they changed, so they fire no
+     * {@link SAVE_EVENT} or {@link DELETE_EVENT}, listeners of the queried type do not see them.
+     * They are rejected for Credentials, whose listeners (such as the token cache) must see every write.
+     */
     @Override
     public <O extends TransientObject> List<O> query(Query query) throws DAOException {
+        if(!query.getAction().equals(QueryBuilder.QueryAction.SELECT) && query.getFrom().equals(Query.safeTable(Credentials.class)))
+            throw new DAOException(403, query.getAction() + " of Credentials is FORBIDDEN");
         List<O> results = serverDao.query(query);
         eventManager.fire(new QUERY_EVENT<O>(results));
         return results;
     }
 
+    /**
+     * Streamed results are never collected, so no {@link QUERY_EVENT} is fired for them.
+     */
+    @Override
+    public Iterator<TransientObject> stream(Query query) throws DAOException {
+        return serverDao.stream(query);
+    }
+
     @Override
     public void save(TransientObject... objects) throws DAOException {
         serverDao.save(objects);
         eventManager.fire(new SAVE_EVENT(objects));
     }
 
+    /**
+     * Listeners see patched objects as saved, with their patched state.
+     */
+    @Override
+    public Collection<TransientObject> patch(Patch... patches) throws DAOException {
+        Collection<TransientObject> patched = serverDao.patch(patches);
+        eventManager.fire(new SAVE_EVENT(patched.toArray(new TransientObject[patched.size()])));
+        return patched;
+    }
+
     @Override
     public void delete(TransientObject... objects) throws DAOException {
         serverDao.delete(objects);
@@ -82,6 +114,13 @@ public final class DAOManager implements ServerDAO {
         return exists;
     }
 
+    @Override
+    public BitSet existing(TransientObject... objects) {
+        BitSet existing = serverDao.existing(objects);
+        eventManager.fire(new EXISTS_EVENT(objects));
+        return existing;
+    }
+
     @Override
     public int count(String objectType) {
         return serverDao.count(objectType);
@@ -92,12 +131,21 @@ public final class DAOManager implements ServerDAO {
         return serverDao.keys(keys);
     }
 
+    @Override
+    public void index(IndexDefinition... indexes) {
+        serverDao.index(indexes);
+    }
+
     public static final class QUERY_EVENT<T extends TransientObject> extends Event {
         Collection<T> transientObjects;
         protected QUERY_EVENT(Collection<T> transientObjects) {
             super(DAOManager.class);
             this.transientObjects = transientObjects;
         }
+
+        public Collection<T> getObjects(){
+            return transientObjects;
+        }
     }
 
     public static final class GET_EVENT<T extends TransientObject> extends Event {
@@ -106,6 +154,10 @@ public final class DAOManager implements ServerDAO {
             super(DAOManager.class);
             this.transientObjects = transientObjects;
         }
+
+        public Collection<T> getObjects(){
+            return transientObjects;
+        }
     }
 
     public static final class SAVE_EVENT extends Event {
@@ -114,6 +166,10 @@ public final class DAOManager implements ServerDAO {
             super(DAOManager.class);
             this.transientObjects = ObjectUtils.v2c(object);
         }
+
+        public Collection<TransientObject> getObjects(){
+            return transientObjects;
+        }
     }
 
     public static final class DELETE_EVENT extends Event {
@@ -122,6 +178,10 @@ public final class DAOManager implements ServerDAO {
             super(DAOManager.class);
             this.transientObjects = ObjectUtils.v2c(object);
         }
+
+        public Collection<TransientObject> getObjects(){
+            return transientObjects;
+        }
     }
 
     public static final class EXISTS_EVENT extends Event {
@@ -130,6 +190,10 @@ public final class DAOManager implements ServerDAO {
             super(DAOManager.class);
             this.transientObjects = ObjectUtils.v2c(object);
         }
+
+        public Collection<TransientObject> getObjects(){
+            return transientObjects;
+        }
     }
 
 
@@ -17,13 +17,14 @@
 package io.divide.server.dao;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import io.divide.shared.util.GsonUtils;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
@@ -39,17 +40,7 @@ public class GsonMessageBodyHandler implements MessageBodyWriter<Object>,
 
     private static final String UTF_8 = "UTF-8";
 
-    private Gson gson;
-
-    private Gson getGson() {
-        if (gson == null) {
-            final GsonBuilder gsonBuilder = new GsonBuilder();
-            gsonBuilder.enableComplexMapKeySerialization();
-//            gsonBuilder.setPrettyPrinting();
-            gson = gsonBuilder.create();
-        }
-        return gson;
-    }
+    private static final Gson gson = GsonUtils.GSON;
 
     @Override
     public boolean isReadable(Class<?> type, Type genericType,
@@ -67,7 +58,7 @@ public class GsonMessageBodyHandler implements MessageBodyWriter<Object>,
             } else {
                 jsonType = genericType;
             }
-            return getGson().fromJson(streamReader, jsonType);
+            return gson.fromJson(streamReader, jsonType);
         } finally {
             streamReader.close();
         }
@@ -75,7 +66,7 @@ public class GsonMessageBodyHandler implements MessageBodyWriter<Object>,
 
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
-        return true;
+        return !StreamingOutput.class.isAssignableFrom(type); // already writes itself
     }
 
     @Override
@@ -93,7 +84,7 @@ public class GsonMessageBodyHandler implements MessageBodyWriter<Object>,
             } else {
                 jsonType = genericType;
             }
-            getGson().toJson(object, jsonType, writer);
+            gson.toJson(object, jsonType, writer);
         } finally {
             writer.close();
         }
@@ -20,6 +20,7 @@ import io.divide.shared.util.ReflectionUtils;
 import io.divide.shared.transitory.Credentials;
 import io.divide.shared.transitory.TransientObject;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class ServerCredentials extends Credentials {
@@ -29,8 +30,9 @@ public class ServerCredentials extends Credentials {
             Map meta = (Map) ReflectionUtils.getObjectField(serverObject, TransientObject.META_DATA);
             Map user = (Map) ReflectionUtils.getObjectField(serverObject,TransientObject.USER_DATA);
 
-            ReflectionUtils.setObjectField(this, TransientObject.META_DATA, meta);
-            ReflectionUtils.setObjectField(this, TransientObject.USER_DATA, user);
+            // copy so the new credentials never share state with the source object.
+            ReflectionUtils.setObjectField(this, TransientObject.META_DATA, meta == null ? null : new LinkedHashMap(meta));
+            ReflectionUtils.setObjectField(this, TransientObject.USER_DATA, user == null ? null : new LinkedHashMap(user));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (IllegalAccessException e) {
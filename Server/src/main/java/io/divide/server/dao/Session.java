@@ -45,7 +45,8 @@ public class Session {
     }
 
     public boolean loggedIn(){
-        return (userContext != null && userContext.getUser() != null);
+        // avoid forcing a credentials load for stateless tokens
+        return (userContext != null && (!userContext.isUserLoaded() || userContext.getUser() != null));
     }
 
     public UriInfo getUriInfo(){
@@ -24,6 +24,7 @@ import io.divide.server.dao.Session;
 import io.divide.shared.server.AuthServerLogic;
 import io.divide.shared.transitory.Credentials;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.util.BinaryFormat;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import javax.annotation.PostConstruct;
@@ -60,7 +61,7 @@ public final class AuthenticationEndpoint{
      */
 
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     @Produces(MediaType.APPLICATION_JSON)
     public Response userSignUp(@Context ContainerRequestContext context, Credentials credentials) {
         try{
@@ -87,7 +88,7 @@ public final class AuthenticationEndpoint{
      */
 
     @PUT
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     @Produces(MediaType.APPLICATION_JSON)
     public Response userSignIn(@Context ContainerRequestContext context, Credentials credentials) {
         try{
@@ -216,7 +217,7 @@ public final class AuthenticationEndpoint{
 
     @POST
     @Path("/user/data/{userId}")
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     @Produces(MediaType.APPLICATION_JSON)
     public Response recieveUserData(@Context Session session, @PathParam("userId") String userId, Map<String,?> data) {
         try{
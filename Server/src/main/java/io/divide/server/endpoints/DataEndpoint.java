@@ -16,34 +16,47 @@
 
 package io.divide.server.endpoints;
 
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import io.divide.server.dao.DAOManager;
 import io.divide.server.dao.Session;
 import io.divide.server.utils.ResponseUtils;
 import io.divide.dao.ServerDAO;
+import io.divide.shared.util.BinaryFormat;
+import io.divide.shared.util.BinaryWriter;
+import io.divide.shared.util.GsonUtils;
 import io.divide.shared.util.ObjectUtils;
 import io.divide.shared.transitory.Credentials;
 import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Patch;
 import io.divide.shared.transitory.query.Query;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.logging.Logger;
 
 @Path("/data")
 public class DataEndpoint {
     private Logger logger = Logger.getLogger(DataEndpoint.class.getName());
+    private static final Gson gson = GsonUtils.GSON;
 
     @Context
     DAOManager dao;
 
     @POST
     @Path("/get/{objectType}")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     public Response get( @PathParam("objectType") String objectType, Collection<String> keys) {
         try { logger.info("get: " + keys);
             return Response
@@ -57,12 +70,12 @@ public class DataEndpoint {
 
     @POST
     @Path("/query")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     public Response query(@Context Session session,Query query) {
         try { logger.info("query: " + query);
             // not allowed to query credentials type
-            if(query.getFrom().equals(Credentials.class.getName())){
+            if(query.getFrom().equals(Query.safeTable(Credentials.class))){
                 return Response.status(Response.Status.FORBIDDEN).entity("Query of Credentials is FORBIDDEN").build();
             }
             return Response
@@ -74,12 +87,55 @@ public class DataEndpoint {
         }
     }
 
+    /**
+     * Same as {@link #query(Session, Query)}, but objects are written to the response one at a
+     * time while they are read from the database instead of being collected first.
+     */
+    @POST
+    @Path("/query/stream")
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    public Response queryStream(@Context Session session, @Context HttpHeaders headers, Query query) {
+        try { logger.info("queryStream: " + query);
+            // not allowed to query credentials type
+            if(query.getFrom().equals(Query.safeTable(Credentials.class))){
+                return Response.status(Response.Status.FORBIDDEN).entity("Query of Credentials is FORBIDDEN").build();
+            }
+            final Iterator<TransientObject> results = dao.stream(query);
+            results.hasNext(); // run the query now, so failures still map to a status
+            final boolean binary = acceptsBinary(headers);
+            return Response
+                    .ok()
+                    .type(binary ? BinaryFormat.MEDIA_TYPE : MediaType.APPLICATION_JSON)
+                    .entity(new StreamingOutput() {
+                        @Override
+                        public void write(OutputStream output) throws IOException {
+                            JsonWriter writer = binary ? new BinaryWriter(output) : new JsonWriter(new OutputStreamWriter(output, "UTF-8"));
+                            writer.beginArray();
+                            while(results.hasNext()){
+                                TransientObject o = results.next();
+                                gson.toJson(o, o.getClass(), writer);
+                            }
+                            writer.endArray();
+                            writer.flush();
+                        }
+                    })
+                    .build();
+        }catch (ServerDAO.DAOException e) {
+            return ResponseUtils.fromDAOExpection(e);
+        }
+    }
+
     @POST
     @Path("/save")
-    @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     public Response save(Collection<ServerObject> objects) {
         try { logger.info("save: " + objects);
+            for(ServerObject o : objects){
+                if(o.isPartial())
+                    return Response.status(Response.Status.BAD_REQUEST).entity("Partial objects can not be saved").build();
+            }
             dao.save(ObjectUtils.c2v(objects));
 
             return Response
@@ -90,6 +146,29 @@ public class DataEndpoint {
         }
     }
 
+    /**
+     * Applies field level changes to stored objects in place, see {@link Patch}.
+     * @return patched objects, objects that are not stored are left out.
+     */
+    @POST
+    @Path("/patch")
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    @Produces({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
+    public Response patch(Collection<Patch> patches) {
+        try { logger.info("patch: " + patches);
+            for(Patch p : patches){
+                if(Query.safeTable(Credentials.class).equals(p.getObjectType()))
+                    return Response.status(Response.Status.FORBIDDEN).entity("Patch of Credentials is FORBIDDEN").build();
+            }
+            return Response
+                    .ok()
+                    .entity(dao.patch(patches.toArray(new Patch[patches.size()])))
+                    .build();
+        }catch (ServerDAO.DAOException e) {
+            return ResponseUtils.fromDAOExpection(e);
+        }
+    }
+
     @GET
     @Path("/count/{objectType}")
     public Response count(@Context Session session, @PathParam("objectType") String objectType) {
@@ -107,6 +186,18 @@ public class DataEndpoint {
     }
 
 
+    /**
+     * @return whether the most preferred of the accepted types that this endpoint produces is the binary format.
+     */
+    private static boolean acceptsBinary(HttpHeaders headers){
+        MediaType binary = MediaType.valueOf(BinaryFormat.MEDIA_TYPE);
+        for(MediaType type : headers.getAcceptableMediaTypes()){
+            if(type.isCompatible(MediaType.APPLICATION_JSON_TYPE)) return false;
+            if(type.isCompatible(binary)) return true;
+        }
+        return false;
+    }
+
     private static class ServerObject extends TransientObject{
 
         private ServerObject() {
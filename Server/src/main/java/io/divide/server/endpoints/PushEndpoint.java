@@ -25,6 +25,7 @@ import io.divide.server.dao.DAOManager;
 import io.divide.server.dao.Session;
 import io.divide.shared.transitory.Credentials;
 import io.divide.shared.transitory.EncryptedEntity;
+import io.divide.shared.util.BinaryFormat;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import javax.ws.rs.*;
@@ -37,6 +38,7 @@ import java.util.logging.Logger;
 
 import static io.divide.shared.util.DaoUtils.getUserByEmail;
 import static io.divide.server.utils.ResponseUtils.fromDAOExpection;
+import static io.divide.server.utils.ResponseUtils.notAuthReponse;
 import static io.divide.shared.server.DAO.DAOException;
 
 @Path("/push")
@@ -51,10 +53,11 @@ public class PushEndpoint {
     currently failing as the decryption key is probably different
      */
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, BinaryFormat.MEDIA_TYPE})
     public Response register(@Context Session session,EncryptedEntity.Reader entity){
         try{
             Credentials credentials = session.getUser();
+            if(credentials == null) return notAuthReponse("User not found");
             entity.setKey(keyManager.getPrivateKey());
 
             credentials.setPushMessagingKey(entity.get("token"));
@@ -74,6 +77,7 @@ public class PushEndpoint {
     public Response unregister(@Context Session session){
         try{
             Credentials credentials = session.getUser();
+            if(credentials == null) return notAuthReponse("User not found");
             credentials.setPushMessagingKey("");
             dao.save(credentials);
         } catch (ServerDAO.DAOException e) {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.server;
+
+import io.divide.server.endpoints.AuthenticationEndpointTest;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.util.IOUtils;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest extends ServerTest {
+
+    @Test
+    public void testCompressedResponse() throws Exception {
+        // the server runs its own instance of the application, its threshold is the default
+        String path = "/test/body";
+        int size = 4 * GZIPWriterInterceptor.DEFAULT_THRESHOLD;
+        String plain = target(path).queryParam("size", size).request().get(String.class);
+        assertEquals(size, plain.length());
+
+        Response response = target(path).queryParam("size", size).request().header("Accept-Encoding", "br, gzip;q=0.8, deflate").get();
+        assertEquals("gzip", response.getHeaderString("Content-Encoding"));
+        assertEquals(plain, IOUtils.toString(new GZIPInputStream(response.readEntity(InputStream.class))).trim());
+
+        response = target(path).queryParam("size", size).request().header("Accept-Encoding", "gzip;q=0, deflate").get();
+        assertEquals("deflate", response.getHeaderString("Content-Encoding"));
+        assertEquals(plain, IOUtils.toString(new InflaterInputStream(response.readEntity(InputStream.class))).trim());
+
+        response = target(path).queryParam("size", size).request().header("Accept-Encoding", "br").get();
+        assertNull(response.getHeaderString("Content-Encoding"));
+        assertEquals(plain, response.readEntity(String.class));
+
+        // bodies up to the threshold go out as they are
+        response = target(path).queryParam("size", GZIPWriterInterceptor.DEFAULT_THRESHOLD).request().header("Accept-Encoding", "gzip").get();
+        assertNull(response.getHeaderString("Content-Encoding"));
+    }
+
+    @Test
+    public void testAcceptEncoding() throws Exception {
+        assertEquals("gzip", GZIPWriterInterceptor.accepted(Arrays.asList("br", "x-gzip")));
+        assertEquals("deflate", GZIPWriterInterceptor.accepted(Arrays.asList("br, deflate, gzip")));
+        assertEquals("gzip", GZIPWriterInterceptor.accepted(Arrays.asList("deflate;q=0.0, gzip")));
+        assertNull(GZIPWriterInterceptor.accepted(Arrays.asList("gzip;q=0", "identity")));
+        assertNull(GZIPWriterInterceptor.accepted(null));
+    }
+
+    @Test
+    public void testCompressedRequest() throws Exception {
+        Credentials user = TestUtils.getTestUser();
+        user.encryptPassword(AuthenticationEndpointTest.getPublicKey(this));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(TestUtils.getGson().toJson(user).getBytes("UTF-8"));
+        gzip.close();
+
+        assertEquals(Response.Status.Family.SUCCESSFUL, Response.Status.Family.familyOf(post("/auth", "gzip", bytes.toByteArray())));
+        assertEquals(Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(), post("/auth", "br", bytes.toByteArray()));
+    }
+
+    // the jersey client drops Content-Encoding without a registered encoder
+    private int post(String path, String contentEncoding, byte[] body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) target(path).getUri().toURL().openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", MediaType.APPLICATION_JSON);
+        connection.setRequestProperty("Content-Encoding", contentEncoding);
+        OutputStream out = connection.getOutputStream();
+        out.write(body);
+        out.close();
+        return connection.getResponseCode();
+    }
+}
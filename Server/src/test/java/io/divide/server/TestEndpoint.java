@@ -21,6 +21,7 @@ import io.divide.server.auth.SecManager;
 import io.divide.server.dao.DAOManager;
 import io.divide.server.dao.ServerCredentials;
 import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
 import io.divide.shared.transitory.query.QueryBuilder;
 import io.divide.shared.util.AuthTokenUtils;
 import org.mindrot.jbcrypt.BCrypt;
@@ -30,9 +31,12 @@ import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 @Path("/test")
@@ -47,6 +51,19 @@ public class TestEndpoint {
     private void addPaths(){
         securityManager.addSafePath("/test/setup");
         securityManager.addSafePath("/test/teardown");
+        securityManager.addSafePath("/test/body");
+    }
+
+    /**
+     * Plain text body of the given size, for tests that depend on the size of a response.
+     */
+    @Produces(MediaType.TEXT_PLAIN)
+    @GET
+    @Path("/body")
+    public Response body(@QueryParam("size") int size){
+        char[] body = new char[size];
+        Arrays.fill(body, 'a');
+        return Response.ok().entity(new String(body)).build();
     }
 
     @Produces(MediaType.APPLICATION_JSON)
@@ -79,7 +96,9 @@ public class TestEndpoint {
         logger.info("teardown");
 
         try {
-            dao.query(new QueryBuilder().delete().from(Credentials.class).build());
+            // deleted one by one, bulk deletes of credentials are rejected as they fire no events
+            List<TransientObject> users = dao.query(new QueryBuilder().select().from(Credentials.class).build());
+            dao.delete(users.toArray(new TransientObject[users.size()]));
         } catch (ServerDAO.DAOException e) {
             e.printStackTrace();
         }
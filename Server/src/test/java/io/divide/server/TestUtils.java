@@ -17,7 +17,6 @@
 package io.divide.server;
 
 import com.google.gson.Gson;
-import com.orientechnologies.orient.core.db.document.ODatabaseDocument;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import io.divide.dao.ServerDAO;
@@ -45,6 +44,7 @@ public class TestUtils {
         public void tearDown() throws ServerDAO.DAOException {
 //            db.release();
             serverDao.query(new QueryBuilder().delete().from(Credentials.class).build());
+            ((OrientDBDao) serverDao).close();
             db.drop();
             db.close();
         }
@@ -59,7 +59,7 @@ public class TestUtils {
         } else {
             container.db.create();
         }
-        container.serverDao = new OrientDBDao((ODatabaseDocument) container.db);
+        container.serverDao = new OrientDBDao(container.db.getURL(), OrientDBDao.DEFAULT_POOL_SIZE);
         try {
             container.serverDao.query(new QueryBuilder().delete().from(Credentials.class).build());
         } catch (ServerDAO.DAOException e) {
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.server;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.divide.server.endpoints.AuthenticationEndpointTest;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+import io.divide.shared.util.BinaryFormat;
+import io.divide.shared.util.BinaryReader;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WireFormatTest extends ServerTest {
+
+    private static final Gson gson = new Gson();
+    private static final Type OBJECTS = new TypeToken<List<WireObject>>(){}.getType();
+    private static final String BINARY_FIRST = BinaryFormat.MEDIA_TYPE + ", " + MediaType.APPLICATION_JSON + ";q=0.5";
+
+    @Test
+    public void testNegotiation() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        List<WireObject> objects = new ArrayList<WireObject>();
+        for(int i = 0; i < 5; i++){
+            WireObject o = new WireObject();
+            o.put("index", i);
+            o.put("name", "object " + i);
+            objects.add(o);
+        }
+
+        Response saved = request("/data/save", user, MediaType.APPLICATION_JSON)
+                .post(Entity.entity(BinaryFormat.toBytes(gson, objects, OBJECTS), BinaryFormat.MEDIA_TYPE));
+        assertEquals(200, saved.getStatus());
+
+        byte[] query = BinaryFormat.toBytes(gson, new QueryBuilder().select().from(WireObject.class).build(), Query.class);
+
+        Response binary = request("/data/query", user, BINARY_FIRST).post(Entity.entity(query, BinaryFormat.MEDIA_TYPE));
+        assertEquals(200, binary.getStatus());
+        assertEquals(BinaryFormat.MEDIA_TYPE, binary.getMediaType().toString());
+        List<WireObject> read = BinaryFormat.fromBytes(gson, binary.readEntity(byte[].class), OBJECTS);
+        assertEquals(5, read.size());
+
+        Response json = request("/data/query", user, MediaType.APPLICATION_JSON).post(Entity.entity(query, BinaryFormat.MEDIA_TYPE));
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, json.getMediaType());
+        List<WireObject> readJson = gson.fromJson(json.readEntity(String.class), OBJECTS);
+        assertEquals(5, readJson.size());
+
+        Response stream = request("/data/query/stream", user, BINARY_FIRST).post(Entity.entity(query, BinaryFormat.MEDIA_TYPE));
+        assertEquals(BinaryFormat.MEDIA_TYPE, stream.getMediaType().toString());
+        BinaryReader reader = new BinaryReader(new ByteArrayInputStream(stream.readEntity(byte[].class)));
+        reader.beginArray();
+        int count = 0;
+        while(reader.hasNext()){
+            assertNotNull(gson.fromJson(reader.read(), WireObject.class).getObjectKey());
+            count++;
+        }
+        assertEquals(5, count);
+
+        // auth endpoints keep answering in JSON, credentials are only written by CredentialBodyHandler
+        Response key = target("/auth/key").request().header("Accept", BINARY_FIRST).get();
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, key.getMediaType());
+    }
+
+    @Test
+    public void testMalformedBinary() throws Exception {
+        // a declared string length of almost 2GB followed by nothing
+        byte[] hostile = new byte[]{ 11, 6, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        Response response = target("/auth").request().post(Entity.entity(hostile, BinaryFormat.MEDIA_TYPE));
+        assertEquals(400, response.getStatus());
+
+        byte[] truncated = new byte[]{ 11, 6, 0x05, 'a' };
+        response = target("/auth").request().put(Entity.entity(truncated, BinaryFormat.MEDIA_TYPE));
+        assertEquals(400, response.getStatus());
+    }
+
+    private Invocation.Builder request(String path, Credentials user, String accept){
+        return target(path)
+                .request()
+                .header("Accept", accept)
+                .header(ContainerRequest.AUTHORIZATION, "CUSTOM " + user.getAuthToken());
+    }
+
+    public static class WireObject extends TransientObject {
+        public WireObject(){
+            super(WireObject.class);
+        }
+    }
+}
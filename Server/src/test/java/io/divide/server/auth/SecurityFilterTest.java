@@ -16,11 +16,91 @@
 
 package io.divide.server.auth;
 
+import io.divide.server.ServerTest;
+import io.divide.server.TestUtils;
+import io.divide.server.dao.DAOManager;
+import io.divide.server.endpoints.AuthenticationEndpointTest;
+import io.divide.shared.event.EventManager;
+import io.divide.shared.event.Subscriber;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Query;
+import org.glassfish.jersey.server.ContainerRequest;
 import org.junit.Test;
 
-public class SecurityFilterTest {
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class SecurityFilterTest extends ServerTest {
+
     @Test
     public void testFilter() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        assertEquals(200, count(user.getAuthToken()));
+        assertEquals(401, count(TestUtils.getTestUser().getAuthToken())); // well formed, but never issued
+    }
+
+    @Test
+    public void testConcurrentRequestsShareLookup() throws Exception {
+        final Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        final int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+        CredentialsQueryCounter counter = new CredentialsQueryCounter();
+        EventManager.get().register(counter);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for(int x=0;x<threads;x++){
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return count(user.getAuthToken());
+                    }
+                }));
+            }
+            start.countDown();
+
+            for(Future<Integer> result : results){
+                assertEquals(200, (int) result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+            EventManager.get().unregister(counter);
+        }
+
+        assertEquals(1, counter.lookups.get());
+    }
+
+    private int count(String token){
+        return target("/data/count/" + Query.safeTable(Credentials.class))
+                .request()
+                .header(ContainerRequest.AUTHORIZATION, "CUSTOM " + token)
+                .get()
+                .getStatus();
+    }
+
+    public static class CredentialsQueryCounter implements Subscriber<DAOManager.QUERY_EVENT> {
+        final AtomicInteger lookups = new AtomicInteger();
 
+        @Override
+        public void onEvent(DAOManager.QUERY_EVENT event) {
+            for(Object o : event.getObjects()){
+                if(Query.safeTable(Credentials.class).equals(((TransientObject) o).getObjectType())){
+                    lookups.incrementAndGet();
+                    return;
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.server.auth;
+
+import io.divide.server.ServerTest;
+import io.divide.server.TestApplication;
+import io.divide.server.TestUtils;
+import io.divide.server.endpoints.AuthenticationEndpointTest;
+import io.divide.shared.event.EventManager;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.util.AuthTokenUtils;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Test;
+
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StatelessAuthTest extends ServerTest {
+
+    // the test container deploys the application by class name
+    public static class StatelessApplication extends TestApplication {
+        public StatelessApplication(){
+            setTokenFormat(AuthTokenUtils.TokenFormat.STATELESS);
+        }
+    }
+
+    @Override
+    protected Application configure() {
+        super.configure();
+        return new StatelessApplication();
+    }
+
+    @Test
+    public void testNoLookupForDataCalls() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        assertTrue(new AuthTokenUtils.AuthToken(TestUtils.KEY, user.getAuthToken()).isStateless());
+
+        SecurityFilterTest.CredentialsQueryCounter counter = new SecurityFilterTest.CredentialsQueryCounter();
+        EventManager.get().register(counter);
+        try {
+            for(int x=0;x<5;x++){
+                Response response = request("/data/count/" + Query.safeTable(Credentials.class), user.getAuthToken()).get();
+                assertEquals(200, response.getStatus());
+                assertEquals(user.getAuthToken(), response.getHeaderString("Authorization"));
+            }
+            assertEquals(0, counter.lookups.get());
+
+            // endpoints that need the full credentials load them lazily
+            assertEquals(200, request("/push", user.getAuthToken()).delete().getStatus());
+            assertEquals(1, counter.lookups.get());
+        } finally {
+            EventManager.get().unregister(counter);
+        }
+    }
+
+    @Test
+    public void testSelfDeclaredGroupIgnored() throws Exception {
+        Credentials signUp = TestUtils.getTestUser();
+        signUp.setUserGroup("admin");
+        signUp.encryptPassword(AuthenticationEndpointTest.getPublicKey(this));
+        String json = target("/auth").request().post(TestUtils.toEntity(signUp), String.class);
+        Credentials user = TestUtils.getGson().fromJson(json, Credentials.class);
+
+        assertNull(user.getUserGroup());
+        AuthTokenUtils.AuthToken token = new AuthTokenUtils.AuthToken(TestUtils.KEY, user.getAuthToken());
+        assertNull(token.group);
+
+        // even a validly signed token claiming the admin group does not grant the admin role
+        signUp.setUserGroup("admin");
+        final Credentials forged = signUp;
+        token = new AuthTokenUtils.AuthToken(TestUtils.KEY,
+                AuthTokenUtils.getNewToken(TestUtils.KEY, forged, AuthTokenUtils.TokenFormat.STATELESS));
+        assertEquals("admin", token.group);
+        UserContext context = new UserContext(null, forged.getAuthToken(), token, new TokenCache.Loader() {
+            @Override
+            public Credentials load(String t) {
+                return forged;
+            }
+        });
+        assertFalse(context.isUserInRole("admin"));
+    }
+
+    private Invocation.Builder request(String path, String token){
+        return target(path)
+                .request()
+                .header(ContainerRequest.AUTHORIZATION, "CUSTOM " + token);
+    }
+}
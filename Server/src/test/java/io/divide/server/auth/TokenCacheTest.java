@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.server.auth;
+
+import io.divide.dao.ServerDAO;
+import io.divide.server.TestUtils;
+import io.divide.server.dao.DAOManager;
+import io.divide.server.dao.ServerCredentials;
+import io.divide.shared.event.EventManager;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TokenCacheTest {
+
+    TokenCache cache;
+    Credentials user;
+
+    @Before
+    public void setUp(){
+        cache = new TokenCache(2, TokenCache.DEFAULT_TTL).listen();
+        user = TestUtils.getTestUser();
+    }
+
+    @After
+    public void tearDown(){
+        EventManager.get().unregister(cache);
+    }
+
+    @Test
+    public void testHitAndMiss(){
+        assertNull(cache.get(user.getAuthToken()));
+        cache.put(user.getAuthToken(), user, Long.MAX_VALUE);
+
+        Credentials cached = cache.get(user.getAuthToken());
+        assertNotNull(cached);
+        assertEquals(user.getEmailAddress(), cached.getEmailAddress());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testCopiesAreIsolated(){
+        cache.put(user.getAuthToken(), user, Long.MAX_VALUE);
+        cache.get(user.getAuthToken()).setPushMessagingKey("changed");
+        assertNull(cache.get(user.getAuthToken()).getPushMessagingKey());
+    }
+
+    @Test
+    public void testTokenExpiration(){
+        cache.put(user.getAuthToken(), user, System.currentTimeMillis() - 1);
+        assertNull(cache.get(user.getAuthToken()));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded(){
+        cache.put("1", user, Long.MAX_VALUE);
+        cache.put("2", user, Long.MAX_VALUE);
+        cache.put("3", user, Long.MAX_VALUE);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testBulkWritesOfCredentialsRejected() throws Exception {
+        TestUtils.TestWrapper container = TestUtils.setUp();
+        try {
+            DAOManager manager = new DAOManager(container.serverDao);
+            manager.save(new ServerCredentials(user));
+            cache.put(user.getAuthToken(), user, Long.MAX_VALUE);
+
+            // no save or delete event would reach the cache
+            Query update = new QueryBuilder().update().from(Credentials.class).set("pushMessagingKey", "changed").build();
+            Query delete = new QueryBuilder().delete().from(Credentials.class).build();
+            for(Query query : Arrays.asList(update, delete)){
+                try {
+                    manager.query(query);
+                    fail(query.getAction() + " of Credentials should be rejected");
+                } catch (ServerDAO.DAOException e){
+                    assertEquals(403, e.getStatusCode());
+                }
+            }
+            assertEquals(1, manager.count(Query.safeTable(Credentials.class)));
+            assertNotNull(cache.get(user.getAuthToken()));
+        } finally {
+            container.tearDown();
+        }
+    }
+
+    @Test
+    public void testInvalidatedOnSave() throws Exception {
+        TestUtils.TestWrapper container = TestUtils.setUp();
+        try {
+            cache.put(user.getAuthToken(), user, Long.MAX_VALUE);
+            DAOManager manager = new DAOManager(container.serverDao);
+            manager.save(new ServerCredentials(user));
+            assertNull(cache.get(user.getAuthToken()));
+            assertEquals(1, cache.getEvictions());
+        } finally {
+            container.tearDown();
+        }
+    }
+
+    @Test
+    public void testConcurrentMissesCoalesced() throws Exception {
+        final int threads = 16;
+        final AtomicInteger lookups = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final TokenCache.Loader loader = new TokenCache.Loader() {
+            @Override
+            public Credentials load(String token) {
+                lookups.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return user;
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch started = new CountDownLatch(threads);
+            List<Future<Credentials>> results = new ArrayList<Future<Credentials>>();
+            for(int x=0;x<threads;x++){
+                results.add(executor.submit(new Callable<Credentials>() {
+                    @Override
+                    public Credentials call() throws Exception {
+                        started.countDown();
+                        return cache.get(user.getAuthToken(), Long.MAX_VALUE, loader);
+                    }
+                }));
+            }
+            started.await(10, TimeUnit.SECONDS);
+            Thread.sleep(100);
+            release.countDown();
+
+            for(Future<Credentials> result : results){
+                assertEquals(user.getEmailAddress(), result.get(10, TimeUnit.SECONDS).getEmailAddress());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getLoads());
+        assertNotNull(cache.get(user.getAuthToken()));
+    }
+
+    @Test
+    public void testInvalidatedDuringLoad() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TokenCache.Loader loader = new TokenCache.Loader() {
+            @Override
+            public Credentials load(String token) {
+                loading.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return user; // read before the invalidation below
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Credentials> result = executor.submit(new Callable<Credentials>() {
+                @Override
+                public Credentials call() throws Exception {
+                    return cache.get(user.getAuthToken(), Long.MAX_VALUE, loader);
+                }
+            });
+            assertTrue(loading.await(10, TimeUnit.SECONDS));
+            cache.invalidateUser(user.getObjectKey());
+            release.countDown();
+
+            assertNotNull(result.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // the stale credentials were returned to the racing request but not cached
+        assertNull(cache.get(user.getAuthToken()));
+        assertEquals(0, cache.size());
+
+        // loads started after the invalidation are cached again
+        assertNotNull(cache.get(user.getAuthToken(), Long.MAX_VALUE, loader));
+        assertNotNull(cache.get(user.getAuthToken()));
+        assertEquals(2, cache.getLoads());
+    }
+
+    @Test
+    public void testUnknownTokenNotCached() throws Exception {
+        TokenCache.Loader loader = new TokenCache.Loader() {
+            @Override
+            public Credentials load(String token) {
+                return null;
+            }
+        };
+        assertNull(cache.get("unknown", Long.MAX_VALUE, loader));
+        assertNull(cache.get("unknown", Long.MAX_VALUE, loader));
+        assertEquals(2, cache.getLoads());
+        assertEquals(0, cache.size());
+    }
+}
@@ -16,49 +16,136 @@
 
 package io.divide.server.endpoints;
 
-public class DataEndpointTest /*extends JerseyTest*/ {
-
-//    @Path("hello")
-//    public static class HelloResource {
-//        @GET
-//        public String getHello() {
-//            return "Hello World!";
-//        }
-//    }
-//
-//    @Override
-//    protected Application configure() {
-//        return new ResourceConfig(HelloResource.class);
-//    }
-//
-////    @Test
-//    public void test() {
-//        final String hello = target("hello").request().get(String.class);
-//        assertEquals("Hello World!", hello);
-//    }
-
-//    @Before
-//    public void setUp() throws Exception {
-//
-//    }
-//
-//    @After
-//    public void tearDown() throws Exception {
-//
-//    }
-//
-//    @Test
-//    public void testGet() throws Exception {
-//
-//    }
-//
-//    @Test
-//    public void testQuery() throws Exception {
-//
-//    }
-//
-//    @Test
-//    public void testSave() throws Exception {
-//
-//    }
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import io.divide.server.ServerTest;
+import io.divide.server.TestUtils;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Patch;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+import io.divide.shared.util.GsonUtils;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.junit.Test;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DataEndpointTest extends ServerTest {
+
+    private static final Gson gson = new Gson();
+    private static final Type OBJECTS = new TypeToken<List<DataObject>>(){}.getType();
+
+    @Test
+    public void testQueryStream() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        List<DataObject> objects = save(user, 3);
+
+        Query query = new QueryBuilder().select().from(DataObject.class).build();
+        Response stream = request("/data/query/stream", user).post(TestUtils.toEntity(query));
+        assertEquals(200, stream.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, stream.getMediaType());
+
+        List<DataObject> read = gson.fromJson(stream.readEntity(String.class), OBJECTS);
+        assertEquals(keys(objects), keys(read));
+    }
+
+    @Test
+    public void testQueryStreamOfCredentials() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+
+        Query query = new QueryBuilder().select().from(Credentials.class).build();
+        Response stream = request("/data/query/stream", user).post(TestUtils.toEntity(query));
+        assertEquals(403, stream.getStatus());
+    }
+
+    @Test
+    public void testPatch() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        DataObject o = save(user, 2).get(1);
+
+        Response response = patch(user, new Patch(o).set("name", "patched").increment("hits", 5));
+        assertEquals(200, response.getStatus());
+        List<DataObject> patched = gson.fromJson(response.readEntity(String.class), OBJECTS);
+        assertEquals(1, patched.size());
+        assertEquals(o.getObjectKey(), patched.get(0).getObjectKey());
+
+        // fields the patch does not touch are kept
+        Query query = new QueryBuilder().select().from(DataObject.class).where(TransientObject.OBJECT_KEY, OPERAND.EQ, o.getObjectKey()).build();
+        List<DataObject> stored = gson.fromJson(request("/data/query", user).post(TestUtils.toEntity(query), String.class), OBJECTS);
+        assertEquals(1, stored.size());
+        assertEquals("patched", stored.get(0).get(String.class, "name"));
+        assertEquals(6, ((Number) stored.get(0).getUserData().get("hits")).intValue());
+        assertEquals(2, stored.get(0).getUserData().size());
+    }
+
+    @Test
+    public void testPatchOfCredentials() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+
+        Response response = patch(user, new Patch(Credentials.class, user.getObjectKey()).set("username", "someone else"));
+        assertEquals(403, response.getStatus());
+    }
+
+    @Test
+    public void testPatchOfMissingKey() throws Exception {
+        Credentials user = AuthenticationEndpointTest.signUpUser(this);
+        DataObject o = save(user, 1).get(0);
+
+        // objects that are not stored are left out of the response
+        Response response = patch(user, new Patch(DataObject.class, "missing").set("name", "patched"), new Patch(o).set("name", "patched"));
+        assertEquals(200, response.getStatus());
+        List<DataObject> patched = gson.fromJson(response.readEntity(String.class), OBJECTS);
+        assertEquals(1, patched.size());
+        assertEquals(o.getObjectKey(), patched.get(0).getObjectKey());
+    }
+
+    private Response patch(Credentials user, Patch... patches){
+        String body = GsonUtils.GSON.toJson(Arrays.asList(patches));
+        return request("/data/patch", user).post(Entity.entity(body, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    private List<DataObject> save(Credentials user, int count){
+        List<DataObject> objects = new ArrayList<DataObject>();
+        for(int i = 0; i < count; i++){
+            DataObject o = new DataObject();
+            o.put("name", "object " + i);
+            o.put("hits", i);
+            objects.add(o);
+        }
+        Response saved = request("/data/save", user).post(TestUtils.toEntity(objects));
+        assertEquals(200, saved.getStatus());
+        return objects;
+    }
+
+    private Invocation.Builder request(String path, Credentials user){
+        return target(path)
+                .request()
+                .header("Accept", MediaType.APPLICATION_JSON)
+                .header(ContainerRequest.AUTHORIZATION, "CUSTOM " + user.getAuthToken());
+    }
+
+    private static Set<String> keys(List<? extends TransientObject> objects){
+        Set<String> keys = new HashSet<String>();
+        for(TransientObject o : objects) keys.add(o.getObjectKey());
+        return keys;
+    }
+
+    public static class DataObject extends TransientObject {
+        public DataObject(){
+            super(DataObject.class);
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.shared.event;
+
+import io.divide.otto.Bus;
+import io.divide.otto.EventHandler;
+import io.divide.otto.SubscriberHandlerFinder;
+import io.divide.otto.ThreadEnforcer;
+import io.divide.shared.logging.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bus which hands events to dedicated dispatcher threads instead of invoking subscribers on the posting thread.
+ * Each dispatcher owns a bounded queue and every handler is pinned to one dispatcher, so a subscriber sees
+ * events in the order they were posted.
+ */
+public class AsyncBus extends Bus {
+
+    private static Logger logger = Logger.getLogger(AsyncBus.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_THREADS = 2;
+
+    /*
+     * What happens to an event when the queue of its dispatcher is full.
+     */
+    public static enum Backpressure {
+        /** event is dropped and counted, posting never waits. */
+        DROP,
+        /** posting thread waits for room in the queue. */
+        BLOCK,
+        /** event is handled on the posting thread, it may overtake events still queued. */
+        CALLER_RUNS
+    }
+
+    private final Dispatcher[] dispatchers;
+    private final Backpressure backpressure;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private final AtomicLong maxLag = new AtomicLong();
+
+    public AsyncBus(String identifier){
+        this(identifier, DEFAULT_CAPACITY, DEFAULT_THREADS, Backpressure.DROP);
+    }
+
+    /**
+     * @param identifier name of this bus, used to name the dispatcher threads.
+     * @param capacity number of events which may be queued, split evenly between dispatchers.
+     * @param threads number of dispatcher threads.
+     * @param backpressure policy applied once a dispatcher queue is full.
+     */
+    public AsyncBus(String identifier, int capacity, int threads, Backpressure backpressure){
+        super(ThreadEnforcer.ANY, identifier, new SubscriberHandlerFinder());
+        if(threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        if(capacity < threads) throw new IllegalArgumentException("capacity must be at least threads: " + capacity);
+        if(backpressure == null) throw new NullPointerException("backpressure");
+
+        this.backpressure = backpressure;
+        this.dispatchers = new Dispatcher[threads];
+        for(int i = 0; i < threads; i++){
+            dispatchers[i] = new Dispatcher("divide-events-" + identifier + "-" + i, capacity / threads);
+            dispatchers[i].start();
+        }
+    }
+
+    @Override
+    protected void enqueueEvent(Object event, EventHandler handler) {
+        Pending pending = new Pending(event, handler, System.nanoTime());
+        BlockingQueue<Pending> queue = dispatchers[(handler.hashCode() & Integer.MAX_VALUE) % dispatchers.length].queue;
+        if(queue.offer(pending)) return;
+
+        switch (backpressure){
+            case BLOCK:
+                try {
+                    queue.put(pending);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                }
+                break;
+            case CALLER_RUNS:
+                deliver(pending);
+                break;
+            default:
+                dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void dispatchQueuedEvents() {
+        // dispatchers drain their queues on their own threads.
+    }
+
+    private void deliver(Pending pending){
+        if(!pending.handler.isValid()) return;
+
+        long lag = System.nanoTime() - pending.enqueued;
+        totalLag.addAndGet(lag);
+        long max;
+        while (lag > (max = maxLag.get()) && !maxLag.compareAndSet(max, lag));
+
+        try {
+            dispatch(pending.event, pending.handler);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            logger.error("Failed to dispatch " + pending.event + " to " + pending.handler, e);
+        } finally {
+            dispatched.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stops the dispatcher threads, events still queued are discarded.
+     */
+    public void shutdown(){
+        for(Dispatcher dispatcher : dispatchers){
+            dispatcher.interrupt();
+        }
+    }
+
+    /**
+     * @return number of events waiting to be dispatched.
+     */
+    public int getQueueDepth(){
+        int depth = 0;
+        for(Dispatcher dispatcher : dispatchers){
+            depth += dispatcher.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return number of events handed to subscribers, including those whose subscriber threw.
+     */
+    public long getDispatched(){
+        return dispatched.get();
+    }
+
+    public long getDropped(){
+        return dropped.get();
+    }
+
+    public long getFailed(){
+        return failed.get();
+    }
+
+    /**
+     * @return average time in nanoseconds events waited between being posted and being dispatched.
+     */
+    public long getAverageLag(){
+        long count = dispatched.get();
+        return (count == 0) ? 0 : totalLag.get() / count;
+    }
+
+    /**
+     * @return longest time in nanoseconds an event waited between being posted and being dispatched.
+     */
+    public long getMaxLag(){
+        return maxLag.get();
+    }
+
+    private final class Dispatcher extends Thread {
+        private final BlockingQueue<Pending> queue;
+
+        Dispatcher(String name, int capacity){
+            super(name);
+            this.queue = new ArrayBlockingQueue<Pending>(capacity);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()){
+                    deliver(queue.take());
+                }
+            } catch (InterruptedException ignored) {
+                // shut down
+            }
+        }
+    }
+
+    private static final class Pending {
+        final Object event;
+        final EventHandler handler;
+        final long enqueued;
+
+        Pending(Object event, EventHandler handler, long enqueued){
+            this.event = event;
+            this.handler = handler;
+            this.enqueued = enqueued;
+        }
+    }
+}
@@ -27,6 +27,8 @@ public class EventManager {
 
     private static Map<String,EventManager> busMap = new ConcurrentHashMap<String, EventManager>();
     private Bus eventBus = new Bus(ThreadEnforcer.ANY);
+    private volatile AsyncBus asyncBus;
+    private final String identifier;
 
     public static EventManager get(){
         return EventManager.get("default");
@@ -42,12 +44,40 @@ public class EventManager {
     }
 
     private EventManager(String identifier){
+        this.identifier = identifier;
         eventBus = new Bus(ThreadEnforcer.ANY,identifier, new SubscriberHandlerFinder());
     }
 
 
+    /**
+     * Delivers the event to synchronous subscribers before returning, asynchronous subscribers
+     * receive it later on a dispatcher thread.
+     */
     public void fire(Event event){
         eventBus.post(event);
+        AsyncBus async = asyncBus;
+        if(async != null) async.post(event);
+    }
+
+    /**
+     * Configures asynchronous dispatch, must be called before the first asynchronous subscriber registers.
+     * @param capacity number of events which may be queued.
+     * @param threads number of dispatcher threads.
+     * @param backpressure policy applied once the queue is full.
+     * @return this EventManager.
+     */
+    public synchronized EventManager dispatchAsync(int capacity, int threads, AsyncBus.Backpressure backpressure){
+        if(asyncBus != null) throw new IllegalStateException("Asynchronous dispatch already started for " + identifier);
+        asyncBus = new AsyncBus(identifier, capacity, threads, backpressure);
+        return this;
+    }
+
+    /**
+     * @return bus used for asynchronous subscribers, started with default settings if not configured.
+     */
+    public synchronized AsyncBus getAsyncBus(){
+        if(asyncBus == null) asyncBus = new AsyncBus(identifier);
+        return asyncBus;
     }
 
     public <E extends Event> void register(Subscriber<E> subscriber){
@@ -58,4 +88,17 @@ public class EventManager {
         eventBus.unregister(subscriber);
     }
 
+    /**
+     * Registers a subscriber which is called on a dispatcher thread, so it never delays whoever fires the event.
+     * Events reach it in the order they were fired, but may be dropped under load depending on the
+     * {@link AsyncBus.Backpressure} in use.
+     */
+    public <E extends Event> void registerAsync(Subscriber<E> subscriber){
+        getAsyncBus().register(subscriber);
+    }
+
+    public <S extends Subscriber> void unregisterAsync(S subscriber){
+        getAsyncBus().unregister(subscriber);
+    }
+
 }
@@ -30,17 +30,13 @@ import org.apache.http.HttpStatus;
 import org.mindrot.jbcrypt.BCrypt;
 
 import java.security.PublicKey;
-import java.util.Calendar;
 import java.util.Map;
-import java.util.TimeZone;
 
 import static io.divide.shared.server.DAO.DAOException;
 import static io.divide.shared.util.DaoUtils.getUserByEmail;
 
 public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic<DAOOut> {
 
-    private static Calendar c = Calendar.getInstance(TimeZone.getDefault());
-
     private KeyManager keyManager;
 
     public AuthServerLogic(DAO<TransientObject,DAOOut> dao, KeyManager keyManager) {
@@ -57,6 +53,7 @@ public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic
             throw new DAOException(HttpStatus.SC_CONFLICT,"User Already Exists");
         }
         ServerCredentials toSave = new ServerCredentials(credentials);
+        toSave.clearUserGroup(); // groups are assigned by the server, never by the signing up client
 
         toSave.decryptPassword(keyManager.getPrivateKey()); //decrypt the password
         String de = toSave.getPassword();
@@ -64,8 +61,8 @@ public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic
 
         toSave.setOwnerId(dao.count(Credentials.class.getName()) + 1);
         toSave.setPassword(ha); //hash the password for storage
-        toSave.setAuthToken(AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), toSave));
-        toSave.setRecoveryToken(AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), toSave));
+        toSave.setAuthToken(newToken(toSave));
+        toSave.setRecoveryToken(newRecoveryToken(toSave));
 
         dao.save(toSave);
 
@@ -113,8 +110,8 @@ public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic
                 } catch (AuthenticationException e) {
                     throw new DAOException(HttpStatus.SC_INTERNAL_SERVER_ERROR,"internal error");
                 }
-                if (c.getTime().getTime() > token.expirationDate) {
-                    dbCreds.setAuthToken(AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), dbCreds));
+                if (token.isExpired()) {
+                    dbCreds.setAuthToken(newToken(dbCreds));
                     dao.save(dbCreds);
                 }
 
@@ -173,8 +170,8 @@ public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic
         TransientObject to = ObjectUtils.get1stOrNull(dao.query(q));
         if(to!=null){
             ServerCredentials sc = new ServerCredentials(to);
-            sc.setAuthToken(AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), sc));
-            sc.setRecoveryToken(AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), sc));
+            sc.setAuthToken(newToken(sc));
+            sc.setRecoveryToken(newRecoveryToken(sc));
             dao.save(sc);
             return sc;
         } else {
@@ -197,6 +194,17 @@ public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic
         return DaoUtils.getUserById(dao, id);
     }
 
+    private String newToken(Credentials credentials){
+        return AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), credentials, keyManager.getTokenFormat());
+    }
+
+    // recovery tokens are only ever looked up, never trust them as stateless auth tokens.
+    private String newRecoveryToken(Credentials credentials){
+        AuthTokenUtils.TokenFormat format = keyManager.getTokenFormat();
+        if(format == AuthTokenUtils.TokenFormat.STATELESS) format = AuthTokenUtils.TokenFormat.HMAC;
+        return AuthTokenUtils.getNewToken(keyManager.getSymmetricKey(), credentials, format);
+    }
+
 ////    @POST
 ////    @Path("/reset")
 ////    @Consumes(MediaType.APPLICATION_JSON)
@@ -333,5 +341,9 @@ public class AuthServerLogic<DAOOut extends TransientObject> extends ServerLogic
             super.setOwnerId(id);
         }
 
+        public void clearUserGroup(){
+            meta_remove(USER_GROUP_KEY);
+        }
+
     }
 }
@@ -16,6 +16,8 @@
 
 package io.divide.shared.server;
 
+import io.divide.shared.util.AuthTokenUtils;
+
 import java.security.PrivateKey;
 import java.security.PublicKey;
 
@@ -25,4 +27,5 @@ public interface KeyManager {
     public PrivateKey getPrivateKey();
     public String getSymmetricKey();
     public String getPushKey();
+    public AuthTokenUtils.TokenFormat getTokenFormat();
 }
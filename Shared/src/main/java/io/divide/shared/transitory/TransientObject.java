@@ -17,9 +17,9 @@
 package io.divide.shared.transitory;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import io.divide.shared.logging.Logger;
 import io.divide.shared.transitory.query.Query;
+import io.divide.shared.util.GsonUtils;
 
 import java.util.*;
 
@@ -42,12 +42,13 @@ public class TransientObject {
     public static final MetaKey CREATE_DATE_KEY   = new MetaKey("create_date_key");
     public static final MetaKey MODIFIED_DATE_KEY = new MetaKey("modified_date_key");
     private static final MetaKey PERMISSIONS_KEY = new MetaKey("permissions_key");
+    public static final MetaKey PARTIAL_KEY       = new MetaKey("partial_key");
 
-    private static Gson gson = new GsonBuilder().serializeNulls().create();
+    private static final Gson gson = GsonUtils.GSON_WITH_NULLS;
     protected Map<String,Object> user_data = new LinkedHashMap<String, Object>();
     protected Map<String,String> meta_data = new LinkedHashMap<String, String>();
 
-    private transient boolean isNewObject = false;
+    transient boolean isNewObject = false; // set by TransientObjectAdapterFactory as well
 
     @SuppressWarnings("unused")
     protected TransientObject(){
@@ -296,6 +297,24 @@ public class TransientObject {
 //        return Collections.unmodifiableMap(meta_data);
     }
 
+    /**
+     * @return true if this object is the result of a projection query and only holds the selected
+     * user data fields, its key and its type. Saving it would drop everything else.
+     */
+    public boolean isPartial(){
+        return Boolean.parseBoolean(meta_data.get(PARTIAL_KEY.KEY));
+    }
+
+    /**
+     * Strips this object down to the given user data fields, its key and its type and marks it partial.
+     * @param fields user data fields to keep.
+     */
+    public void retainFields(Collection<String> fields){
+        user_data.keySet().retainAll(fields);
+        meta_data.keySet().retainAll(Arrays.asList(OBJECT_KEY.KEY, OBJECT_TYPE_KEY.KEY));
+        meta_data.put(PARTIAL_KEY.KEY, String.valueOf(true));
+    }
+
     private void setObjectKey(String key){
         meta_put(OBJECT_KEY, key);
     }
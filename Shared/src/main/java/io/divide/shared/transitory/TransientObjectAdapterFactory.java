@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory;
+
+import com.google.gson.Gson;
+import com.google.gson.InstanceCreator;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.ConstructorConstructor;
+import com.google.gson.internal.ObjectConstructor;
+import com.google.gson.internal.UnsafeAllocator;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Reads and writes TransientObjects field by field, producing the same JSON as Gson's reflective
+ * adapter. Subclasses declaring fields of their own are left to the reflective adapter.
+ *
+ * When both maps are read, objects are allocated without running their constructor, which would
+ * only generate a key, dates and permissions to be overwritten. That is most of the reading cost.
+ */
+public class TransientObjectAdapterFactory implements TypeAdapterFactory {
+
+    private final ConstructorConstructor constructors =
+            new ConstructorConstructor(Collections.<Type, InstanceCreator<?>>emptyMap());
+    private final UnsafeAllocator allocator = UnsafeAllocator.create();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if(!TransientObject.class.isAssignableFrom(raw) || declaresFields(raw, false)) return null;
+
+        // constructors setting transient fields of their own have to run
+        boolean allocate = !declaresFields(raw, true);
+        return (TypeAdapter<T>) new Adapter<TransientObject>((Class<TransientObject>) raw,
+                (ObjectConstructor<TransientObject>) constructors.get(type),
+                allocate ? allocator : null, hasDefaultConstructor(raw), gson.getAdapter(Object.class));
+    }
+
+    private static boolean declaresFields(Class<?> type, boolean includeTransient){
+        for(Class<?> c = type; c != TransientObject.class; c = c.getSuperclass()){
+            for(Field field : c.getDeclaredFields()){
+                int modifiers = field.getModifiers();
+                if(Modifier.isStatic(modifiers) || field.isSynthetic()) continue;
+                if(includeTransient || !Modifier.isTransient(modifiers)) return true;
+            }
+        }
+        return false;
+    }
+
+    // Gson runs the no argument constructor if there is one, which marks objects new
+    private static boolean hasDefaultConstructor(Class<?> type){
+        try {
+            type.getDeclaredConstructor();
+            return !Modifier.isAbstract(type.getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static class Adapter<T extends TransientObject> extends TypeAdapter<T> {
+        private final Class<T> type;
+        private final ObjectConstructor<T> constructor;
+        private final UnsafeAllocator allocator;
+        private final boolean newObject;
+        private final TypeAdapter<Object> values;
+
+        private Adapter(Class<T> type, ObjectConstructor<T> constructor, UnsafeAllocator allocator, boolean newObject, TypeAdapter<Object> values){
+            this.type = type;
+            this.constructor = constructor;
+            this.allocator = allocator;
+            this.newObject = newObject;
+            this.values = values;
+        }
+
+        @Override
+        public void write(JsonWriter out, T object) throws IOException {
+            if(object == null){
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name(TransientObject.USER_DATA);
+            if(object.user_data == null){
+                out.nullValue();
+            } else {
+                out.beginObject();
+                for(Map.Entry<String, Object> entry : object.user_data.entrySet()){
+                    out.name(String.valueOf(entry.getKey()));
+                    values.write(out, entry.getValue());
+                }
+                out.endObject();
+            }
+            out.name(TransientObject.META_DATA);
+            if(object.meta_data == null){
+                out.nullValue();
+            } else {
+                out.beginObject();
+                for(Map.Entry<String, String> entry : object.meta_data.entrySet()){
+                    out.name(String.valueOf(entry.getKey()));
+                    out.value(entry.getValue());
+                }
+                out.endObject();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL){
+                in.nextNull();
+                return null;
+            }
+            Map<String, Object> userData = null;
+            Map<String, String> metaData = null;
+            boolean hasUserData = false;
+            boolean hasMetaData = false;
+            in.beginObject();
+            while(in.hasNext()){
+                String name = in.nextName();
+                if(TransientObject.USER_DATA.equals(name)){
+                    userData = readUserData(in);
+                    hasUserData = true;
+                } else if(TransientObject.META_DATA.equals(name)){
+                    metaData = readMetaData(in);
+                    hasMetaData = true;
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            T object = (hasUserData && hasMetaData) ? allocate() : null;
+            if(object == null) object = constructor.construct();
+            if(hasUserData) object.user_data = userData;
+            if(hasMetaData) object.meta_data = metaData;
+            return object;
+        }
+
+        private T allocate(){
+            if(allocator == null) return null;
+            try {
+                T object = allocator.newInstance(type);
+                object.isNewObject = newObject;
+                return object;
+            } catch (Exception e) {
+                return null; // no unsafe allocation on this vm
+            }
+        }
+
+        private Map<String, Object> readUserData(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL){
+                in.nextNull();
+                return null;
+            }
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            in.beginObject();
+            while(in.hasNext()){
+                String key = in.nextName();
+                map.put(key, values.read(in));
+            }
+            in.endObject();
+            return map;
+        }
+
+        private Map<String, String> readMetaData(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL){
+                in.nextNull();
+                return null;
+            }
+            Map<String, String> map = new LinkedHashMap<String, String>();
+            in.beginObject();
+            while(in.hasNext()){
+                String key = in.nextName();
+                map.put(key, readString(in));
+            }
+            in.endObject();
+            return map;
+        }
+    }
+
+    // as Gson's String adapter, which also takes numbers and booleans
+    private static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NULL){
+            in.nextNull();
+            return null;
+        } else if(token == JsonToken.BOOLEAN){
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+import io.divide.shared.transitory.TransientObject;
+
+/*
+ * Result of a {@link SelectOperation}, one per group when the query has a group by.
+ */
+public class Aggregate extends TransientObject {
+
+    private Aggregate(){ }
+
+    public Aggregate(Double value, String from) {
+        setValue(value);
+        setFrom(from);
+    }
+
+    /**
+     * @return aggregated value, null if no object of the group had a numeric value for the field.
+     */
+    public Double getValue(){
+        Number value = get(Number.class,"value");
+        return (value == null) ? null : value.doubleValue();
+    }
+
+    public String getFrom(){
+        return get(String.class,"from");
+    }
+
+    /**
+     * @return value of the group by field shared by the aggregated objects, null without a group by.
+     */
+    public Object getGroup(){
+        return get(Object.class,"group");
+    }
+
+    public void setValue(Double value){
+        put("value",value);
+    }
+
+    public void setFrom(String from){
+        put("from",from);
+    }
+
+    public void setGroup(Object group){
+        put("group",group);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+import io.divide.shared.transitory.TransientObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Computes the select operation of a query one object at a time, for stores that can not
+ * aggregate natively. Only a running count, sum, min and max are kept per group.
+ */
+public class Aggregation {
+
+    private final Query query;
+    private final Map<Object,double[]> groups = new LinkedHashMap<Object,double[]>();
+
+    public Aggregation(Query query){
+        this.query = query;
+    }
+
+    public void add(TransientObject object){
+        Object group = (query.getGroupBy() == null) ? null : object.get(Object.class, query.getGroupBy());
+        double[] values = groups.get(group);
+        if(values == null){
+            values = new double[]{0, 0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            groups.put(group, values);
+        }
+
+        if(query.getAggregate() == null){
+            values[0]++;
+            return;
+        }
+        Object value = object.get(Object.class, query.getAggregate());
+        if(value == null) return;
+        if(!query.getSelect().requiresField()){
+            values[0]++;
+            return;
+        }
+        if(!(value instanceof Number)) return;
+
+        double d = ((Number) value).doubleValue();
+        values[0]++;
+        values[1] += d;
+        values[2] = Math.min(values[2], d);
+        values[3] = Math.max(values[3], d);
+    }
+
+    /**
+     * @return one result per group, a single result without a group by even if nothing was added.
+     */
+    public List<TransientObject> getResults(){
+        List<TransientObject> results = new ArrayList<TransientObject>(groups.size());
+        if(groups.isEmpty() && query.getGroupBy() == null){
+            results.add(result(query, null, 0, null));
+            return results;
+        }
+
+        for(Map.Entry<Object,double[]> entry : groups.entrySet()){
+            double[] values = entry.getValue();
+            Double value = null;
+            switch (query.getSelect()){
+                case SUM:
+                case AVG: value = values[1]; break;
+                case MIN: value = values[2]; break;
+                case MAX: value = values[3]; break;
+            }
+            results.add(result(query, entry.getKey(), (long) values[0], value));
+        }
+        return results;
+    }
+
+    /**
+     * @param group value of the group by field, ignored without a group by.
+     * @param count number of aggregated values.
+     * @param value sum for SUM and AVG, min or max otherwise. Unused for COUNT.
+     * @return result of the select operation of query.
+     */
+    public static Aggregate result(Query query, Object group, long count, Double value){
+        Aggregate result;
+        if(query.getSelect() == SelectOperation.COUNT){
+            result = new Count((int) count, query.getFrom());
+        } else {
+            if(count == 0 || value == null) value = null;
+            else if(query.getSelect() == SelectOperation.AVG) value = value / count;
+            result = new Aggregate(value, query.getFrom());
+        }
+        if(query.getGroupBy() != null) result.setGroup(group);
+        return result;
+    }
+}
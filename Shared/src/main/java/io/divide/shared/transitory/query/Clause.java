@@ -16,6 +16,13 @@
 
 package io.divide.shared.transitory.query;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
 public class Clause {
     private String preOperator = "";
     private String before;
@@ -66,7 +73,23 @@ public class Clause {
     }
 
     public String getCoded(){
-        return getBefore() + " " + getOperand() + " '" + getAfter() +"'";
+        return getCoded(getBefore());
+    }
+
+    /**
+     * @param field field name to use in place of {@link #getBefore()}.
+     * @return this clause coded against the given field.
+     */
+    public String getCoded(String field){
+        return field + " " + getOperand() + " '" + getAfter() +"'";
+    }
+
+    /**
+     * @param field field name to use in place of {@link #getBefore()}.
+     * @return this clause coded against the given field with a '?' placeholder for its value.
+     */
+    public String getParameterized(String field){
+        return field + " " + getOperand() + " ?";
     }
 
     @Override
@@ -77,4 +100,43 @@ public class Clause {
                 ", after='" + after + '\'' +
                 '}';
     }
+
+    /**
+     * Writes the same JSON as Gson's reflective adapter, see {@link QueryAdapterFactory}.
+     */
+    static final TypeAdapter<Clause> ADAPTER = new TypeAdapter<Clause>() {
+        @Override
+        public void write(JsonWriter out, Clause clause) throws IOException {
+            if(clause == null){
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("preOperator").value(clause.preOperator);
+            out.name("before").value(clause.before);
+            out.name("operand").value(clause.operand);
+            out.name("after").value(clause.after);
+            out.endObject();
+        }
+
+        @Override
+        public Clause read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL){
+                in.nextNull();
+                return null;
+            }
+            Clause clause = new Clause();
+            in.beginObject();
+            while(in.hasNext()){
+                String name = in.nextName();
+                if("preOperator".equals(name)) clause.preOperator = QueryAdapterFactory.readString(in);
+                else if("before".equals(name)) clause.before = QueryAdapterFactory.readString(in);
+                else if("operand".equals(name)) clause.operand = QueryAdapterFactory.readString(in);
+                else if("after".equals(name)) clause.after = QueryAdapterFactory.readString(in);
+                else in.skipValue();
+            }
+            in.endObject();
+            return clause;
+        }
+    };
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.util.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+
+/*
+ * Keyset position of the last object of a page, its typed value of the ordered field plus its object key.
+ * The next page starts right after that position instead of skipping the previous pages, so deep
+ * pages cost the same as the first one. Travels inside a query as an opaque url safe token.
+ */
+public final class Continuation {
+    private static final String UTF_8 = "UTF-8";
+
+    private final Literal value;
+    private final String key;
+
+    Continuation(Literal value, String key){
+        this.value = value;
+        this.key = key;
+    }
+
+    /**
+     * @return value of the ordered field of the last object, null when ordered by object key only.
+     */
+    public Literal getValue(){
+        return value;
+    }
+
+    /**
+     * @return object key of the last object, breaks ties between equal values.
+     */
+    public String getKey(){
+        return key;
+    }
+
+    /**
+     * @param object object to read from.
+     * @param path user_data.* or meta_data.* field path, as used by {@link Clause#getBefore()}.
+     * @return value of the field, see {@link #toLiteral(Object)}, null if the object does not have it.
+     */
+    public static Literal valueOf(TransientObject object, String path){
+        Map<String,?> map;
+        if(path.startsWith(TransientObject.USER_DATA + ".")) map = object.getUserData();
+        else if(path.startsWith(TransientObject.META_DATA + ".")) map = object.getMetaData();
+        else return null;
+
+        return toLiteral(map.get(path.substring(path.indexOf('.') + 1)));
+    }
+
+    /**
+     * @param value stored value of an ordered field.
+     * @return the value as it is ordered by, other than numbers, strings and booleans as a string,
+     * null for null.
+     */
+    public static Literal toLiteral(Object value){
+        if(value == null) return null;
+        if(value instanceof String || value instanceof Boolean || value instanceof Long || value instanceof Integer ||
+           value instanceof Short || value instanceof Byte || value instanceof Double || value instanceof Float)
+            return Literal.of(value);
+        if(value instanceof Number) return Literal.of(((Number) value).doubleValue());
+        return Literal.of(String.valueOf(value));
+    }
+
+    String encode(){
+        String payload = key.length() + ":" + key + ((value == null) ? "" : ":" + value.getType() + ":" + value.getText());
+        try {
+            return new String(Base64.encode(payload.getBytes(UTF_8)), UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Continuation decode(String token){
+        try {
+            String payload = new String(Base64.decode(token.getBytes(UTF_8)), UTF_8);
+            int split = payload.indexOf(':');
+            int end = split + 1 + Integer.parseInt(payload.substring(0, split));
+            String key = payload.substring(split + 1, end);
+            Literal value = null;
+            if(payload.length() > end){
+                int typed = payload.indexOf(':', end + 1);
+                value = Literal.of(Literal.Type.valueOf(payload.substring(end + 1, typed)), payload.substring(typed + 1));
+            }
+            return new Continuation(value, key);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed continuation token: " + token, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Continuation{" +
+                "value=" + value +
+                ", key='" + key + '\'' +
+                '}';
+    }
+}
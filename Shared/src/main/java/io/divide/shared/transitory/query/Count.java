@@ -16,27 +16,18 @@
 
 package io.divide.shared.transitory.query;
 
-import io.divide.shared.transitory.TransientObject;
-
-public class Count extends TransientObject {
+public class Count extends Aggregate {
     public Count(int count, String from) {
+        super((double)count, from);
         setCount(count);
-        setFrom(from);
     }
 
     public int getCount(){
         return get(Integer.class,"count");
     }
 
-    public String getFrom(){
-        return get(String.class,"from");
-    }
-
     public void setCount(int count){
         put("count",count);
-    }
-
-    public void setFrom(String from){
-        put("from",from);
+        setValue((double)count);
     }
 }
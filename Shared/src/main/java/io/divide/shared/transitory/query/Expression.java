@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+import io.divide.shared.transitory.TransientObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Where condition of a {@link Query}, a tree of AND/OR groups over predicates. A predicate compares
+ * a meta_data/user_data field path with one or more typed {@link Literal}s.
+ */
+public class Expression {
+
+    /**
+     * Lets a storage layer evaluate a predicate against another field, such as an indexed copy.
+     */
+    public static interface Planner {
+        /**
+         * @param predicate predicate about to be coded.
+         * @return field to evaluate the predicate against, null to use its own path.
+         */
+        String field(Expression predicate);
+    }
+
+    /**
+     * Field values an expression is evaluated against, see {@link #matches(Values)}.
+     */
+    public static interface Values {
+        /**
+         * @param path meta_data/user_data field path.
+         * @return value of the field, null if not set.
+         */
+        Object get(String path);
+    }
+
+    private OPERAND.Conditional conditional;
+    private List<Expression> terms;
+    private String field;
+    private OPERAND operand;
+    private List<Literal> values;
+
+    private Expression(){}
+
+    private Expression(OPERAND.Conditional conditional, List<Expression> terms){
+        this.conditional = conditional;
+        this.terms = terms;
+    }
+
+    private Expression(String field, OPERAND operand, List<Literal> values){
+        this.field = field;
+        this.operand = operand;
+        this.values = values;
+    }
+
+    /**
+     * @param field user data field.
+     * @param value String, Boolean or Number. A collection of them for IN and BETWEEN.
+     */
+    public static Expression compare(String field, OPERAND operand, Object value){
+        return predicate(TransientObject.USER_DATA + "." + field, operand, value);
+    }
+
+    public static Expression compare(TransientObject.MetaKey key, OPERAND operand, Object value){
+        return predicate(TransientObject.META_DATA + "." + key.KEY, operand, value);
+    }
+
+    public static Expression in(String field, Object... values){
+        return compare(field, OPERAND.IN, Arrays.asList(values));
+    }
+
+    public static Expression in(TransientObject.MetaKey key, Object... values){
+        return compare(key, OPERAND.IN, Arrays.asList(values));
+    }
+
+    /**
+     * Inclusive range.
+     */
+    public static Expression between(String field, Object low, Object high){
+        return compare(field, OPERAND.BETWEEN, Arrays.asList(low, high));
+    }
+
+    public static Expression and(Expression... terms){
+        return group(OPERAND.Conditional.AND, Arrays.asList(terms));
+    }
+
+    public static Expression or(Expression... terms){
+        return group(OPERAND.Conditional.OR, Arrays.asList(terms));
+    }
+
+    /**
+     * @param path meta_data/user_data field path.
+     */
+    static Expression predicate(String path, OPERAND operand, Object value){
+        List<Literal> literals = new ArrayList<Literal>();
+        if(value instanceof Collection){
+            for(Object o : (Collection) value) literals.add(Literal.of(o));
+        } else {
+            literals.add(Literal.of(value));
+        }
+
+        int expected = (operand == OPERAND.BETWEEN) ? 2 : 1;
+        if(operand == OPERAND.IN ? literals.isEmpty() : literals.size() != expected)
+            throw new IllegalArgumentException(operand + " takes " + expected + " value(s), got " + literals);
+        return new Expression(path, operand, literals);
+    }
+
+    /**
+     * @return a group of terms, nested groups of the same kind are merged and a single term is returned as is.
+     */
+    static Expression group(OPERAND.Conditional conditional, List<Expression> terms){
+        List<Expression> flat = new ArrayList<Expression>(terms.size());
+        for(Expression term : terms){
+            if(term.conditional == conditional) flat.addAll(term.terms);
+            else flat.add(term);
+        }
+        if(flat.isEmpty()) throw new IllegalArgumentException(conditional + " needs at least one term");
+        if(flat.size() == 1) return flat.get(0);
+        return new Expression(conditional, flat);
+    }
+
+    public boolean isGroup(){
+        return conditional != null;
+    }
+
+    /**
+     * @return AND/OR of a group, null for a predicate.
+     */
+    public OPERAND.Conditional getConditional() {
+        return conditional;
+    }
+
+    public List<Expression> getTerms() {
+        return (terms == null) ? Collections.<Expression>emptyList() : Collections.unmodifiableList(terms);
+    }
+
+    /**
+     * @return meta_data/user_data path compared by a predicate.
+     */
+    public String getField() {
+        return field;
+    }
+
+    public OPERAND getOperand() {
+        return operand;
+    }
+
+    public List<Literal> getValues() {
+        return (values == null) ? Collections.<Literal>emptyList() : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return terms that all have to hold, the terms of an AND group or this expression alone.
+     */
+    public List<Expression> getConjuncts(){
+        if(conditional == OPERAND.Conditional.AND) return getTerms();
+        return Collections.singletonList(this);
+    }
+
+    /**
+     * @return every predicate of this expression, in order.
+     */
+    public List<Expression> getPredicates(){
+        List<Expression> predicates = new ArrayList<Expression>();
+        collect(predicates);
+        return predicates;
+    }
+
+    private void collect(List<Expression> predicates){
+        if(!isGroup()){
+            predicates.add(this);
+            return;
+        }
+        for(Expression term : terms) term.collect(predicates);
+    }
+
+    /**
+     * @return literal values in predicate order, the parameters of {@link #getParameterizedSQL(Planner)}.
+     */
+    public List<Object> getParameters(){
+        List<Object> parameters = new ArrayList<Object>();
+        for(Expression predicate : getPredicates()){
+            for(Literal literal : predicate.values) parameters.add(literal.getValue());
+        }
+        return parameters;
+    }
+
+    /**
+     * @param planner optional planner, picks the field each predicate is evaluated against.
+     * @return sql condition with a '?' placeholder per value, bind {@link #getParameters()} to it.
+     */
+    public String getParameterizedSQL(Planner planner){
+        StringBuilder sb = new StringBuilder();
+        code(sb, planner, true);
+        return sb.toString();
+    }
+
+    private void code(StringBuilder sb, Planner planner, boolean parameterized){
+        if(isGroup()){
+            for(int x=0;x<terms.size();x++){
+                Expression term = terms.get(x);
+                if(x > 0) sb.append(' ').append(conditional.symbol).append(' ');
+                if(term.isGroup()) sb.append('(');
+                term.code(sb, planner, parameterized);
+                if(term.isGroup()) sb.append(')');
+            }
+            return;
+        }
+
+        String planned = (planner == null) ? null : planner.field(this);
+        sb.append(planned == null ? field : planned).append(' ').append(operand.symbol).append(' ');
+        switch (operand){
+            case BETWEEN:{
+                sb.append(code(values.get(0), parameterized)).append(" AND ").append(code(values.get(1), parameterized));
+            }break;
+            case IN:{
+                sb.append('[');
+                for(int x=0;x<values.size();x++){
+                    if(x > 0) sb.append(", ");
+                    sb.append(code(values.get(x), parameterized));
+                }
+                sb.append(']');
+            }break;
+            default:{
+                sb.append(code(values.get(0), parameterized));
+            }
+        }
+    }
+
+    private static String code(Literal literal, boolean parameterized){
+        return parameterized ? "?" : literal.getCoded();
+    }
+
+    /**
+     * @return structure of this expression with the value types but not the values, expressions of
+     * the same shape code to the same parameterized sql.
+     */
+    public String getShape(){
+        if(!isGroup()){
+            StringBuilder sb = new StringBuilder(field).append(' ').append(operand.symbol);
+            for(Literal literal : values) sb.append(' ').append(literal.getType());
+            return sb.toString();
+        }
+        StringBuilder sb = new StringBuilder("(");
+        for(int x=0;x<terms.size();x++){
+            if(x > 0) sb.append(' ').append(conditional.symbol).append(' ');
+            sb.append(terms.get(x).getShape());
+        }
+        return sb.append(')').toString();
+    }
+
+    public boolean matches(Values values){
+        if(!isGroup()) return test(values.get(field));
+
+        boolean all = conditional == OPERAND.Conditional.AND;
+        for(Expression term : terms){
+            if(term.matches(values) != all) return !all;
+        }
+        return all;
+    }
+
+    public boolean matches(final TransientObject object){
+        return matches(new Values() {
+            @Override
+            public Object get(String path) {
+                if(path.startsWith(TransientObject.META_DATA + "."))
+                    return object.getMetaData().get(path.substring(TransientObject.META_DATA.length() + 1));
+                return object.get(Object.class, path.substring(TransientObject.USER_DATA.length() + 1));
+            }
+        });
+    }
+
+    /**
+     * Tests a predicate against the value of its field. Collections and arrays match if one of
+     * their elements does. Numbers compare by value whatever their type, other values of
+     * different types compare as strings.
+     * @param value value of the field, may be null.
+     */
+    public boolean test(Object value){
+        if(value instanceof Collection) value = ((Collection) value).toArray();
+        if(value instanceof Object[]){
+            for(Object element : (Object[]) value){
+                if(testValue(element)) return true;
+            }
+            return false;
+        }
+        return testValue(value);
+    }
+
+    private boolean testValue(Object value){
+        if(value == null) return false;
+        switch (operand){
+            case IN:{
+                for(Literal literal : values){
+                    if(compare(value, literal) == 0) return true;
+                }
+                return false;
+            }
+            case BETWEEN: return compare(value, values.get(0)) >= 0 && compare(value, values.get(1)) <= 0;
+            case GREATER_THAN: return compare(value, values.get(0)) > 0;
+            case GREATER_THAN_EQ: return compare(value, values.get(0)) >= 0;
+            case LESS_THAN: return compare(value, values.get(0)) < 0;
+            case LESS_THAN_EQ: return compare(value, values.get(0)) <= 0;
+            default: return compare(value, values.get(0)) == 0;
+        }
+    }
+
+    private static int compare(Object value, Literal literal){
+        Object other = literal.getValue();
+        if(value instanceof Number && other instanceof Number){
+            if(integral(value) && integral(other)){
+                long a = ((Number) value).longValue();
+                long b = ((Number) other).longValue();
+                return (a < b) ? -1 : ((a == b) ? 0 : 1);
+            }
+            return Double.compare(((Number) value).doubleValue(), ((Number) other).doubleValue());
+        }
+        if(value instanceof String && other instanceof String) return ((String) value).compareTo((String) other);
+        if(value instanceof Boolean && other instanceof Boolean) return ((Boolean) value).compareTo((Boolean) other);
+        return String.valueOf(value).compareTo(String.valueOf(other));
+    }
+
+    private static boolean integral(Object number){
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        code(sb, null, false);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+/*
+ * Typed value of an {@link Expression}. Values travel as text with their type next to them, so
+ * integers stay integers on the other side instead of coming back as doubles or strings.
+ */
+public class Literal implements Comparable<Literal> {
+
+    public static enum Type {
+        STRING,
+        LONG,
+        DOUBLE,
+        BOOLEAN
+    }
+
+    private Type type;
+    private String value;
+
+    private Literal(){}
+
+    private Literal(Type type, String value){
+        this.type = type;
+        this.value = value;
+    }
+
+    /**
+     * @param value String, Boolean, or any integral or floating point Number.
+     * @return literal of the matching type.
+     */
+    public static Literal of(Object value){
+        if(value instanceof Literal) return (Literal) value;
+        if(value instanceof String) return new Literal(Type.STRING, (String) value);
+        if(value instanceof Boolean) return new Literal(Type.BOOLEAN, value.toString());
+        if(value instanceof Double || value instanceof Float) return new Literal(Type.DOUBLE, value.toString());
+        if(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return new Literal(Type.LONG, value.toString());
+        throw new IllegalArgumentException("Unsupported literal: " + value);
+    }
+
+    /*
+     * Rebuilds a literal from its type and text, checks the text parses as the type.
+     */
+    static Literal of(Type type, String value){
+        Literal literal = new Literal(type, value);
+        literal.getValue();
+        return literal;
+    }
+
+    String getText(){
+        return value;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return String, Long, Double or Boolean depending on {@link #getType()}.
+     */
+    public Object getValue(){
+        switch (type){
+            case LONG: return Long.valueOf(value);
+            case DOUBLE: return Double.valueOf(value);
+            case BOOLEAN: return Boolean.valueOf(value);
+            default: return value;
+        }
+    }
+
+    public boolean isNumeric(){
+        return type == Type.LONG || type == Type.DOUBLE;
+    }
+
+    /**
+     * @return sql representation, strings are quoted.
+     */
+    public String getCoded(){
+        if(type == Type.STRING) return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+        return value;
+    }
+
+    /**
+     * Numbers compare by value whether integral or floating point, other types by their natural
+     * order. Values of different types order by type, numbers first.
+     */
+    @Override
+    public int compareTo(Literal other) {
+        if(isNumeric() && other.isNumeric()){
+            if(type == Type.LONG && other.type == Type.LONG){
+                long a = Long.parseLong(value), b = Long.parseLong(other.value);
+                return (a < b) ? -1 : ((a == b) ? 0 : 1);
+            }
+            return Double.compare(((Number) getValue()).doubleValue(), ((Number) other.getValue()).doubleValue());
+        }
+        if(type != other.type){
+            int a = isNumeric() ? -1 : type.ordinal(), b = other.isNumeric() ? -1 : other.type.ordinal();
+            return (a < b) ? -1 : 1;
+        }
+        if(type == Type.BOOLEAN) return Boolean.valueOf(value).compareTo(Boolean.valueOf(other.value));
+        return value.compareTo(other.value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Literal)) return false;
+
+        Literal literal = (Literal) o;
+        return type == literal.type && value.equals(literal.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + value;
+    }
+}
@@ -23,7 +23,9 @@ public enum OPERAND{
     GREATER_THAN_EQ(">="),
     LESS_THAN_EQ("<="),
     EQ("=="),
-    CONTAINS("CONTAINS");
+    CONTAINS("CONTAINS"),
+    IN("IN"),
+    BETWEEN("BETWEEN");
 
     String symbol;
 
@@ -44,6 +46,10 @@ public enum OPERAND{
             return EQ;
         } else if(CONTAINS.symbol.equals(symbol)){
             return CONTAINS;
+        } else if(IN.symbol.equals(symbol)){
+            return IN;
+        } else if(BETWEEN.symbol.equals(symbol)){
+            return BETWEEN;
         }else {
             return null;
         }
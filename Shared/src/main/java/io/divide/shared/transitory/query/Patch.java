@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+import io.divide.shared.transitory.TransientObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Field level changes to a single stored object. Only the named fields are touched and the server
+ * applies them to the stored copy in place, so clients changing different fields of the same object
+ * do not overwrite each other and increments do not lose concurrent updates.
+ */
+public class Patch {
+
+    private String objectType;
+    private String objectKey;
+    private List<Update> updates = new ArrayList<Update>();
+
+    private Patch(){}
+
+    /**
+     * @param objectType type of the object, see {@link TransientObject#getObjectType()}.
+     * @param objectKey key of the object, see {@link TransientObject#getObjectKey()}.
+     */
+    public Patch(String objectType, String objectKey){
+        this.objectType = objectType;
+        this.objectKey = objectKey;
+    }
+
+    public <T extends TransientObject> Patch(Class<T> objectType, String objectKey){
+        this(Query.safeTable(objectType), objectKey);
+    }
+
+    public Patch(TransientObject object){
+        this(object.getObjectType(), object.getObjectKey());
+    }
+
+    public Patch set(String key, Object value){
+        updates.add(Update.set(key, value));
+        return this;
+    }
+
+    public Patch increment(String key, Number by){
+        updates.add(Update.increment(key, by));
+        return this;
+    }
+
+    public Patch append(String key, Object value){
+        updates.add(Update.append(key, value));
+        return this;
+    }
+
+    public String getObjectType() {
+        return objectType;
+    }
+
+    public String getObjectKey() {
+        return objectKey;
+    }
+
+    public List<Update> getUpdates() {
+        return (updates == null) ? Collections.<Update>emptyList() : Collections.unmodifiableList(updates);
+    }
+
+    /**
+     * Applies the updates in order.
+     * @throws IllegalArgumentException if an update does not fit the current value of its field.
+     */
+    public void applyTo(TransientObject object){
+        for(Update update : getUpdates()) update.applyTo(object);
+    }
+
+    @Override
+    public String toString() {
+        return "Patch{" +
+                "objectType='" + objectType + '\'' +
+                ", objectKey='" + objectKey + '\'' +
+                ", updates=" + updates +
+                '}';
+    }
+}
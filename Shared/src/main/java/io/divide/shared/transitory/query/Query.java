@@ -18,10 +18,30 @@ package io.divide.shared.transitory.query;
 
 import io.divide.shared.transitory.TransientObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 public class Query {
+    private static final String KEY_PATH = TransientObject.META_DATA + "." + TransientObject.OBJECT_KEY.KEY;
+    private static final Pattern FIELD = Pattern.compile("[A-Za-z0-9_]+");
+    private static final Pattern PATH = Pattern.compile("(" + TransientObject.META_DATA + "|" + TransientObject.USER_DATA + ")\\." + FIELD);
+
+    /**
+     * Column holding the object key in the results of {@link #getProjectionSQL()}.
+     */
+    public static final String PROJECTED_KEY = "_key";
+
+    /**
+     * Columns holding the group, the number of aggregated values and the aggregated value in the
+     * results of a select operation, see {@link #getSQL()}. For AVG the value column holds the sum.
+     */
+    public static final String AGGREGATE_GROUP = "_group";
+    public static final String AGGREGATE_COUNT = "_count";
+    public static final String AGGREGATE_VALUE = "_value";
 
     protected Query(){
 
@@ -30,10 +50,18 @@ public class Query {
     protected QueryBuilder.QueryAction action;
     protected String from;
     protected final Map<Integer,Clause> where = new HashMap<Integer,Clause>();
+    protected Expression filter;
     protected SelectOperation select = null;
+    protected String aggregate;
+    protected String groupBy;
+    protected List<String> fields;
+    protected List<Update> updates;
     protected Integer limit;
     protected Integer offset;
     protected Boolean random;
+    protected String orderBy;
+    protected Order order;
+    protected String after;
 
     public QueryBuilder.QueryAction getAction() {
         return action;
@@ -43,14 +71,90 @@ public class Query {
         return from;
     }
 
+    /**
+     * @return clauses of queries built before {@link #getFilter()} existed, empty otherwise.
+     */
     public Map<Integer, Clause> getWhere() {
         return where;
     }
 
+    /**
+     * @return where condition of this query, null if every object of the type matches. Clauses
+     * of older queries are converted, AND binding tighter than OR as in the sql they were coded to.
+     */
+    public Expression getFilter() {
+        if(filter != null || where.isEmpty()) return filter;
+
+        List<Expression> any = new ArrayList<Expression>();
+        List<Expression> all = new ArrayList<Expression>();
+        for(int x=0;x<where.size();x++){
+            Clause c = where.get(x);
+            if(x > 0 && OPERAND.Conditional.OR.symbol.equals(c.getPreOperator())){
+                any.add(Expression.group(OPERAND.Conditional.AND, all));
+                all = new ArrayList<Expression>();
+            }
+            all.add(Expression.predicate(c.getBefore(), OPERAND.from(c.getOperand()), c.getAfter()));
+        }
+        any.add(Expression.group(OPERAND.Conditional.AND, all));
+        return Expression.group(OPERAND.Conditional.OR, any);
+    }
+
     public SelectOperation getSelect() {
         return select;
     }
 
+    /**
+     * @return user data field aggregated by {@link #getSelect()}, null to count all objects.
+     */
+    public String getAggregate() {
+        return aggregate;
+    }
+
+    /**
+     * @return user data field the select operation is grouped by, one result per distinct value.
+     */
+    public String getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @return assignments of an update query, in order.
+     */
+    public List<Update> getUpdates() {
+        return (updates == null) ? Collections.<Update>emptyList() : Collections.unmodifiableList(updates);
+    }
+
+    /**
+     * @return user data fields selected by a projection, null if whole objects are returned.
+     * The ordered field is always part of a projection so continuations keep working.
+     */
+    public List<String> getFields() {
+        if(fields == null) return null;
+
+        List<String> selected = new ArrayList<String>(fields);
+        String ordered = getOrderBy();
+        if(ordered != null && ordered.startsWith(TransientObject.USER_DATA + ".")){
+            String field = ordered.substring(TransientObject.USER_DATA.length() + 1);
+            if(!selected.contains(field)) selected.add(field);
+        }
+        return selected;
+    }
+
+    /**
+     * @return select list of this query, the selected fields aliased by name plus the object key
+     * as {@link #PROJECTED_KEY}, or * if whole objects are returned.
+     */
+    public String getProjectionSQL(){
+        List<String> selected = getFields();
+        if(selected == null) return "*";
+
+        StringBuilder sb = new StringBuilder(KEY_PATH).append(" AS ").append(PROJECTED_KEY);
+        for(String field : selected){
+            sb.append(", ").append(TransientObject.USER_DATA).append('.').append(field).append(" AS ").append(field);
+        }
+        return sb.toString();
+    }
+
     public Integer getLimit() {
         return limit;
     }
@@ -61,67 +165,197 @@ public class Query {
 
     public Boolean getRandom() { return random; }
 
+    /**
+     * @return field path results are ordered by, ties are broken by object key. Null when
+     * results are unordered, or ordered by object key only if a continuation is set.
+     */
+    public String getOrderBy() {
+        return KEY_PATH.equals(orderBy) ? null : orderBy;
+    }
+
+    public Order getOrder() {
+        return (order == null) ? Order.ASC : order;
+    }
+
+    /**
+     * @return opaque continuation token, results start right after the object it was created from.
+     */
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * @return true if results are read in a fixed order, by {@link #getOrderBy()} and object key.
+     */
+    public boolean isOrdered(){
+        return orderBy != null || after != null;
+    }
+
+    /**
+     * @return decoded {@link #getAfter()}, null if not set.
+     * @throws IllegalArgumentException if the token is malformed.
+     */
+    public Continuation getContinuation(){
+        return (after == null) ? null : Continuation.decode(after);
+    }
+
+    /**
+     * @param last last object of the current page.
+     * @return token to read the page after last, see {@link QueryBuilder.OrderConstraintBuilder#after(String)}.
+     */
+    public String continuationAfter(TransientObject last){
+        Literal value = (getOrderBy() == null) ? null : Continuation.valueOf(last, getOrderBy());
+        return new Continuation(value, last.getObjectKey()).encode();
+    }
+
+    /**
+     * Field names are written into sql as they are, only values are bound as parameters. Storage
+     * layers check every query they are given, queries that did not come from a QueryBuilder included.
+     * @throws IllegalArgumentException if a field name is not a plain identifier.
+     */
+    public void checkFields(){
+        if(orderBy != null) checkPath(orderBy);
+        if(fields != null){
+            for(String field : fields) checkField(field);
+        }
+        if(aggregate != null) checkField(aggregate);
+        if(groupBy != null) checkField(groupBy);
+    }
+
+    static String checkField(String field){
+        if(field == null || !FIELD.matcher(field).matches()) throw new IllegalArgumentException("Invalid field: " + field);
+        return field;
+    }
+
+    static String checkPath(String path){
+        if(path == null || !PATH.matcher(path).matches()) throw new IllegalArgumentException("Invalid field: " + path);
+        return path;
+    }
+
+    /**
+     * @return parameterized sql of this query, bind {@link #getParameters()} to it.
+     */
     public String getSQL(){
+        return getPlannedSQL(null);
+    }
+
+    /**
+     * @return typed values of the filter in predicate order, the parameters of {@link #getSQL()}.
+     * Update queries start with the values they assign, SET then INCREMENT then APPEND.
+     */
+    public List<Object> getParameters(){
+        Expression filter = getFilter();
+        List<Object> parameters = new ArrayList<Object>();
+        if(action == QueryBuilder.QueryAction.UPDATE){
+            for(Update.Operation operation : Update.Operation.values())
+                for(Update update : assignments(operation)) parameters.add(update.getValue().getValue());
+        }
+        if(filter != null) parameters.addAll(filter.getParameters());
+        return parameters;
+    }
+
+    /**
+     * Same as {@link #getSQL()} with the fields picked by a storage layer planner.
+     * @param planner optional planner, see {@link Expression.Planner}.
+     */
+    public String getPlannedSQL(Expression.Planner planner){
 
         String sql = "";
         switch (action){
             case SELECT:{
                 if(select==null){
-                    sql = "SELECT * FROM " + from;
+                    sql = "SELECT " + getProjectionSQL() + " FROM " + from;
+
+                    sql += buildWhere(planner);
 
-                    if(!where.isEmpty()){
-                        if(!where.isEmpty()){
-                            sql += buildWhere(where);
-                        }
+                    if(orderBy != null){
+                        sql += " ORDER BY " + orderBy + " " + getOrder();
                     }
 
                     if(limit != null){
                         sql += " LIMIT " + limit;
                     }
                 } else {
-                    switch (select){
-                        case COUNT:{
-                            sql = "SELECT count(*) from " + from;
-                            if(!where.isEmpty()){
-                                sql += buildWhere(where);
-                            }
-                        }break;
+                    sql = "SELECT " + getAggregateSQL() + " FROM " + from;
+                    sql += buildWhere(planner);
+                    if(groupBy != null){
+                        sql += " GROUP BY " + TransientObject.USER_DATA + "." + groupBy;
                     }
                 }
             }break;
             case DELETE:{
                     sql = "DELETE FROM " + from;
 
-                    if(!where.isEmpty()){
-                        sql += buildWhere(where);
-                    }
+                    sql += buildWhere(planner);
                     if(limit != null){
                         sql += " LIMIT " + limit;
                     }
             }break;
             case UPDATE:{
+                    sql = "UPDATE " + from;
 
+                    for(Update.Operation operation : Update.Operation.values())
+                        sql += buildAssignments(operation);
+                    sql += buildWhere(planner);
+                    if(limit != null){
+                        sql += " LIMIT " + limit;
+                    }
             }break;
         }
 
         return sql;
     }
 
-    private String buildWhere(Map<Integer,Clause> clauses){
-        if(clauses.size()==0)return "";
+    // AVG reads the sum and the count, averaging integers in sql would truncate
+    private String getAggregateSQL(){
+        String field = (aggregate == null) ? null : TransientObject.USER_DATA + "." + aggregate;
         StringBuilder sb = new StringBuilder();
-        sb.append(" WHERE ");
-        sb.append(clauses.get(0).getCoded());
-        for(int x=1;x<clauses.size();x++){
-            Clause c = clauses.get(x);
-            sb.append(" ");
-            sb.append(c.getPreOperator());
-            sb.append(" ");
-            sb.append(c.getCoded());
+        if(groupBy != null){
+            sb.append(TransientObject.USER_DATA).append('.').append(groupBy).append(" AS ").append(AGGREGATE_GROUP).append(", ");
+        }
+        sb.append("count(").append((field == null) ? "*" : field).append(") AS ").append(AGGREGATE_COUNT);
+        if(field != null && select.requiresField()){
+            String function = (select == SelectOperation.AVG) ? "sum" : select.name().toLowerCase();
+            sb.append(", ").append(function).append('(').append(field).append(") AS ").append(AGGREGATE_VALUE);
+        }
+        return sb.toString();
+    }
+
+    private String buildAssignments(Update.Operation operation){
+        List<Update> assignments = assignments(operation);
+        if(assignments.isEmpty()) return "";
+
+        StringBuilder sb = new StringBuilder(" ").append(operation.getKeyword());
+        for(int x=0;x<assignments.size();x++){
+            Update update = assignments.get(x);
+            sb.append(x == 0 ? " " : ", ").append(update.getField()).append(" = ?");
         }
         return sb.toString();
     }
 
+    private List<Update> assignments(Update.Operation operation){
+        List<Update> assignments = new ArrayList<Update>();
+        for(Update update : getUpdates()){
+            if(update.getOperation() == operation) assignments.add(update);
+        }
+        return assignments;
+    }
+
+    private String buildWhere(Expression.Planner planner){
+        if(getFilter() == null)return "";
+        return " WHERE " + getPlannedConditionSQL(planner);
+    }
+
+    /**
+     * @param planner optional planner, see {@link Expression.Planner}.
+     * @return parameterized sql condition of the filter, bind {@link #getParameters()} to it.
+     */
+    public String getPlannedConditionSQL(Expression.Planner planner){
+        Expression filter = getFilter();
+        if(filter == null)return "";
+        return filter.getParameterizedSQL(planner);
+    }
+
     public static <T extends TransientObject> String safeTable(Class<T> type){
         return safeTable(type.getName());
     }
@@ -139,10 +373,17 @@ public class Query {
         return "Query{" +
                 "action=" + action +
                 ", from='" + from + '\'' +
-                ", where=" + where +
+                ", where=" + getFilter() +
                 ", select=" + select +
+                ", aggregate=" + aggregate +
+                ", groupBy=" + groupBy +
+                ", fields=" + fields +
+                ", updates=" + updates +
                 ", limit=" + limit +
                 ", offset=" + offset +
+                ", orderBy=" + orderBy +
+                ", order=" + order +
+                ", after=" + after +
                 '}';
     }
 }
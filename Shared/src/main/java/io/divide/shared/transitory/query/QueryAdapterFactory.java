@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.transitory.query;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Reads and writes Queries and Clauses field by field, producing the same JSON as Gson's reflective
+ * adapter. Expressions and updates are left to the adapters Gson has for them.
+ */
+public class QueryAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> raw = type.getRawType();
+        if(raw == Query.class) return (TypeAdapter<T>) new QueryAdapter(gson);
+        if(Clause.class.isAssignableFrom(raw)) return (TypeAdapter<T>) Clause.ADAPTER;
+        return null;
+    }
+
+    private static class QueryAdapter extends TypeAdapter<Query> {
+        private final TypeAdapter<QueryBuilder.QueryAction> actions;
+        private final TypeAdapter<Expression> expressions;
+        private final TypeAdapter<SelectOperation> selects;
+        private final TypeAdapter<List<String>> fields;
+        private final TypeAdapter<List<Update>> updates;
+        private final TypeAdapter<Order> orders;
+
+        private QueryAdapter(Gson gson){
+            actions = gson.getAdapter(QueryBuilder.QueryAction.class);
+            expressions = gson.getAdapter(Expression.class);
+            selects = gson.getAdapter(SelectOperation.class);
+            fields = gson.getAdapter(new TypeToken<List<String>>(){});
+            updates = gson.getAdapter(new TypeToken<List<Update>>(){});
+            orders = gson.getAdapter(Order.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, Query query) throws IOException {
+            if(query == null){
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("action");
+            actions.write(out, query.action);
+            out.name("from").value(query.from);
+            out.name("where");
+            out.beginObject();
+            for(Map.Entry<Integer, Clause> entry : query.where.entrySet()){
+                out.name(String.valueOf(entry.getKey()));
+                Clause.ADAPTER.write(out, entry.getValue());
+            }
+            out.endObject();
+            out.name("filter");
+            expressions.write(out, query.filter);
+            out.name("select");
+            selects.write(out, query.select);
+            out.name("aggregate").value(query.aggregate);
+            out.name("groupBy").value(query.groupBy);
+            out.name("fields");
+            fields.write(out, query.fields);
+            out.name("updates");
+            updates.write(out, query.updates);
+            out.name("limit").value(query.limit);
+            out.name("offset").value(query.offset);
+            out.name("random");
+            if(query.random == null) out.nullValue();
+            else out.value(query.random);
+            out.name("orderBy").value(query.orderBy);
+            out.name("order");
+            orders.write(out, query.order);
+            out.name("after").value(query.after);
+            out.endObject();
+        }
+
+        @Override
+        public Query read(JsonReader in) throws IOException {
+            if(in.peek() == JsonToken.NULL){
+                in.nextNull();
+                return null;
+            }
+            Query query = new Query();
+            in.beginObject();
+            while(in.hasNext()){
+                String name = in.nextName();
+                if("action".equals(name)) query.action = actions.read(in);
+                else if("from".equals(name)) query.from = readString(in);
+                else if("where".equals(name)) readWhere(in, query.where);
+                else if("filter".equals(name)) query.filter = expressions.read(in);
+                else if("select".equals(name)) query.select = selects.read(in);
+                else if("aggregate".equals(name)) query.aggregate = readString(in);
+                else if("groupBy".equals(name)) query.groupBy = readString(in);
+                else if("fields".equals(name)) query.fields = fields.read(in);
+                else if("updates".equals(name)) query.updates = updates.read(in);
+                else if("limit".equals(name)) query.limit = readInteger(in);
+                else if("offset".equals(name)) query.offset = readInteger(in);
+                else if("random".equals(name)) query.random = readBoolean(in);
+                else if("orderBy".equals(name)) query.orderBy = readString(in);
+                else if("order".equals(name)) query.order = orders.read(in);
+                else if("after".equals(name)) query.after = readString(in);
+                else in.skipValue();
+            }
+            in.endObject();
+            return query;
+        }
+
+        private static void readWhere(JsonReader in, Map<Integer, Clause> where) throws IOException {
+            if(in.peek() == JsonToken.NULL){
+                in.nextNull();
+                return;
+            }
+            in.beginObject();
+            while(in.hasNext()){
+                Integer key = Integer.valueOf(in.nextName());
+                where.put(key, Clause.ADAPTER.read(in));
+            }
+            in.endObject();
+        }
+    }
+
+    // as Gson's adapters for String, Integer and Boolean
+
+    static String readString(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NULL){
+            in.nextNull();
+            return null;
+        } else if(token == JsonToken.BOOLEAN){
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    private static Integer readInteger(JsonReader in) throws IOException {
+        if(in.peek() == JsonToken.NULL){
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+
+    private static Boolean readBoolean(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if(token == JsonToken.NULL){
+            in.nextNull();
+            return null;
+        } else if(token == JsonToken.STRING){
+            return Boolean.parseBoolean(in.nextString());
+        }
+        return in.nextBoolean();
+    }
+}
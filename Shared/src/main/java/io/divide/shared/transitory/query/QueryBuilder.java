@@ -18,6 +18,9 @@ package io.divide.shared.transitory.query;
 
 import io.divide.shared.transitory.TransientObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class QueryBuilder{
 
     public static enum QueryAction{
@@ -31,6 +34,8 @@ public class QueryBuilder{
     }
 
     private Query query;
+    // terms of the filter, OR of AND runs
+    private final List<List<Expression>> any = new ArrayList<List<Expression>>();
 
     public QueryBuilder(){
         query = new Query();
@@ -40,6 +45,21 @@ public class QueryBuilder{
         return new SelectBuilder(this,select);
     }
 
+    /**
+     * Aggregates a user data field, results are {@link Aggregate}s.
+     */
+    public SelectBuilder select(SelectOperation select, String field){
+        return new SelectBuilder(this,select,field);
+    }
+
+    /**
+     * Projection, results are partial objects holding only the given user data fields.
+     * @see TransientObject#isPartial()
+     */
+    public SelectBuilder select(String field, String... fields){
+        return new SelectBuilder(this,field,fields);
+    }
+
     public DeleteBuilder delete(){
         return new DeleteBuilder(this);
     }
@@ -48,20 +68,20 @@ public class QueryBuilder{
         return new UpdateBuilder(this);
     }
 
-    private void addWhere(String one, OPERAND operand, String two){
-        query.where.put(query.where.size(),new UserDataClause(one,operand,two));
-    }
+    private void addWhere(OPERAND.Conditional conditional, Expression expression){
+        if(any.isEmpty() || conditional == OPERAND.Conditional.OR) any.add(new ArrayList<Expression>());
+        any.get(any.size() - 1).add(expression);
 
-    private void addWhere(TransientObject.MetaKey one, OPERAND operand, String two){
-        query.where.put(query.where.size(),new MetaDataClause(one.KEY,operand,two));
-    }
-
-    private void addWhere(OPERAND.Conditional conditional,String one, OPERAND operand, String two){
-        query.where.put(query.where.size(),new UserDataClause(conditional,one,operand,two));
+        List<Expression> terms = new ArrayList<Expression>(any.size());
+        for(List<Expression> all : any){
+            terms.add(Expression.group(OPERAND.Conditional.AND, all));
+        }
+        query.filter = Expression.group(OPERAND.Conditional.OR, terms);
     }
 
-    private void addWhere(OPERAND.Conditional conditional,TransientObject.MetaKey one, OPERAND operand, String two){
-        query.where.put(query.where.size(),new MetaDataClause(conditional,one.KEY,operand,two));
+    private void addUpdate(Update update){
+        if(query.updates == null) query.updates = new ArrayList<Update>();
+        query.updates.add(update);
     }
 
     private void setFrom(Class from){
@@ -73,6 +93,19 @@ public class QueryBuilder{
             query.select = select;
     }
 
+    private void setAggregate(String field){
+        query.aggregate = (field == null) ? null : Query.checkField(field);
+    }
+
+    private void setGroupBy(String field){
+        if(query.select == null) throw new IllegalStateException("group by requires a select operation");
+        query.groupBy = Query.checkField(field);
+    }
+
+    private void setFields(List<String> fields){
+        query.fields = fields;
+    }
+
     private void setLimit(Integer limit){
         query.limit = limit;
     }
@@ -87,6 +120,15 @@ public class QueryBuilder{
 
     private void setRandom(boolean random){ query.random = random; }
 
+    private void setOrderBy(String orderBy, Order order){
+        query.orderBy = (orderBy == null) ? null : Query.checkPath(orderBy);
+        query.order = order;
+    }
+
+    private void setAfter(String after){
+        query.after = after;
+    }
+
     private Query getQuery(){
         return query;
     }
@@ -96,8 +138,24 @@ public class QueryBuilder{
         private SelectBuilder(QueryBuilder builder, SelectOperation... select){
             super(builder,QueryAction.SELECT);
             if (select!=null)
-                for (SelectOperation s : select)
+                for (SelectOperation s : select){
+                    if(s != null && s.requiresField()) throw new IllegalArgumentException(s + " requires a field");
                     builder.addSelect(s);
+                }
+        }
+
+        private SelectBuilder(QueryBuilder builder, SelectOperation select, String field){
+            super(builder,QueryAction.SELECT);
+            builder.addSelect(select);
+            builder.setAggregate(field);
+        }
+
+        private SelectBuilder(QueryBuilder builder, String field, String... fields){
+            super(builder,QueryAction.SELECT);
+            List<String> selected = new ArrayList<String>(fields.length + 1);
+            selected.add(Query.checkField(field));
+            for(String f : fields) selected.add(Query.checkField(f));
+            builder.setFields(selected);
         }
     }
 
@@ -113,10 +171,41 @@ public class QueryBuilder{
         private UpdateBuilder(QueryBuilder builder) {
             super(builder,QueryAction.UPDATE);
         }
+
+        @Override
+        public <T extends TransientObject> SetBuilder from(Class<T> from){
+            super.from(from);
+            return new SetBuilder(builder);
+        }
+    }
+
+    /**
+     * Assignments of an update query, executed by the server against every matching object.
+     */
+    public class SetBuilder extends WhereBuilder{
+
+        private SetBuilder(QueryBuilder builder){
+            super(builder);
+        }
+
+        public SetBuilder set(String field, Object value){
+            builder.addUpdate(Update.set(field, value));
+            return this;
+        }
+
+        public SetBuilder increment(String field, Number by){
+            builder.addUpdate(Update.increment(field, by));
+            return this;
+        }
+
+        public SetBuilder append(String field, Object value){
+            builder.addUpdate(Update.append(field, value));
+            return this;
+        }
     }
 
     public class QueryActionBuilder{
-        private QueryBuilder builder;
+        protected QueryBuilder builder;
 
         private QueryActionBuilder(QueryBuilder builder, QueryAction action){
             this.builder = builder;
@@ -130,19 +219,30 @@ public class QueryBuilder{
     }
 
     public class WhereBuilder{
-        private QueryBuilder builder;
+        protected QueryBuilder builder;
 
         protected WhereBuilder(QueryBuilder builder){
             this.builder = builder;
         }
 
-        public WhereMoreBuilder where(String one, OPERAND operand, String two){
-            builder.addWhere(one,operand,two);
+        /**
+         * @param two String, Boolean or Number, numbers compare by value. A collection for IN and BETWEEN.
+         */
+        public WhereMoreBuilder where(String one, OPERAND operand, Object two){
+            builder.addWhere(null,Expression.compare(one,operand,two));
+            return new WhereMoreBuilder(builder);
+        }
+
+        public WhereMoreBuilder where(TransientObject.MetaKey one, OPERAND operand, Object two){
+            builder.addWhere(null,Expression.compare(one,operand,two));
             return new WhereMoreBuilder(builder);
         }
 
-        public WhereMoreBuilder where(TransientObject.MetaKey one, OPERAND operand, String two){
-            builder.addWhere(one,operand,two);
+        /**
+         * @param expression condition, such as a nested group or an IN or BETWEEN predicate.
+         */
+        public WhereMoreBuilder where(Expression expression){
+            builder.addWhere(null,expression);
             return new WhereMoreBuilder(builder);
         }
 
@@ -158,6 +258,28 @@ public class QueryBuilder{
             return new RandomConstraintBuilder(builder,limit);
         }
 
+        /**
+         * One result per distinct value of the field, requires a select operation.
+         */
+        public GroupConstraintBuilder groupBy(String field){
+            return new GroupConstraintBuilder(builder,field);
+        }
+
+        public OrderConstraintBuilder orderBy(String field, Order order){
+            return new OrderConstraintBuilder(builder,TransientObject.USER_DATA + "." + field,order);
+        }
+
+        public OrderConstraintBuilder orderBy(TransientObject.MetaKey field, Order order){
+            return new OrderConstraintBuilder(builder,TransientObject.META_DATA + "." + field.KEY,order);
+        }
+
+        /**
+         * Orders by object key and continues after the given token.
+         */
+        public OrderConstraintBuilder after(String continuation){
+            return new OrderConstraintBuilder(builder,null,null).after(continuation);
+        }
+
         public Query build(){
             return builder.getQuery();
         }
@@ -170,23 +292,33 @@ public class QueryBuilder{
             this.builder = builder;
         }
 
-        public WhereMoreBuilder and(String one, OPERAND operand, String two){
-            builder.addWhere(OPERAND.Conditional.AND,one,operand,two);
+        public WhereMoreBuilder and(String one, OPERAND operand, Object two){
+            builder.addWhere(OPERAND.Conditional.AND,Expression.compare(one,operand,two));
+            return this;
+        }
+
+        public WhereMoreBuilder or(String one, OPERAND operand, Object two){
+            builder.addWhere(OPERAND.Conditional.OR,Expression.compare(one,operand,two));
             return this;
         }
 
-        public WhereMoreBuilder or(String one, OPERAND operand, String two){
-            builder.addWhere(OPERAND.Conditional.OR,one,operand,two);
+        public WhereMoreBuilder and(TransientObject.MetaKey one, OPERAND operand, Object two){
+            builder.addWhere(OPERAND.Conditional.AND,Expression.compare(one,operand,two));
             return this;
         }
 
-        public WhereMoreBuilder and(TransientObject.MetaKey one, OPERAND operand, String two){
-            builder.addWhere(OPERAND.Conditional.AND,one,operand,two);
+        public WhereMoreBuilder or(TransientObject.MetaKey one, OPERAND operand, Object two){
+            builder.addWhere(OPERAND.Conditional.OR,Expression.compare(one,operand,two));
             return this;
         }
 
-        public WhereMoreBuilder or(TransientObject.MetaKey one, OPERAND operand, String two){
-            builder.addWhere(OPERAND.Conditional.OR,one,operand,two);
+        public WhereMoreBuilder and(Expression expression){
+            builder.addWhere(OPERAND.Conditional.AND,expression);
+            return this;
+        }
+
+        public WhereMoreBuilder or(Expression expression){
+            builder.addWhere(OPERAND.Conditional.OR,expression);
             return this;
         }
 
@@ -203,6 +335,28 @@ public class QueryBuilder{
             return new RandomConstraintBuilder(builder,limit);
         }
 
+        /**
+         * One result per distinct value of the field, requires a select operation.
+         */
+        public GroupConstraintBuilder groupBy(String field){
+            return new GroupConstraintBuilder(builder,field);
+        }
+
+        public OrderConstraintBuilder orderBy(String field, Order order){
+            return new OrderConstraintBuilder(builder,TransientObject.USER_DATA + "." + field,order);
+        }
+
+        public OrderConstraintBuilder orderBy(TransientObject.MetaKey field, Order order){
+            return new OrderConstraintBuilder(builder,TransientObject.META_DATA + "." + field.KEY,order);
+        }
+
+        /**
+         * Orders by object key and continues after the given token.
+         */
+        public OrderConstraintBuilder after(String continuation){
+            return new OrderConstraintBuilder(builder,null,null).after(continuation);
+        }
+
         public Query build(){
             return builder.getQuery();
         }    }
@@ -240,6 +394,35 @@ public class QueryBuilder{
         }
     }
 
+    public class OrderConstraintBuilder extends ConstraintBuilder{
+
+        private OrderConstraintBuilder(QueryBuilder builder, String orderBy, Order order) {
+            super(builder);
+            builder.setOrderBy(orderBy, order);
+        }
+
+        /**
+         * @param continuation token from {@link Query#continuationAfter(TransientObject)}, results
+         *                     start right after the object it was created from.
+         */
+        public OrderConstraintBuilder after(String continuation){
+            builder.setAfter(continuation);
+            return this;
+        }
+
+        public LimitConstraintBuilder limit(Integer limit){
+            return new LimitConstraintBuilder(builder,limit);
+        }
+    }
+
+    public class GroupConstraintBuilder extends ConstraintBuilder{
+
+        private GroupConstraintBuilder(QueryBuilder builder, String field) {
+            super(builder);
+            builder.setGroupBy(field);
+        }
+    }
+
     public class RandomConstraintBuilder extends ConstraintBuilder{
 
         private RandomConstraintBuilder(QueryBuilder builder, Integer limit) {
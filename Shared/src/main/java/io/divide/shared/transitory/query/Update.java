@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.shared.transitory.query;
+
+import io.divide.shared.transitory.TransientObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Assignment to a user data field, applied by an update query to every object it matches
+ * or by a {@link Patch} to a single object.
+ */
+public class Update {
+
+    public static enum Operation {
+        SET("SET"),
+        INCREMENT("INCREMENT"),
+        APPEND("ADD");
+
+        String keyword;
+
+        Operation(String keyword){
+            this.keyword = keyword;
+        }
+
+        /**
+         * @return sql keyword introducing assignments of this operation.
+         */
+        public String getKeyword() {
+            return keyword;
+        }
+    }
+
+    private String field;
+    private Operation operation;
+    private Literal value;
+
+    private Update(){}
+
+    private Update(String field, Operation operation, Literal value){
+        this.field = field;
+        this.operation = operation;
+        this.value = value;
+    }
+
+    /**
+     * @param key user data field.
+     * @param value String, Boolean or Number.
+     */
+    public static Update set(String key, Object value){
+        return new Update(TransientObject.USER_DATA + "." + key, Operation.SET, Literal.of(value));
+    }
+
+    /**
+     * Adds to a number field, a missing field counts as 0.
+     * @param key user data field.
+     */
+    public static Update increment(String key, Number by){
+        return new Update(TransientObject.USER_DATA + "." + key, Operation.INCREMENT, Literal.of(by));
+    }
+
+    /**
+     * Adds a value to the end of an array field, a missing field becomes a single element array.
+     * @param key user data field.
+     * @param value String, Boolean or Number.
+     */
+    public static Update append(String key, Object value){
+        return new Update(TransientObject.USER_DATA + "." + key, Operation.APPEND, Literal.of(value));
+    }
+
+    /**
+     * @return user_data path of the field.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * @return key of the field within the user data.
+     */
+    public String getKey() {
+        return field.substring(TransientObject.USER_DATA.length() + 1);
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Literal getValue() {
+        return value;
+    }
+
+    /**
+     * @param current value of the field, may be null.
+     * @return new value of the field.
+     * @throws IllegalArgumentException if a field that is not a number is incremented,
+     * or a field that is not an array is appended to.
+     */
+    public Object apply(Object current){
+        if(operation == Operation.SET) return value.getValue();
+        if(operation == Operation.APPEND) return append(current);
+
+        Number by = (Number) value.getValue();
+        if(current == null) return by;
+        if(!(current instanceof Number)) throw new IllegalArgumentException(field + " is not a number: " + current);
+        Number number = (Number) current;
+        if(integral(number) && value.getType() == Literal.Type.LONG) return number.longValue() + by.longValue();
+        return number.doubleValue() + by.doubleValue();
+    }
+
+    public void applyTo(TransientObject object){
+        object.put(getKey(), apply(object.get(Object.class, getKey())));
+    }
+
+    private List<Object> append(Object current){
+        List<Object> list = new ArrayList<Object>();
+        if(current instanceof Collection) list.addAll((Collection<?>) current);
+        else if(current instanceof Object[]) list.addAll(Arrays.asList((Object[]) current));
+        else if(current != null) throw new IllegalArgumentException(field + " is not an array: " + current);
+        list.add(value.getValue());
+        return list;
+    }
+
+    private static boolean integral(Number number){
+        return number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte;
+    }
+
+    @Override
+    public String toString() {
+        switch (operation){
+            case INCREMENT: return field + " += " + value.getCoded();
+            case APPEND: return field + " << " + value.getCoded();
+            default: return field + " = " + value.getCoded();
+        }
+    }
+}
@@ -17,19 +17,49 @@
 package io.divide.shared.util;
 
 import io.divide.shared.transitory.Credentials;
-import org.jasypt.encryption.pbe.StandardPBEStringEncryptor;
+import org.jasypt.encryption.pbe.PBEStringEncryptor;
+import org.jasypt.encryption.pbe.PooledPBEStringEncryptor;
 import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 public class AuthTokenUtils {
     static Logger logger = Logger.getLogger(AuthTokenUtils.class.getName());
     static long expirateIn = (1000 * 60 * 60 * 24); // 1 day
 
+    private static final String UTF8 = "UTF-8";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final char HMAC_SEPARATOR = '.'; // never produced by the url safe Base64 alphabet
+
+    /**
+     * Token formats understood by {@link AuthToken}.
+     * PBE tokens are encrypted, HMAC tokens are signed only, which makes them much cheaper
+     * to issue and parse but leaves the owner id and expiration readable.
+     * STATELESS tokens are HMAC tokens that also carry the user group and a real expiration,
+     * so a server can trust them without looking the token up. As they can not be revoked
+     * they expire after a day instead of never.
+     */
+    public static enum TokenFormat {
+        PBE,
+        HMAC,
+        STATELESS
+    }
+
     public static String getNewToken(String key, Credentials credentials){
+        return getNewToken(key, credentials, TokenFormat.PBE);
+    }
+
+    public static String getNewToken(String key, Credentials credentials, TokenFormat format){
 
         String uuid = UUID.randomUUID().toString();
         Integer ownerId = credentials.getOwnerId();
@@ -38,61 +68,140 @@ public class AuthTokenUtils {
 
         if(ownerId == null) throw new InternalError("ownerId returned null for receating auth token");
 
+        if(format == TokenFormat.STATELESS){
+            String group = credentials.getUserGroup();
+            return sign(uuid +
+                    "|" + ownerId +
+                    "|" + (System.currentTimeMillis() + expirateIn) +
+                    "|" + (group == null ? "" : group), key);
+        }
+
         String token = uuid +
 //                "|" + someImportantProjectToken +
                 "|" + ownerId +
                 "|" + expireIn; // TODO grab this from credentials?
-        return encrypt(token,key);
+
+        switch (format){
+            case HMAC: return sign(token,key);
+            default: return encrypt(token,key);
+        }
     }
 
     public static class AuthToken {
         public String userId;
         public Long expirationDate;
+        public String group;
+        private boolean stateless;
         public AuthToken(String key,String token) throws AuthenticationException {
             try {
-                logger.info("En: " + token);
-                token = decrypt(token, key);
-                logger.info("De: " + token);
-                String[] parts = token.split("(\\|)");
-                for (String s : parts){
-                    logger.info("Part: " + s);
+                boolean signed = token.indexOf(HMAC_SEPARATOR) >= 0;
+                if(signed){
+                    token = verify(token, key);
+                } else {
+                    token = decrypt(token, key);
                 }
+                String[] parts = token.split("(\\|)", 4);
                 userId = parts[1];
                 expirationDate = Long.parseLong(parts[2]);
+                if(signed && parts.length == 4){
+                    stateless = true;
+                    group = (parts[3].length() == 0) ? null : parts[3];
+                }
             } catch (EncryptionOperationNotPossibleException e){
-                e.printStackTrace();
                 throw new AuthenticationException("Failed to create AuthToken",e);
+            } catch (RuntimeException e){
+                // malformed tokens surface as decoding/parsing errors
+                throw new AuthenticationException("Malformed AuthToken",e);
             }
         }
 
         public boolean isExpired(){
             return expirationDate < System.currentTimeMillis();
         }
+
+        /**
+         * @return true if this token was issued as {@link TokenFormat#STATELESS} and carries
+         * everything needed to authenticate without a Credentials lookup.
+         */
+        public boolean isStateless(){
+            return stateless;
+        }
     }
 
-    private static Map<String,StandardPBEStringEncryptor> encryptors = new HashMap<String,StandardPBEStringEncryptor>();
-    private static StandardPBEStringEncryptor getEncryptor(String key){
-        StandardPBEStringEncryptor encryptor;
-        if(encryptors.containsKey(key)) encryptor = encryptors.get(key);
-        else {
-            encryptor = new StandardPBEStringEncryptor();
-            encryptor.setPassword(key);
+    // PBE key derivation is expensive, so build one pooled encryptor per key and reuse it.
+    private static final ConcurrentMap<String,PBEStringEncryptor> encryptors = new ConcurrentHashMap<String,PBEStringEncryptor>();
+    private static PBEStringEncryptor getEncryptor(String key){
+        PBEStringEncryptor encryptor = encryptors.get(key);
+        if(encryptor == null){
+            PooledPBEStringEncryptor pooled = new PooledPBEStringEncryptor();
+            pooled.setPoolSize(Runtime.getRuntime().availableProcessors());
+            pooled.setPassword(key);
+            encryptor = encryptors.putIfAbsent(key, pooled);
+            if(encryptor == null) encryptor = pooled;
         }
         return encryptor;
     }
 
     private static String encrypt(String string, String key){
-        StandardPBEStringEncryptor encryptor = getEncryptor(key);
+        PBEStringEncryptor encryptor = getEncryptor(key);
         String encrypted = encryptor.encrypt(string);
         return Base64.encode(encrypted);
     }
 
     private static String decrypt(String string, String key){
-        StandardPBEStringEncryptor encryptor = getEncryptor(key);
+        PBEStringEncryptor encryptor = getEncryptor(key);
         String decoded = Base64.decode(string);
         return encryptor.decrypt(decoded);
     }
 
+    // Mac instances are not thread safe, keep one per thread and key.
+    private static final ThreadLocal<Map<String,Mac>> macs = new ThreadLocal<Map<String, Mac>>(){
+        @Override
+        protected Map<String, Mac> initialValue() {
+            return new HashMap<String, Mac>();
+        }
+    };
+
+    private static byte[] mac(String string, String key){
+        try {
+            Map<String,Mac> threadMacs = macs.get();
+            Mac mac = threadMacs.get(key);
+            if(mac == null){
+                mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(new SecretKeySpec(key.getBytes(UTF8), HMAC_ALGORITHM));
+                threadMacs.put(key, mac);
+            }
+            return mac.doFinal(string.getBytes(UTF8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC_ALGORITHM + " unavailable", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sign(String string, String key){
+        try {
+            return new String(Base64.encode(string.getBytes(UTF8)), UTF8) +
+                    HMAC_SEPARATOR +
+                    new String(Base64.encode(mac(string, key)), UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String verify(String token, String key) throws AuthenticationException {
+        try {
+            int split = token.indexOf(HMAC_SEPARATOR);
+            String payload = new String(Base64.decode(token.substring(0, split).getBytes(UTF8)), UTF8);
+            byte[] signature = Base64.decode(token.substring(split + 1).getBytes(UTF8));
+            if(!MessageDigest.isEqual(signature, mac(payload, key))){
+                throw new AuthenticationException("AuthToken signature mismatch", null);
+            }
+            return payload;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
     public static class AuthenticationException extends Exception{
         public AuthenticationException(String message, Exception e){
             super(message,e);
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/*
+ * Compact, schema-less binary alternative to JSON. Values are tagged and length prefixed, and
+ * strings (field names as well as values such as object types or permissions) are sent once per
+ * message and referenced by index afterwards. Objects are mapped with Gson as for JSON, see
+ * {@link BinaryWriter} and {@link BinaryReader}.
+ */
+public class BinaryFormat {
+
+    public static final String MEDIA_TYPE = "application/x-divide-binary";
+
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int LONG = 3;       // zigzag varint
+    static final int DOUBLE = 4;     // 8 bytes, big endian
+    static final int NUMBER = 5;     // decimal text, for BigDecimal and friends
+    static final int STRING = 6;     // varint byte length + UTF-8
+    static final int STRING_DEF = 7; // as STRING, and appended to the string table
+    static final int STRING_REF = 8; // varint index into the string table
+    static final int BEGIN_ARRAY = 9;
+    static final int END_ARRAY = 10;
+    static final int BEGIN_OBJECT = 11;
+    static final int END_OBJECT = 12;
+
+    // strings longer than this are unlikely to repeat and not worth remembering
+    static final int MAX_INTERNED_LENGTH = 512;
+    static final int MAX_INTERNED_STRINGS = 1 << 16;
+
+    // limits applied when reading, so a few malicious bytes can not make the reader allocate or recurse without bound
+    static final int MAX_STRING_LENGTH = 1 << 24;
+    static final int MAX_DEPTH = 256;
+
+    private BinaryFormat(){}
+
+    public static byte[] toBytes(Gson gson, Object src, Type type) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryWriter writer = new BinaryWriter(out);
+        gson.toJson(src, type, writer);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    public static <T> T fromBytes(Gson gson, byte[] bytes, Type type) throws IOException {
+        BinaryReader reader = new BinaryReader(new ByteArrayInputStream(bytes));
+        try {
+            return gson.fromJson(reader.read(), type);
+        } finally {
+            reader.close();
+        }
+    }
+}
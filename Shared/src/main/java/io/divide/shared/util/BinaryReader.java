@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.*;
+import com.google.gson.internal.LazilyParsedNumber;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.divide.shared.util.BinaryFormat.*;
+
+/*
+ * Reads {@link BinaryFormat} into Gson trees, objects are then mapped with gson.fromJson(element, type).
+ * A top level array can be read one element at a time with beginArray(), hasNext() and read().
+ * Not thread safe.
+ */
+public class BinaryReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private int limit = 0;
+    private final List<String> strings = new ArrayList<String>();
+    private int depth = 0;
+
+    public BinaryReader(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * @return next value, arrays and objects are read whole.
+     * @throws EOFException if the stream ends before a complete value was read.
+     */
+    public JsonElement read() throws IOException {
+        return readValue(readTag());
+    }
+
+    /**
+     * Consumes the start of an array, its elements can then be read one by one.
+     */
+    public void beginArray() throws IOException {
+        expect(BEGIN_ARRAY);
+    }
+
+    /**
+     * @return whether the current array holds another element.
+     */
+    public boolean hasNext() throws IOException {
+        return fill(1) && buffer[position] != END_ARRAY;
+    }
+
+    public void endArray() throws IOException {
+        expect(END_ARRAY);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private JsonElement readValue(int tag) throws IOException {
+        switch (tag){
+            case NULL: return JsonNull.INSTANCE;
+            case FALSE: return new JsonPrimitive(false);
+            case TRUE: return new JsonPrimitive(true);
+            case LONG:
+                long zigzag = readVarint();
+                return new JsonPrimitive((zigzag >>> 1) ^ -(zigzag & 1));
+            case DOUBLE:
+                long bits = 0;
+                for(int i = 0; i < 8; i++) bits = (bits << 8) | (readByte() & 0xFF);
+                return new JsonPrimitive(Double.longBitsToDouble(bits));
+            case NUMBER: return new JsonPrimitive(new LazilyParsedNumber(readUtf8()));
+            case STRING:
+            case STRING_DEF:
+            case STRING_REF: return new JsonPrimitive(readString(tag));
+            case BEGIN_ARRAY:
+                enter();
+                JsonArray array = new JsonArray();
+                for(int next = readTag(); next != END_ARRAY; next = readTag()){
+                    array.add(readValue(next));
+                }
+                depth--;
+                return array;
+            case BEGIN_OBJECT:
+                enter();
+                JsonObject object = new JsonObject();
+                for(int next = readTag(); next != END_OBJECT; next = readTag()){
+                    String name = readString(next);
+                    object.add(name, readValue(readTag()));
+                }
+                depth--;
+                return object;
+            default: throw new JsonSyntaxException("Unexpected tag " + tag);
+        }
+    }
+
+    private void enter(){
+        if(++depth > MAX_DEPTH) throw new JsonSyntaxException("Nested deeper than " + MAX_DEPTH);
+    }
+
+    private String readString(int tag) throws IOException {
+        switch (tag){
+            case STRING: return readUtf8();
+            case STRING_DEF:
+                String value = readUtf8();
+                if(strings.size() >= MAX_INTERNED_STRINGS) throw new JsonSyntaxException("Too many strings defined");
+                strings.add(value);
+                return value;
+            case STRING_REF:
+                long index = readVarint();
+                if(index < 0 || index >= strings.size()) throw new JsonSyntaxException("Unknown string " + index);
+                return strings.get((int) index);
+            default: throw new JsonSyntaxException("Expected a string, found tag " + tag);
+        }
+    }
+
+    private String readUtf8() throws IOException {
+        long length = readVarint();
+        if(length < 0 || length > MAX_STRING_LENGTH) throw new JsonSyntaxException("Invalid string length: " + length);
+        int size = (int) length;
+        if(size > buffer.length){
+            // grows with the bytes actually received rather than trusting the declared length up front
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(buffer.length * 2);
+            int remaining = size;
+            while(remaining > 0){
+                if(!fill(1)) throw new EOFException();
+                int count = Math.min(limit - position, remaining);
+                bytes.write(buffer, position, count);
+                position += count;
+                remaining -= count;
+            }
+            return bytes.toString("UTF-8");
+        }
+        if(!fill(size)) throw new EOFException();
+        String value = ascii(size) ? new String(buffer, position, size, US_ASCII) : new String(buffer, position, size, UTF_8);
+        position += size;
+        return value;
+    }
+
+    private boolean ascii(int size){
+        for(int i = position, end = position + size; i < end; i++){
+            if(buffer[i] < 0) return false;
+        }
+        return true;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new JsonSyntaxException("Malformed varint");
+    }
+
+    private void expect(int tag) throws IOException {
+        int found = readTag();
+        if(found != tag) throw new JsonSyntaxException("Expected tag " + tag + ", found " + found);
+    }
+
+    private int readTag() throws IOException {
+        return readByte();
+    }
+
+    private int readByte() throws IOException {
+        if(!fill(1)) throw new EOFException();
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Makes sure at least the given number of bytes, at most the buffer size, follow position.
+     * @return false if the stream ended first.
+     */
+    private boolean fill(int required) throws IOException {
+        if(limit - position >= required) return true;
+        if(position > 0){
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        while(limit < required){
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if(count < 0) return false;
+            limit += count;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.divide.shared.util.BinaryFormat.*;
+
+/*
+ * JsonWriter emitting {@link BinaryFormat}, so Gson can serialize straight into it:
+ * gson.toJson(object, type, new BinaryWriter(out)). Not thread safe.
+ */
+public class BinaryWriter extends JsonWriter {
+
+    private static final Writer UNUSED = new Writer() {
+        @Override public void write(char[] chars, int off, int len) { throw new UnsupportedOperationException(); }
+        @Override public void flush() { }
+        @Override public void close() { }
+    };
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private final Map<String,Integer> strings = new HashMap<String, Integer>();
+    private String deferredName;
+
+    public BinaryWriter(OutputStream out){
+        super(UNUSED);
+        this.out = out;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        writeDeferredName();
+        writeTag(BEGIN_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        writeTag(END_ARRAY);
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        writeDeferredName();
+        writeTag(BEGIN_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        deferredName = null;
+        writeTag(END_OBJECT);
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if(name == null) throw new NullPointerException("name == null");
+        if(deferredName != null) throw new IllegalStateException();
+        deferredName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        if(value == null) return nullValue();
+        writeDeferredName();
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        if(deferredName != null){
+            if(!getSerializeNulls()){
+                deferredName = null; // drop the whole property, as JsonWriter does
+                return this;
+            }
+            writeDeferredName();
+        }
+        writeTag(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        writeDeferredName();
+        writeTag(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        writeDeferredName();
+        // whole numbers are common (counts, dates read back as doubles) and much shorter as varints
+        if(Math.abs(value) < (1L << 53) && value == Math.rint(value) && !isNegativeZero(value)){
+            writeLong((long) value);
+        } else {
+            writeTag(DOUBLE);
+            long bits = Double.doubleToRawLongBits(value);
+            for(int shift = 56; shift >= 0; shift -= 8) writeByte((int) (bits >>> shift));
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        writeDeferredName();
+        writeLong(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if(value == null) return nullValue();
+        if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte){
+            return value(value.longValue());
+        } else if(value instanceof Double || value instanceof Float){
+            return value(value.doubleValue());
+        }
+        writeDeferredName();
+        writeTag(NUMBER);
+        writeUtf8(value.toString());
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    private void writeDeferredName() throws IOException {
+        if(deferredName != null){
+            writeString(deferredName);
+            deferredName = null;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        Integer index = strings.get(value);
+        if(index != null){
+            writeTag(STRING_REF);
+            writeVarint(index);
+        } else if(value.length() <= MAX_INTERNED_LENGTH && strings.size() < MAX_INTERNED_STRINGS){
+            strings.put(value, strings.size());
+            writeTag(STRING_DEF);
+            writeUtf8(value);
+        } else {
+            writeTag(STRING);
+            writeUtf8(value);
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeTag(LONG);
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUtf8(String value) throws IOException {
+        int length = value.length();
+        for(int i = 0; i < length; i++){
+            if(value.charAt(i) >= 0x80){
+                byte[] bytes = value.getBytes(UTF_8);
+                writeVarint(bytes.length);
+                writeBytes(bytes);
+                return;
+            }
+        }
+        // plain ASCII, one byte per char
+        writeVarint(length);
+        for(int i = 0; i < length; i++) writeByte(value.charAt(i));
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while((value & ~0x7FL) != 0){
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeTag(int tag) throws IOException {
+        writeByte(tag);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if(bytes.length > buffer.length - position){
+            out.write(buffer, 0, position);
+            position = 0;
+            if(bytes.length > buffer.length){
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if(position == buffer.length){
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private static boolean isNegativeZero(double value){
+        return value == 0 && Double.doubleToRawLongBits(value) != 0;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.TransientObjectAdapterFactory;
+import io.divide.shared.transitory.query.Clause;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryAdapterFactory;
+
+/*
+ * Shared Gson instances. Gson is thread safe once built, and caches the adapters it resolves, so
+ * these should be used rather than building new instances.
+ */
+public class GsonUtils {
+
+    /**
+     * Default instance, null values are left out.
+     */
+    public static final Gson GSON = builder().create();
+
+    /**
+     * Same as {@link #GSON}, but null values are written.
+     */
+    public static final Gson GSON_WITH_NULLS = builder().serializeNulls().create();
+
+    static {
+        warmUp(GSON);
+        warmUp(GSON_WITH_NULLS);
+    }
+
+    private GsonUtils(){}
+
+    /**
+     * @return builder with the adapters and settings of the shared instances, for callers needing more.
+     */
+    public static GsonBuilder builder(){
+        return new GsonBuilder()
+                .enableComplexMapKeySerialization()
+                .registerTypeAdapterFactory(new TransientObjectAdapterFactory())
+                .registerTypeAdapterFactory(new QueryAdapterFactory());
+    }
+
+    // adapters are resolved on first use, do it now rather than on the first request
+    private static void warmUp(Gson gson){
+        gson.getAdapter(TransientObject.class);
+        gson.getAdapter(Credentials.class);
+        gson.getAdapter(Query.class);
+        gson.getAdapter(Clause.class);
+    }
+}
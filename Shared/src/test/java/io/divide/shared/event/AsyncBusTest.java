@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.shared.event;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncBusTest {
+
+    private AsyncBus bus;
+
+    @After
+    public void tearDown(){
+        if(bus != null) bus.shutdown();
+    }
+
+    @Test
+    public void testOrderedOffThread() throws Exception {
+        bus = new AsyncBus("ordered", 2048, 4, AsyncBus.Backpressure.BLOCK);
+        Recorder first = new Recorder(1000);
+        Recorder second = new Recorder(1000);
+        bus.register(first);
+        bus.register(second);
+
+        for(int i = 0; i < 1000; i++){
+            bus.post(new CountEvent(i));
+        }
+
+        for(Recorder recorder : new Recorder[]{first, second}){
+            assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+            for(int i = 0; i < 1000; i++){
+                assertEquals(i, (int) recorder.values.get(i));
+                assertNotSame(Thread.currentThread(), recorder.threads.get(i));
+            }
+        }
+        assertEquals(2000, bus.getDispatched());
+        assertEquals(0, bus.getDropped());
+        assertTrue(bus.getMaxLag() >= bus.getAverageLag());
+    }
+
+    @Test
+    public void testDropDoesNotBlock() throws Exception {
+        bus = new AsyncBus("drop", 2, 1, AsyncBus.Backpressure.DROP);
+        Blocking blocking = new Blocking();
+        bus.register(blocking);
+
+        for(int i = 0; i < 10; i++){
+            bus.post(new CountEvent(i));
+        }
+        assertTrue(bus.getDropped() > 0);
+        assertTrue(bus.getQueueDepth() <= 2);
+
+        blocking.release.countDown();
+        long end = System.currentTimeMillis() + 5000;
+        while (bus.getDispatched() + bus.getDropped() < 10 && System.currentTimeMillis() < end){
+            Thread.sleep(10);
+        }
+        assertEquals(10, bus.getDispatched() + bus.getDropped());
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        bus = new AsyncBus("caller", 1, 1, AsyncBus.Backpressure.CALLER_RUNS);
+        Blocking blocking = new Blocking();
+        bus.register(blocking);
+
+        bus.post(new CountEvent(0));
+        assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+        bus.post(new CountEvent(1));
+        bus.post(new CountEvent(2));
+
+        assertEquals(1, bus.getQueueDepth());
+        assertEquals(2, (int) blocking.values.get(1));
+        assertEquals(Thread.currentThread(), blocking.threads.get(1));
+        blocking.release.countDown();
+    }
+
+    @Test
+    public void testFailingSubscriber() throws Exception {
+        bus = new AsyncBus("failing");
+        Recorder recorder = new Recorder(2){
+            @Override
+            public void onEvent(CountEvent event) {
+                super.onEvent(event);
+                throw new IllegalStateException("expected");
+            }
+        };
+        bus.register(recorder);
+        bus.post(new CountEvent(0));
+        bus.post(new CountEvent(1));
+
+        assertTrue(recorder.done.await(5, TimeUnit.SECONDS));
+        long end = System.currentTimeMillis() + 5000;
+        while (bus.getFailed() < 2 && System.currentTimeMillis() < end){
+            Thread.sleep(10);
+        }
+        assertEquals(2, bus.getFailed());
+    }
+
+    @Test
+    public void testEventManager() throws Exception {
+        EventManager manager = EventManager.get("async-test");
+        Recorder sync = new Recorder(1);
+        Recorder async = new Recorder(1);
+        manager.register(sync);
+        manager.registerAsync(async);
+        try {
+            manager.fire(new CountEvent(7));
+            assertEquals(1, sync.values.size());
+            assertEquals(Thread.currentThread(), sync.threads.get(0));
+            assertTrue(async.done.await(5, TimeUnit.SECONDS));
+            assertEquals(7, (int) async.values.get(0));
+            assertNotSame(Thread.currentThread(), async.threads.get(0));
+        } finally {
+            manager.unregister(sync);
+            manager.unregisterAsync(async);
+        }
+    }
+
+    public static class CountEvent extends Event {
+        final int value;
+
+        CountEvent(int value){
+            super(AsyncBusTest.class);
+            this.value = value;
+        }
+    }
+
+    public static class Recorder implements Subscriber<CountEvent> {
+        final List<Integer> values = new CopyOnWriteArrayList<Integer>();
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        final CountDownLatch done;
+
+        Recorder(int expected){
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onEvent(CountEvent event) {
+            values.add(event.value);
+            threads.add(Thread.currentThread());
+            done.countDown();
+        }
+    }
+
+    public static class Blocking extends Recorder {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Blocking(){
+            super(0);
+        }
+
+        @Override
+        public void onEvent(CountEvent event) {
+            super.onEvent(event);
+            if(event.value == 0){
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) { }
+            }
+        }
+    }
+}
@@ -58,5 +58,21 @@ public class TransientObjectTest extends TestCase {
 
     }
 
+    public void testRetainFields() throws Exception {
+        AObject o = new AObject();
+        o.put("title", "t");
+        o.put("score", 1);
+        o.put("body", "b");
+        String key = o.getObjectKey();
+        assertFalse(o.isPartial());
+
+        o.retainFields(Arrays.asList("title", "score"));
+        assertTrue(o.isPartial());
+        assertEquals(2, o.getUserData().size());
+        assertEquals("t", o.get(String.class, "title"));
+        assertEquals(key, o.getObjectKey());
+        assertEquals(3, o.getMetaData().size()); // key, type and the partial flag
+    }
+
     private static class AObject extends TransientObject { }
 }
@@ -1,8 +1,13 @@
 package io.divide.shared.transitory.query;
 
 import io.divide.shared.transitory.TransientObject;
+import com.google.gson.Gson;
 import junit.framework.TestCase;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 public class QueryTest extends TestCase {
 
     public void testSafeTable() throws Exception {
@@ -17,5 +22,264 @@ public class QueryTest extends TestCase {
         assertEquals(A.class.getName(),Query.reverseTable(Query.safeTable(A.class)));
     }
 
+    public void testParameterizedSQL() throws Exception {
+        Query q1 = new QueryBuilder().select().from(A.class).where("key1", OPERAND.EQ, "it's").or("key2", OPERAND.GREATER_THAN, "2").limit(5).build();
+        Query q2 = new QueryBuilder().select().from(A.class).where("key1", OPERAND.EQ, "other").or("key2", OPERAND.GREATER_THAN, "3").limit(5).build();
+
+        String sql = "SELECT * FROM " + Query.safeTable(A.class) + " WHERE user_data.key1 == ? OR user_data.key2 > ? LIMIT 5";
+        assertEquals(sql, q1.getPlannedSQL(null));
+        assertEquals(q1.getPlannedSQL(null), q2.getPlannedSQL(null));
+        assertEquals(Arrays.<Object>asList("it's", "2"), q1.getParameters());
+
+        Expression.Planner planner = new Expression.Planner() {
+            @Override
+            public String field(Expression predicate) {
+                boolean indexed = predicate.getOperand() == OPERAND.EQ && "user_data.key1".equals(predicate.getField());
+                return indexed ? "idx_user_data_key1" : null;
+            }
+        };
+        assertEquals("idx_user_data_key1 == ? OR user_data.key2 > ?", q1.getPlannedConditionSQL(planner));
+        assertEquals("SELECT * FROM " + Query.safeTable(A.class) + " WHERE idx_user_data_key1 == ? OR user_data.key2 > ? LIMIT 5", q1.getPlannedSQL(planner));
+    }
+
+    public void testExpressionSQL() throws Exception {
+        Query q = new QueryBuilder().select().from(A.class)
+                .where(Expression.between("score", 10, 20.5))
+                .and(Expression.or(Expression.in("team", "red", "blue"), Expression.compare("active", OPERAND.EQ, true)))
+                .build();
+        assertEquals("user_data.score BETWEEN 10 AND 20.5 AND (user_data.team IN ['red', 'blue'] OR user_data.active == true)",
+                     q.getFilter().toString());
+        assertEquals("user_data.score BETWEEN ? AND ? AND (user_data.team IN [?, ?] OR user_data.active == ?)",
+                     q.getPlannedConditionSQL(null));
+        assertEquals(Arrays.<Object>asList(10L, 20.5, "red", "blue", true), q.getParameters());
+
+        A a = a("red", 15);
+        assertTrue(q.getFilter().matches(a));
+        a.put("score", 21);
+        assertFalse(q.getFilter().matches(a));
+
+        // values of another type share the text but not the shape
+        Query other = new QueryBuilder().select().from(A.class).where("score", OPERAND.GREATER_THAN, 1).build();
+        Query string = new QueryBuilder().select().from(A.class).where("score", OPERAND.GREATER_THAN, "1").build();
+        assertEquals(other.getPlannedSQL(null), string.getPlannedSQL(null));
+        assertFalse(other.getFilter().getShape().equals(string.getFilter().getShape()));
+
+        try {
+            Expression.compare("score", OPERAND.BETWEEN, 1);
+            fail("BETWEEN with a single value");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    public void testLegacyClauses() throws Exception {
+        // clauses of older clients, AND binds tighter than OR
+        Query q = new QueryBuilder().select().from(A.class).build();
+        q.where.put(0, new Clause("user_data.key1", OPERAND.EQ, "1"));
+        q.where.put(1, new Clause(OPERAND.Conditional.AND, "user_data.key2", OPERAND.GREATER_THAN, "2"));
+        q.where.put(2, new Clause(OPERAND.Conditional.OR, "user_data.key3", OPERAND.EQ, "3"));
+        assertEquals("(user_data.key1 == '1' AND user_data.key2 > '2') OR user_data.key3 == '3'", q.getFilter().toString());
+
+        Expression filter = q.getFilter();
+        assertEquals(OPERAND.Conditional.OR, filter.getConditional());
+        assertEquals(2, filter.getTerms().size());
+    }
+
+    public void testLiteral() throws Exception {
+        assertEquals(Literal.Type.LONG, Literal.of(5).getType());
+        assertEquals(5L, Literal.of((short) 5).getValue());
+        assertEquals(Literal.Type.DOUBLE, Literal.of(1.5f).getType());
+        assertEquals(Boolean.TRUE, Literal.of(true).getValue());
+        assertEquals("'it\\'s'", Literal.of("it's").getCoded());
+
+        Gson gson = new Gson();
+        Query q = new QueryBuilder().select().from(A.class).where(Expression.in("score", 1, 2.5, "3")).build();
+        Query back = gson.fromJson(gson.toJson(q), Query.class);
+        assertEquals(q.getFilter().toString(), back.getFilter().toString());
+        assertEquals(q.getParameters(), back.getParameters());
+    }
+
+    public void testOrderBySQL() throws Exception {
+        Query q = new QueryBuilder().select().from(A.class).where("key1", OPERAND.EQ, "1").orderBy("key2", Order.DESC).limit(5).build();
+        assertEquals("SELECT * FROM " + Query.safeTable(A.class) + " WHERE user_data.key1 == ? ORDER BY user_data.key2 DESC LIMIT 5", q.getPlannedSQL(null));
+        assertTrue(q.isOrdered());
+        assertFalse(new QueryBuilder().select().from(A.class).build().isOrdered());
+
+        try {
+            new QueryBuilder().select().from(A.class).orderBy("key2 DESC, key1", Order.ASC);
+            fail("order by a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+
+        // queries of other clients are not built here, storage layers check them
+        q.orderBy = "user_data.key2; DELETE FROM " + Query.safeTable(A.class);
+        try {
+            q.checkFields();
+            fail("order by a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    public void testProjectionSQL() throws Exception {
+        Query q = new QueryBuilder().select("title", "score").from(A.class).where("key1", OPERAND.EQ, "1").limit(5).build();
+        assertEquals("SELECT meta_data.object_key AS _key, user_data.title AS title, user_data.score AS score FROM " + Query.safeTable(A.class) +
+                     " WHERE user_data.key1 == ? LIMIT 5", q.getPlannedSQL(null));
+        assertEquals("*", new QueryBuilder().select().from(A.class).build().getProjectionSQL());
+
+        q = new QueryBuilder().select("title").from(A.class).orderBy("score", Order.ASC).build();
+        assertEquals(Arrays.asList("title", "score"), q.getFields());
+
+        try {
+            new QueryBuilder().select("title", "score AS title FROM x");
+            fail("projection of a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+
+        q.fields = Arrays.asList("title", "* FROM x");
+        try {
+            q.checkFields();
+            fail("projection of a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    public void testAggregateSQL() throws Exception {
+        String table = Query.safeTable(A.class);
+        Query q = new QueryBuilder().select(SelectOperation.COUNT).from(A.class).where("key1", OPERAND.EQ, "1").build();
+        assertEquals("SELECT count(*) AS _count FROM " + table + " WHERE user_data.key1 == ?", q.getPlannedSQL(null));
+
+        q = new QueryBuilder().select(SelectOperation.AVG, "score").from(A.class).groupBy("team").build();
+        assertEquals("SELECT user_data.team AS _group, count(user_data.score) AS _count, sum(user_data.score) AS _value FROM " + table +
+                     " GROUP BY user_data.team", q.getSQL());
+
+        q = new QueryBuilder().select(SelectOperation.MAX, "score").from(A.class).build();
+        assertEquals("SELECT count(user_data.score) AS _count, max(user_data.score) AS _value FROM " + table, q.getSQL());
+
+        try {
+            new QueryBuilder().select(SelectOperation.SUM);
+            fail("SUM without a field");
+        } catch (IllegalArgumentException e) { }
+        try {
+            new QueryBuilder().select().from(A.class).groupBy("team");
+            fail("group by without a select operation");
+        } catch (IllegalStateException e) { }
+        try {
+            new QueryBuilder().select(SelectOperation.SUM, "score) AS _value FROM x --");
+            fail("aggregate of a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+        try {
+            new QueryBuilder().select(SelectOperation.COUNT).from(A.class).groupBy("team, user_data.score");
+            fail("group by a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+
+        q.groupBy = "team; DELETE FROM " + table;
+        try {
+            q.checkFields();
+            fail("group by a field that is not an identifier");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    public void testUpdateSQL() throws Exception {
+        Query q = new QueryBuilder().update().from(A.class).increment("score", 1).set("team", "red").where("team", OPERAND.EQ, "blue").build();
+        assertEquals("UPDATE " + Query.safeTable(A.class) + " SET user_data.team = ? INCREMENT user_data.score = ? WHERE user_data.team == ?",
+                     q.getPlannedSQL(null));
+        assertEquals(Arrays.<Object>asList("red", 1L, "blue"), q.getParameters());
+        assertEquals(2, q.getUpdates().size());
+
+        A a = a("blue", 4);
+        for(Update update : q.getUpdates()) update.applyTo(a);
+        assertEquals(5L, a.get(Object.class, "score"));
+        assertEquals("red", a.get(String.class, "team"));
+        assertEquals(6.5, Update.increment("score", 1.5).apply(5L));
+        assertEquals(2L, Update.increment("missing", 2).apply(null));
+        try {
+            Update.increment("team", 1).apply("red");
+            fail("incremented a string");
+        } catch (IllegalArgumentException e) { }
+    }
+
+    public void testAppend() throws Exception {
+        Query q = new QueryBuilder().update().from(A.class).append("tags", "x").increment("score", 1).build();
+        assertEquals("UPDATE " + Query.safeTable(A.class) + " INCREMENT user_data.score = ? ADD user_data.tags = ?",
+                     q.getPlannedSQL(null));
+        assertEquals(Arrays.<Object>asList(1L, "x"), q.getParameters());
+
+        assertEquals(Arrays.<Object>asList("x"), Update.append("tags", "x").apply(null));
+        assertEquals(Arrays.<Object>asList("a", 2L), Update.append("tags", 2).apply(new String[]{"a"}));
+        try {
+            Update.append("team", "x").apply("red");
+            fail("appended to a string");
+        } catch (IllegalArgumentException e) { }
+
+        A a = a("blue", 4);
+        new Patch(a).set("team", "red").increment("score", 2).append("tags", "x").applyTo(a);
+        assertEquals("red", a.get(String.class, "team"));
+        assertEquals(6L, a.get(Object.class, "score"));
+        assertEquals(Arrays.<Object>asList("x"), a.get(Object.class, "tags"));
+        assertEquals(Query.safeTable(A.class), new Patch(A.class, a.getObjectKey()).getObjectType());
+    }
+
+    public void testAggregation() throws Exception {
+        Query q = new QueryBuilder().select(SelectOperation.AVG, "score").from(A.class).groupBy("team").build();
+        Aggregation aggregation = new Aggregation(q);
+        aggregation.add(a("red", 1));
+        aggregation.add(a("red", 2));
+        aggregation.add(a("blue", 5));
+        aggregation.add(a("blue", null));
+
+        Map<Object,Double> results = new HashMap<Object,Double>();
+        for(TransientObject o : aggregation.getResults()){
+            results.put(((Aggregate) o).getGroup(), ((Aggregate) o).getValue());
+        }
+        assertEquals(2, results.size());
+        assertEquals(1.5, results.get("red"));
+        assertEquals(5.0, results.get("blue"));
+
+        q = new QueryBuilder().select(SelectOperation.SUM, "score").from(A.class).build();
+        Aggregate empty = (Aggregate) new Aggregation(q).getResults().get(0);
+        assertNull(empty.getValue());
+        assertEquals(Query.safeTable(A.class), empty.getFrom());
+
+        q = new QueryBuilder().select(SelectOperation.COUNT).from(A.class).build();
+        aggregation = new Aggregation(q);
+        aggregation.add(a("red", 1));
+        aggregation.add(a("red", null));
+        assertEquals(2, ((Count) aggregation.getResults().get(0)).getCount());
+    }
+
+    private static A a(String team, Integer score){
+        A a = new A();
+        a.put("team", team);
+        if(score != null) a.put("score", score);
+        return a;
+    }
+
+    public void testContinuation() throws Exception {
+        A last = new A();
+        last.put("key2", "it's: a value");
+
+        Query q = new QueryBuilder().select().from(A.class).orderBy("key2", Order.ASC).limit(5).build();
+        String token = q.continuationAfter(last);
+        Query next = new QueryBuilder().select().from(A.class).orderBy("key2", Order.ASC).after(token).limit(5).build();
+        assertEquals("it's: a value", next.getContinuation().getValue().getValue());
+        assertEquals(last.getObjectKey(), next.getContinuation().getKey());
+
+        // numbers keep their type, so they are compared as numbers
+        last.put("key3", 10);
+        q = new QueryBuilder().select().from(A.class).orderBy("key3", Order.ASC).limit(5).build();
+        next = new QueryBuilder().select().from(A.class).orderBy("key3", Order.ASC).after(q.continuationAfter(last)).limit(5).build();
+        assertEquals(Literal.of(10), next.getContinuation().getValue());
+        assertTrue(next.getContinuation().getValue().compareTo(Literal.of(9.5)) > 0);
+        assertTrue(next.getContinuation().getValue().compareTo(Literal.of("9")) < 0);
+        assertEquals(0, next.getContinuation().getValue().compareTo(Literal.of(10d)));
+
+        // ordered by object key only
+        token = new QueryBuilder().select().from(A.class).build().continuationAfter(last);
+        next = new QueryBuilder().select().from(A.class).after(token).build();
+        assertTrue(next.isOrdered());
+        assertNull(next.getOrderBy());
+        assertNull(next.getContinuation().getValue());
+        assertEquals(last.getObjectKey(), next.getContinuation().getKey());
+
+        try {
+            new QueryBuilder().select().from(A.class).after("not a token").build().getContinuation();
+            fail("malformed token accepted");
+        } catch (IllegalArgumentException e) { }
+    }
+
     private static class A extends TransientObject{};
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.shared.util;
+
+/*
+ * Compares issue/parse cost of the PBE and HMAC token formats. Not part of the
+ * test run, execute main() directly: AuthTokenUtilsBenchmark [iterations]
+ */
+public class AuthTokenUtilsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        for(AuthTokenUtils.TokenFormat format : AuthTokenUtils.TokenFormat.values()){
+            run(format, iterations / 10); // warm up
+            run(format, iterations);
+        }
+    }
+
+    private static void run(AuthTokenUtils.TokenFormat format, int iterations) throws Exception {
+        AuthTokenUtilsTest.TestCredentials credentials = new AuthTokenUtilsTest.TestCredentials(1);
+        String[] tokens = new String[iterations];
+
+        long start = System.nanoTime();
+        for(int x=0;x<iterations;x++){
+            tokens[x] = AuthTokenUtils.getNewToken(AuthTokenUtilsTest.KEY, credentials, format);
+        }
+        long issued = System.nanoTime();
+        for(int x=0;x<iterations;x++){
+            new AuthTokenUtils.AuthToken(AuthTokenUtilsTest.KEY, tokens[x]);
+        }
+        long parsed = System.nanoTime();
+
+        System.out.println(format + ": " + iterations + " tokens" +
+                ", issue " + ((issued - start) / iterations) + " ns/op" +
+                ", parse " + ((parsed - issued) / iterations) + " ns/op");
+    }
+}
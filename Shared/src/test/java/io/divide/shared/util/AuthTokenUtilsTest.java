@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.divide.shared.util;
+
+import io.divide.shared.transitory.Credentials;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AuthTokenUtilsTest {
+
+    static final String KEY = "someKey";
+
+    @Test
+    public void testPBERoundTrip() throws Exception {
+        String token = AuthTokenUtils.getNewToken(KEY, new TestCredentials(7));
+        AuthTokenUtils.AuthToken authToken = new AuthTokenUtils.AuthToken(KEY, token);
+        assertEquals("7", authToken.userId);
+        assertFalse(authToken.isExpired());
+    }
+
+    @Test
+    public void testHMACRoundTrip() throws Exception {
+        String token = AuthTokenUtils.getNewToken(KEY, new TestCredentials(7), AuthTokenUtils.TokenFormat.HMAC);
+        AuthTokenUtils.AuthToken authToken = new AuthTokenUtils.AuthToken(KEY, token);
+        assertEquals("7", authToken.userId);
+        assertEquals(Long.MAX_VALUE, (long) authToken.expirationDate);
+    }
+
+    @Test
+    public void testStatelessRoundTrip() throws Exception {
+        Credentials credentials = new TestCredentials(7);
+        credentials.setUserGroup("admin");
+        AuthTokenUtils.AuthToken authToken = new AuthTokenUtils.AuthToken(KEY,
+                AuthTokenUtils.getNewToken(KEY, credentials, AuthTokenUtils.TokenFormat.STATELESS));
+        assertTrue(authToken.isStateless());
+        assertEquals("7", authToken.userId);
+        assertEquals("admin", authToken.group);
+        assertFalse(authToken.isExpired());
+        assertTrue(authToken.expirationDate < Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testOnlyStatelessTokensAreStateless() throws Exception {
+        Credentials credentials = new TestCredentials(7);
+        assertFalse(new AuthTokenUtils.AuthToken(KEY, AuthTokenUtils.getNewToken(KEY, credentials)).isStateless());
+        assertFalse(new AuthTokenUtils.AuthToken(KEY, AuthTokenUtils.getNewToken(KEY, credentials, AuthTokenUtils.TokenFormat.HMAC)).isStateless());
+        AuthTokenUtils.AuthToken noGroup = new AuthTokenUtils.AuthToken(KEY, AuthTokenUtils.getNewToken(KEY, credentials, AuthTokenUtils.TokenFormat.STATELESS));
+        assertTrue(noGroup.isStateless());
+        assertNull(noGroup.group);
+    }
+
+    @Test
+    public void testTokensAreUnique() throws Exception {
+        Credentials credentials = new TestCredentials(1);
+        assertFalse(AuthTokenUtils.getNewToken(KEY, credentials).equals(AuthTokenUtils.getNewToken(KEY, credentials)));
+        assertFalse(AuthTokenUtils.getNewToken(KEY, credentials, AuthTokenUtils.TokenFormat.HMAC)
+                .equals(AuthTokenUtils.getNewToken(KEY, credentials, AuthTokenUtils.TokenFormat.HMAC)));
+    }
+
+    @Test(expected = AuthTokenUtils.AuthenticationException.class)
+    public void testPBEWrongKey() throws Exception {
+        new AuthTokenUtils.AuthToken("otherKey", AuthTokenUtils.getNewToken(KEY, new TestCredentials(1)));
+    }
+
+    @Test(expected = AuthTokenUtils.AuthenticationException.class)
+    public void testHMACWrongKey() throws Exception {
+        new AuthTokenUtils.AuthToken("otherKey", AuthTokenUtils.getNewToken(KEY, new TestCredentials(1), AuthTokenUtils.TokenFormat.HMAC));
+    }
+
+    @Test(expected = AuthTokenUtils.AuthenticationException.class)
+    public void testHMACTampered() throws Exception {
+        String token = AuthTokenUtils.getNewToken(KEY, new TestCredentials(1), AuthTokenUtils.TokenFormat.HMAC);
+        String forged = AuthTokenUtils.getNewToken("otherKey", new TestCredentials(2), AuthTokenUtils.TokenFormat.HMAC);
+        // payload of one token with the signature of another
+        new AuthTokenUtils.AuthToken(KEY, forged.substring(0, forged.indexOf('.')) + token.substring(token.indexOf('.')));
+    }
+
+    @Test(expected = AuthTokenUtils.AuthenticationException.class)
+    public void testMalformed() throws Exception {
+        new AuthTokenUtils.AuthToken(KEY, "bad token");
+    }
+
+    static class TestCredentials extends Credentials {
+        TestCredentials(int ownerId){
+            super("someUsername","someEmail","somePassword");
+            setOwnerId(ownerId);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Compares payload size and encode/decode cost of JSON and the binary format for batches of
+ * objects. Not part of the test run, execute main() directly: BinaryFormatBenchmark [iterations]
+ */
+public class BinaryFormatBenchmark {
+
+    private static final Gson gson = new Gson();
+    private static final Type OBJECTS = new TypeToken<List<BinaryFormatTest.AObject>>(){}.getType();
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        for(int batch : new int[]{10, 1000}){
+            List<BinaryFormatTest.AObject> objects = BinaryFormatTest.objects(batch);
+            run(objects, iterations / 10); // warm up
+            run(objects, iterations);
+        }
+    }
+
+    private static void run(List<BinaryFormatTest.AObject> objects, int iterations) throws Exception {
+        int n = objects.size();
+        byte[] json = json(objects);
+        byte[] binary = BinaryFormat.toBytes(gson, objects, OBJECTS);
+
+        long start = System.nanoTime();
+        for(int x=0;x<iterations;x++) json(objects);
+        long jsonEncode = System.nanoTime();
+        for(int x=0;x<iterations;x++) gson.fromJson(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8"), OBJECTS);
+        long jsonDecode = System.nanoTime();
+        for(int x=0;x<iterations;x++) BinaryFormat.toBytes(gson, objects, OBJECTS);
+        long binaryEncode = System.nanoTime();
+        for(int x=0;x<iterations;x++) BinaryFormat.fromBytes(gson, binary, OBJECTS);
+        long binaryDecode = System.nanoTime();
+
+        long ops = (long) iterations * n;
+        System.out.println(n + " objects:" +
+                " json " + json.length + " bytes (" + gzip(json) + " gzipped)" +
+                ", encode " + ((jsonEncode - start) / ops) + " ns/object" +
+                ", decode " + ((jsonDecode - jsonEncode) / ops) + " ns/object");
+        System.out.println(n + " objects:" +
+                " binary " + binary.length + " bytes (" + gzip(binary) + " gzipped)" +
+                ", encode " + ((binaryEncode - jsonDecode) / ops) + " ns/object" +
+                ", decode " + ((binaryDecode - binaryEncode) / ops) + " ns/object");
+    }
+
+    private static byte[] json(Object objects) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStreamWriter writer = new OutputStreamWriter(out, "UTF-8");
+        gson.toJson(objects, OBJECTS, writer);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static int gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.size();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.util.*;
+
+public class BinaryFormatTest extends TestCase {
+
+    private static final Gson gson = new Gson();
+    private static final Type OBJECTS = new TypeToken<List<AObject>>(){}.getType();
+
+    public void testRoundTripMatchesJson() throws Exception {
+        List<AObject> objects = objects(20);
+
+        List<AObject> fromJson = gson.fromJson(gson.toJson(objects, OBJECTS), OBJECTS);
+        List<AObject> fromBinary = BinaryFormat.fromBytes(gson, BinaryFormat.toBytes(gson, objects, OBJECTS), OBJECTS);
+
+        assertEquals(fromJson.size(), fromBinary.size());
+        for(int i = 0; i < fromJson.size(); i++){
+            assertEquals(fromJson.get(i).getUserData(), fromBinary.get(i).getUserData());
+            assertEquals(fromJson.get(i).getMetaData(), fromBinary.get(i).getMetaData());
+        }
+    }
+
+    public void testValues() throws Exception {
+        String big = repeat("é😀x", 5000); // longer than the buffers, with a surrogate pair
+        List<Object> values = Arrays.<Object>asList(null, true, false, 0, -1, Long.MAX_VALUE, Long.MIN_VALUE,
+                0.5, -0.0, 1e300, new BigDecimal("1.10"), "", "café", big, "café");
+        Gson nulls = new GsonBuilder().serializeNulls().create();
+        byte[] bytes = BinaryFormat.toBytes(nulls, values, List.class);
+
+        JsonArray array = new BinaryReader(new ByteArrayInputStream(bytes)).read().getAsJsonArray();
+        assertEquals(values.size(), array.size());
+        assertTrue(array.get(0).isJsonNull());
+        assertTrue(array.get(1).getAsBoolean());
+        assertFalse(array.get(2).getAsBoolean());
+        assertEquals(0, array.get(3).getAsLong());
+        assertEquals(-1, array.get(4).getAsLong());
+        assertEquals(Long.MAX_VALUE, array.get(5).getAsLong());
+        assertEquals(Long.MIN_VALUE, array.get(6).getAsLong());
+        assertEquals(0.5, array.get(7).getAsDouble());
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(array.get(8).getAsDouble()));
+        assertEquals(1e300, array.get(9).getAsDouble());
+        assertEquals(new BigDecimal("1.10"), array.get(10).getAsBigDecimal());
+        assertEquals("", array.get(11).getAsString());
+        assertEquals("café", array.get(12).getAsString());
+        assertEquals(big, array.get(13).getAsString());
+        assertEquals("café", array.get(14).getAsString());
+    }
+
+    public void testNullsFollowGsonSettings() throws Exception {
+        Map<String,Object> map = new LinkedHashMap<String, Object>();
+        map.put("a", null);
+        map.put("b", 1);
+        assertEquals("{\"b\":1}", new BinaryReader(new ByteArrayInputStream(BinaryFormat.toBytes(gson, map, Map.class))).read().toString());
+
+        Gson nulls = new GsonBuilder().serializeNulls().create();
+        assertEquals("{\"a\":null,\"b\":1}", new BinaryReader(new ByteArrayInputStream(BinaryFormat.toBytes(nulls, map, Map.class))).read().toString());
+    }
+
+    public void testRepeatedStringsAreSentOnce() throws Exception {
+        List<String> values = Collections.nCopies(100, "io.divide.shared.util.BinaryFormatTest");
+        byte[] bytes = BinaryFormat.toBytes(gson, values, List.class);
+        assertTrue(bytes.length < 2 * 100 + 50);
+
+        byte[] objects = BinaryFormat.toBytes(gson, objects(100), OBJECTS);
+        assertTrue(objects.length < gson.toJson(objects(100), OBJECTS).getBytes("UTF-8").length / 2);
+    }
+
+    public void testQuery() throws Exception {
+        Query query = new QueryBuilder().select().from(AObject.class).where("score", OPERAND.GREATER_THAN, 3).limit(5).build();
+        Query read = BinaryFormat.fromBytes(gson, BinaryFormat.toBytes(gson, query, Query.class), Query.class);
+        assertEquals(gson.toJson(query), gson.toJson(read));
+    }
+
+    public void testReadElementsOneByOne() throws Exception {
+        List<AObject> objects = objects(3);
+        BinaryReader reader = new BinaryReader(new ByteArrayInputStream(BinaryFormat.toBytes(gson, objects, OBJECTS)));
+        reader.beginArray();
+        int count = 0;
+        while(reader.hasNext()){
+            AObject o = gson.fromJson(reader.read(), AObject.class);
+            assertEquals(objects.get(count++).getObjectKey(), o.getObjectKey());
+        }
+        reader.endArray();
+        assertEquals(3, count);
+    }
+
+    public void testTruncated() throws Exception {
+        byte[] bytes = BinaryFormat.toBytes(gson, objects(1), OBJECTS);
+        try {
+            new BinaryReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))).read();
+            fail();
+        } catch (EOFException expected) { }
+    }
+
+    public void testHostileLengths() throws Exception {
+        // declares a string just under the limit but sends almost nothing, must not allocate up front
+        assertMalformed(EOFException.class, BinaryFormat.STRING, 0xFF, 0xFF, 0xFF, 0x07, 'a');
+        assertMalformed(JsonSyntaxException.class, BinaryFormat.STRING, 0xFF, 0xFF, 0xFF, 0xFF, 0x07);
+        // 10 byte varints decode to negative lengths and indexes
+        assertMalformed(JsonSyntaxException.class, BinaryFormat.STRING, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        assertMalformed(JsonSyntaxException.class, BinaryFormat.STRING_REF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        assertMalformed(JsonSyntaxException.class, BinaryFormat.END_OBJECT);
+
+        int[] nested = new int[BinaryFormat.MAX_DEPTH + 1];
+        Arrays.fill(nested, BinaryFormat.BEGIN_ARRAY);
+        assertMalformed(JsonSyntaxException.class, nested);
+    }
+
+    public void testFuzz() throws Exception {
+        Random random = new Random(42);
+        byte[] valid = BinaryFormat.toBytes(gson, objects(3), OBJECTS);
+        for(int i = 0; i < 20000; i++){
+            byte[] bytes;
+            if(i % 4 == 0){
+                bytes = new byte[random.nextInt(64)];
+                random.nextBytes(bytes);
+            } else {
+                bytes = Arrays.copyOf(valid, random.nextInt(valid.length + 1));
+                for(int flips = random.nextInt(4) + 1; flips > 0 && bytes.length > 0; flips--){
+                    bytes[random.nextInt(bytes.length)] = (byte) random.nextInt(256);
+                }
+            }
+            try {
+                new BinaryReader(new ByteArrayInputStream(bytes)).read();
+            } catch (JsonSyntaxException expected) {
+            } catch (EOFException expected) {
+            }
+        }
+    }
+
+    private static void assertMalformed(Class<? extends Exception> expected, int... values) throws Exception {
+        byte[] bytes = new byte[values.length];
+        for(int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+        try {
+            new BinaryReader(new ByteArrayInputStream(bytes)).read();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.toString(), expected.isInstance(e));
+        }
+    }
+
+    static List<AObject> objects(int count){
+        List<AObject> objects = new ArrayList<AObject>();
+        for(int i = 0; i < count; i++){
+            AObject o = new AObject();
+            o.put("title", "title " + i);
+            o.put("score", i);
+            o.put("ratio", i / 3.0);
+            o.put("tags", Arrays.asList("a", "b", "c"));
+            o.put("nested", Collections.singletonMap("k", i));
+            o.put("body", repeat("lorem ipsum ", 10));
+            objects.add(o);
+        }
+        return objects;
+    }
+
+    private static String repeat(String s, int times){
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+
+    static class AObject extends TransientObject { }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/*
+ * Compares the shared Gson and its hand written adapters with reflective adapters, serializing and
+ * deserializing 1k object batches and queries. Not part of the test run, execute main() directly:
+ * GsonUtilsBenchmark [iterations]
+ */
+public class GsonUtilsBenchmark {
+
+    private static final Type OBJECTS = new TypeToken<List<BinaryFormatTest.AObject>>(){}.getType();
+
+    public static void main(String[] args) throws Exception {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        Gson reflective = new GsonBuilder().enableComplexMapKeySerialization().create();
+        for(int x=0;x<3;x++){ // first round warms up
+            run("adapters", GsonUtils.GSON, iterations);
+            run("reflective", reflective, iterations);
+        }
+    }
+
+    private static void run(String name, Gson gson, int iterations) throws Exception {
+        List<BinaryFormatTest.AObject> objects = BinaryFormatTest.objects(1000);
+        String json = gson.toJson(objects, OBJECTS);
+        Query query = new QueryBuilder().select().from(BinaryFormatTest.AObject.class)
+                .where("score", OPERAND.GREATER_THAN, 3).or("title", OPERAND.EQ, "t").limit(5).build();
+        String queryJson = gson.toJson(query);
+        int queries = iterations * 1000;
+
+        long start = System.nanoTime();
+        for(int x=0;x<iterations;x++) gson.toJson(objects, OBJECTS);
+        long serialized = System.nanoTime();
+        for(int x=0;x<iterations;x++) gson.fromJson(json, OBJECTS);
+        long deserialized = System.nanoTime();
+        for(int x=0;x<queries;x++) gson.toJson(query);
+        long querySerialized = System.nanoTime();
+        for(int x=0;x<queries;x++) gson.fromJson(queryJson, Query.class);
+        long queryDeserialized = System.nanoTime();
+
+        System.out.println(name + ": 1k objects" +
+                ", serialize " + ((serialized - start) / iterations / 1000) + " us/batch" +
+                ", deserialize " + ((deserialized - serialized) / iterations / 1000) + " us/batch" +
+                "; query serialize " + ((querySerialized - deserialized) / queries) + " ns/op" +
+                ", deserialize " + ((queryDeserialized - querySerialized) / queries) + " ns/op");
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 Divide.io
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.divide.shared.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import io.divide.shared.transitory.Credentials;
+import io.divide.shared.transitory.TransientObject;
+import io.divide.shared.transitory.query.Clause;
+import io.divide.shared.transitory.query.OPERAND;
+import io.divide.shared.transitory.query.Query;
+import io.divide.shared.transitory.query.QueryBuilder;
+import junit.framework.TestCase;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+public class GsonUtilsTest extends TestCase {
+
+    // what GSON replaces, adapters resolved by reflection
+    private static final Gson reflective = new GsonBuilder().enableComplexMapKeySerialization().create();
+    private static final Type OBJECTS = new TypeToken<List<BinaryFormatTest.AObject>>(){}.getType();
+
+    public void testTransientObjectsMatchReflection() throws Exception {
+        List<BinaryFormatTest.AObject> objects = BinaryFormatTest.objects(5);
+        objects.get(0).put("missing", null);
+        String json = GsonUtils.GSON.toJson(objects, OBJECTS);
+        assertEquals(reflective.toJson(objects, OBJECTS), json);
+
+        List<BinaryFormatTest.AObject> read = GsonUtils.GSON.fromJson(json, OBJECTS);
+        List<BinaryFormatTest.AObject> expected = reflective.fromJson(json, OBJECTS);
+        for(int i = 0; i < objects.size(); i++){
+            assertEquals(expected.get(i).getUserData(), read.get(i).getUserData());
+            assertEquals(expected.get(i).getMetaData(), read.get(i).getMetaData());
+        }
+        assertEquals(reflective.toJson(expected, OBJECTS), GsonUtils.GSON.toJson(read, OBJECTS));
+
+        assertEquals(GsonUtils.GSON_WITH_NULLS.toJson(objects.get(0)), new GsonBuilder().serializeNulls().create().toJson(objects.get(0)));
+    }
+
+    public void testCredentials() throws Exception {
+        Credentials credentials = new Credentials("name", "email", "password");
+        String json = GsonUtils.GSON.toJson(credentials);
+        assertEquals(reflective.toJson(credentials), json);
+
+        Credentials read = GsonUtils.GSON.fromJson(json, Credentials.class);
+        assertEquals("email", read.getEmailAddress());
+        assertEquals("password", read.getPassword());
+        assertEquals(credentials.getObjectKey(), read.getObjectKey());
+    }
+
+    public void testQueryMatchesReflection() throws Exception {
+        Query query = new QueryBuilder().select().from(BinaryFormatTest.AObject.class)
+                .where("score", OPERAND.GREATER_THAN, 3).or("title", OPERAND.EQ, "it's").limit(5).build();
+        String json = GsonUtils.GSON.toJson(query);
+        assertEquals(reflective.toJson(query), json);
+        assertEquals(json, GsonUtils.GSON.toJson(GsonUtils.GSON.fromJson(json, Query.class)));
+
+        // queries from before expressions only have clauses
+        String legacy = "{\"action\":\"SELECT\",\"from\":\"a\",\"where\":{\"0\":{\"preOperator\":\"\",\"before\":\"user_data.k\",\"operand\":\"==\",\"after\":\"v\"}},\"limit\":2,\"random\":true}";
+        Query old = GsonUtils.GSON.fromJson(legacy, Query.class);
+        assertEquals(reflective.toJson(reflective.fromJson(legacy, Query.class)), GsonUtils.GSON.toJson(old));
+        Clause clause = old.getWhere().get(0);
+        assertEquals("user_data.k", clause.getBefore());
+        assertEquals("v", clause.getAfter());
+        assertEquals(Integer.valueOf(2), old.getLimit());
+    }
+
+    public void testOwnFieldsUseReflection() throws Exception {
+        WithField o = new WithField();
+        o.extra = "kept";
+        WithField read = GsonUtils.GSON.fromJson(GsonUtils.GSON.toJson(o), WithField.class);
+        assertEquals("kept", read.extra);
+        assertEquals(o.getObjectKey(), read.getObjectKey());
+    }
+
+    static class WithField extends TransientObject {
+        String extra;
+    }
+}